@@ -22,6 +22,8 @@ public class BaseThrowable extends Throwable {
     int NO_NETWORK = 0;
     int RECOVERABLE = 1;
     int AUTHORIZATION = 2;
+    // Request not sent, its backend is failing. See CircuitBreakerInterceptor
+    int CIRCUIT_OPEN = 3;
   }
 
   private final Throwable sourceThrowable;
@@ -46,6 +48,12 @@ public class BaseThrowable extends Throwable {
 
     // Parse the error with a known type
 
+    // backend failing, not even tried
+    if (sourceThrowable instanceof CircuitOpenException) {
+      type = Type.CIRCUIT_OPEN;
+      return;
+    }
+
     // no connection
     if (sourceThrowable instanceof java.net.UnknownHostException) {
       type = Type.NO_NETWORK;
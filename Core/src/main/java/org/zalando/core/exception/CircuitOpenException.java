@@ -0,0 +1,32 @@
+package org.zalando.core.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while the circuit of its host is open. See {@link
+ * org.zalando.core.network.CircuitBreakerInterceptor}
+ */
+public class CircuitOpenException extends IOException {
+
+  private final String host;
+
+  /**
+   * Constructor
+   *
+   * @param host {@link String} with the host whose circuit is open
+   */
+  public CircuitOpenException(String host) {
+
+    super(String.format("Circuit of %s is open", host));
+    this.host = host;
+  }
+
+  /**
+   * @return {@link String} with the host whose circuit is open
+   */
+  public String getHost() {
+
+    return host;
+  }
+
+}
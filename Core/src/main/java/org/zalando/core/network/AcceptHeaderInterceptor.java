@@ -0,0 +1,36 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Interceptor adding the Accept header of the {@link ConverterStrategy} to the requests sent
+ * without one
+ */
+final class AcceptHeaderInterceptor implements Interceptor {
+
+  private final String accept;
+
+  /**
+   * Constructor
+   *
+   * @param accept {@link String} with the Accept header
+   */
+  AcceptHeaderInterceptor(String accept) {
+
+    this.accept = accept;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    if (request.header("Accept") != null) {
+      return chain.proceed(request);
+    }
+    return chain.proceed(request.newBuilder().header("Accept", accept).build());
+  }
+
+}
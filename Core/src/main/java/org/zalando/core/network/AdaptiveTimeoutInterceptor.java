@@ -0,0 +1,190 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.zalando.core.utils.Preconditions;
+
+/**
+ * Interceptor adapting the connect and read timeouts of every endpoint to its recent latencies.
+ * The timeout is a multiple of the 99th percentile of the last responses of the endpoint, clamped
+ * between the given bounds, so a stalled request fails soon on a fast network while slow networks
+ * get the time they need. Endpoints without enough recent latencies get the maximum timeout.
+ * Responses served by the cache are not recorded. Timeouts of the client replace the adaptive ones
+ * when they are longer only if the interceptor is told to keep them
+ */
+public final class AdaptiveTimeoutInterceptor implements Interceptor {
+
+  private static final double PERCENTILE = 99;
+  private static final int MULTIPLIER = 3;
+  private static final int MIN_SAMPLES = 20;
+  // Latencies of a window, once full the window before it is forgotten
+  private static final int WINDOW_SIZE = 200;
+
+  private final long minTimeoutMillis;
+  private final long maxTimeoutMillis;
+  private final boolean keepClientTimeouts;
+  private final ConcurrentMap<String, RollingLatencies> latencies = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor. Timeouts go from 2 to 30 seconds
+   */
+  public AdaptiveTimeoutInterceptor() {
+
+    this(2, 30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Constructor. Timeouts of the client are always replaced
+   *
+   * @param minTimeout {@link Long} with the minimum timeout
+   * @param maxTimeout {@link Long} with the maximum timeout, used until latencies are known
+   * @param timeUnit {@link TimeUnit} of the timeouts
+   */
+  public AdaptiveTimeoutInterceptor(long minTimeout, long maxTimeout,
+      @NonNull TimeUnit timeUnit) {
+
+    this(minTimeout, maxTimeout, timeUnit, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param minTimeout {@link Long} with the minimum timeout
+   * @param maxTimeout {@link Long} with the maximum timeout, used until latencies are known
+   * @param timeUnit {@link TimeUnit} of the timeouts
+   * @param keepClientTimeouts {@link Boolean} indicating if the timeouts of the client are kept
+   * when they are longer than the adaptive ones, or disabled
+   */
+  public AdaptiveTimeoutInterceptor(long minTimeout, long maxTimeout,
+      @NonNull TimeUnit timeUnit, boolean keepClientTimeouts) {
+
+    Preconditions.checkArgument(minTimeout > 0, "Minimum timeout must be positive");
+    Preconditions.checkArgument(maxTimeout >= minTimeout, "Maximum timeout can not be lower "
+        + "than the minimum one");
+    this.minTimeoutMillis = timeUnit.toMillis(minTimeout);
+    this.maxTimeoutMillis = timeUnit.toMillis(maxTimeout);
+    this.keepClientTimeouts = keepClientTimeouts;
+  }
+
+  /**
+   * @param request {@link Request} to the endpoint
+   * @return {@link Long} with the current timeout of the endpoint of the given request in
+   * milliseconds
+   */
+  public long getTimeoutMillis(@NonNull Request request) {
+
+    final RollingLatencies endpointLatencies = latencies.get(NetworkMetrics.templateOf(request));
+    final long percentile = endpointLatencies != null
+        ? endpointLatencies.getPercentileMillis() : -1;
+    if (percentile < 0) {
+      return maxTimeoutMillis;
+    }
+    return Math.min(maxTimeoutMillis, Math.max(minTimeoutMillis, percentile * MULTIPLIER));
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    final String template = NetworkMetrics.templateOf(request);
+    final int timeout = (int) getTimeoutMillis(request);
+    final long start = System.nanoTime();
+    try {
+      final Response response = chain
+          .withConnectTimeout(timeoutOf(timeout, chain.connectTimeoutMillis()),
+              TimeUnit.MILLISECONDS)
+          .withReadTimeout(timeoutOf(timeout, chain.readTimeoutMillis()), TimeUnit.MILLISECONDS)
+          .proceed(request);
+      // Cache hits and revalidations say nothing about the latency of the network
+      if (response.cacheResponse() == null) {
+        latenciesOf(template).record(System.nanoTime() - start);
+      }
+      return response;
+    } catch (SocketTimeoutException e) {
+      // Timeouts count as slow responses, so too short timeouts grow back
+      latenciesOf(template).record(System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  /**
+   * Provides the timeout of a request, keeping the one configured in the client when it is longer
+   * and client timeouts are kept
+   *
+   * @param adaptiveTimeout {@link Integer} with the adaptive timeout in milliseconds
+   * @param clientTimeout {@link Integer} with the timeout of the client in milliseconds, 0 for none
+   * @return {@link Integer} with the timeout in milliseconds
+   */
+  private int timeoutOf(int adaptiveTimeout, int clientTimeout) {
+
+    if (keepClientTimeouts && (clientTimeout == 0 || clientTimeout > adaptiveTimeout)) {
+      return clientTimeout;
+    }
+    return adaptiveTimeout;
+  }
+
+  /**
+   * Provides the {@link RollingLatencies} of the given endpoint, creating them the first time
+   *
+   * @param template {@link String} with the template of the endpoint, see {@link
+   * NetworkMetrics#templateOf(Request)}
+   * @return {@link RollingLatencies} of the endpoint
+   */
+  private RollingLatencies latenciesOf(String template) {
+
+    RollingLatencies endpointLatencies = latencies.get(template);
+    if (endpointLatencies == null) {
+      final RollingLatencies newLatencies = new RollingLatencies();
+      endpointLatencies = latencies.putIfAbsent(template, newLatencies);
+      if (endpointLatencies == null) {
+        endpointLatencies = newLatencies;
+      }
+    }
+    return endpointLatencies;
+  }
+
+  /**
+   * Latencies of the current and the previous window of an endpoint
+   */
+  private static final class RollingLatencies {
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous;
+
+    void record(long latencyNanos) {
+
+      final LatencyHistogram histogram = current;
+      histogram.record(latencyNanos, TimeUnit.NANOSECONDS);
+      if (histogram.getCount() >= WINDOW_SIZE) {
+        synchronized (this) {
+          if (current == histogram) {
+            previous = histogram;
+            current = new LatencyHistogram();
+          }
+        }
+      }
+    }
+
+    /**
+     * @return {@link Long} with the percentile of the fullest recent window, -1 if there are not
+     * enough latencies
+     */
+    long getPercentileMillis() {
+
+      final LatencyHistogram histogram = current;
+      if (histogram.getCount() >= MIN_SAMPLES) {
+        return histogram.getPercentileMillis(PERCENTILE);
+      }
+      final LatencyHistogram previousHistogram = previous;
+      return previousHistogram != null ? previousHistogram.getPercentileMillis(PERCENTILE) : -1;
+    }
+  }
+
+}
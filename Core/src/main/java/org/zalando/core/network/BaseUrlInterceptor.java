@@ -8,24 +8,28 @@ import okhttp3.Response;
 import org.zalando.core.utils.ValidationUtils;
 
 /**
- * Base class to let subclass interceptors to override retrofit host urls on the fly
+ * Base class to let subclass interceptors to override retrofit host urls on the fly. The provided
+ * url is only validated and parsed when it changes, so return the same {@link String} instance
+ * while it does not change
  */
 public abstract class BaseUrlInterceptor implements Interceptor {
 
+  private volatile ParsedHost parsedHost = new ParsedHost(null, null);
+
   @Override
   public Response intercept(Chain chain) throws IOException {
 
     // Take current request from the chain
     Request request = chain.request();
 
-    // Get the subclass defined url
-    String hostUrl = getHostBaseUrl();
-    if (ValidationUtils.isValidURL(hostUrl)) {
+    // Get the subclass defined host, parsing it only if the url changed
+    final String host = hostOf(getHostBaseUrl());
+    if (host != null && !host.equals(request.url().host())) {
 
       // Create the new url, just taking the host from the
       // subclass url
       HttpUrl newUrl = request.url().newBuilder()
-          .host(HttpUrl.parse(hostUrl).host())
+          .host(host)
           .build();
 
       // set the new url to the request
@@ -41,4 +45,38 @@ public abstract class BaseUrlInterceptor implements Interceptor {
    * Provide the url
    */
   public abstract String getHostBaseUrl();
+
+  /**
+   * Provides the host of the given url, reusing the last parsed one if the url did not change
+   *
+   * @param hostUrl {@link String} with the url
+   * @return {@link String} with the host, null if the url is not valid
+   */
+  private String hostOf(String hostUrl) {
+
+    final ParsedHost current = parsedHost;
+    if (current.url == hostUrl || (hostUrl != null && hostUrl.equals(current.url))) {
+      return current.host;
+    }
+
+    final HttpUrl parsedUrl = ValidationUtils.isValidURL(hostUrl) ? HttpUrl.parse(hostUrl) : null;
+    final ParsedHost parsed = new ParsedHost(hostUrl, parsedUrl != null ? parsedUrl.host() : null);
+    parsedHost = parsed;
+    return parsed.host;
+  }
+
+  /**
+   * Url with its parsed host, published at once
+   */
+  private static final class ParsedHost {
+
+    final String url;
+    final String host;
+
+    ParsedHost(String url, String host) {
+
+      this.url = url;
+      this.host = host;
+    }
+  }
 }
@@ -0,0 +1,264 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * {@link Converter.Factory} of a compact binary form of JSON. Values are written and read by the
+ * {@link TypeAdapter}s of the given {@link Gson}, so entities need no changes, while numbers are
+ * sent as varints or raw floating point and repeated field names as small indexes. Responses the
+ * server sent as JSON are still parsed as JSON, so servers that do not support the format keep
+ * working. Request bodies are only sent in the binary format when asked for, since servers can not
+ * negotiate them, otherwise they are left to the JSON converter. Numbers are limited to 64 bits
+ */
+public final class BinaryConverterFactory extends Converter.Factory {
+
+  /**
+   * Media type of the binary format
+   */
+  public static final MediaType MEDIA_TYPE = MediaType.parse("application/x-binary-json");
+
+  /**
+   * Accept header preferring the binary format over JSON
+   */
+  public static final String ACCEPT = "application/x-binary-json, application/json;q=0.9";
+
+  /**
+   * {@link ConverterStrategy} reading responses in the binary format and sending requests in JSON,
+   * to set it through {@link RestApiFactory#setConverterStrategy(ConverterStrategy)}
+   */
+  public static final ConverterStrategy STRATEGY = new BinaryStrategy(false);
+
+  /**
+   * {@link ConverterStrategy} reading responses and sending requests in the binary format, for the
+   * servers that accept it
+   */
+  public static final ConverterStrategy BINARY_REQUESTS_STRATEGY = new BinaryStrategy(true);
+
+  private final Gson gson;
+  private final boolean binaryRequests;
+
+  /**
+   * Private constructor, use {@link #create(Gson)}
+   *
+   * @param gson {@link Gson} with the type adapters
+   * @param binaryRequests {@link Boolean} indicating if request bodies are sent in the binary
+   * format
+   */
+  private BinaryConverterFactory(Gson gson, boolean binaryRequests) {
+
+    this.gson = gson;
+    this.binaryRequests = binaryRequests;
+  }
+
+  /**
+   * Creates a {@link BinaryConverterFactory} reading responses in the binary format. Request
+   * bodies are left to the next converter
+   *
+   * @param gson {@link Gson} with the type adapters
+   * @return {@link BinaryConverterFactory} converting with the given {@link Gson}
+   */
+  public static BinaryConverterFactory create(@NonNull Gson gson) {
+
+    return new BinaryConverterFactory(gson, false);
+  }
+
+  /**
+   * Creates a {@link BinaryConverterFactory}
+   *
+   * @param gson {@link Gson} with the type adapters
+   * @param binaryRequests {@link Boolean} indicating if request bodies are sent in the binary
+   * format, only for servers that accept it
+   * @return {@link BinaryConverterFactory} converting with the given {@link Gson}
+   */
+  public static BinaryConverterFactory create(@NonNull Gson gson, boolean binaryRequests) {
+
+    return new BinaryConverterFactory(gson, binaryRequests);
+  }
+
+  @Override
+  public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations,
+      Retrofit retrofit) {
+
+    return new ResponseConverter<>(gson, type, gson.getAdapter(TypeToken.get(type)),
+        containsMap(type, new HashSet<Class<?>>()));
+  }
+
+  @Override
+  public Converter<?, RequestBody> requestBodyConverter(Type type,
+      Annotation[] parameterAnnotations, Annotation[] methodAnnotations, Retrofit retrofit) {
+
+    if (!binaryRequests) {
+      return null;
+    }
+    return new RequestConverter<>(gson, gson.getAdapter(TypeToken.get(type)));
+  }
+
+  /**
+   * Checks if the given media type is the one of the binary format
+   *
+   * @param mediaType {@link MediaType} to check, nullable
+   * @return {@link Boolean} indicating if it is the binary format
+   */
+  static boolean isBinary(MediaType mediaType) {
+
+    return mediaType != null && MEDIA_TYPE.type().equals(mediaType.type())
+        && MEDIA_TYPE.subtype().equals(mediaType.subtype());
+  }
+
+  /**
+   * Checks if values of the given type may contain maps. Gson reads their keys through the
+   * internals of {@link com.google.gson.stream.JsonReader}, so they can not be read from the
+   * binary format as a stream
+   *
+   * @param type {@link Type} to check
+   * @param visited {@link Set} with the classes already checked
+   * @return {@link Boolean} indicating if the type may contain maps
+   */
+  private static boolean containsMap(Type type, Set<Class<?>> visited) {
+
+    if (type instanceof ParameterizedType) {
+      for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+        if (containsMap(argument, visited)) {
+          return true;
+        }
+      }
+    } else if (type instanceof GenericArrayType) {
+      return containsMap(((GenericArrayType) type).getGenericComponentType(), visited);
+    }
+
+    final Class<?> rawType = TypeToken.get(type).getRawType();
+    if (Map.class.isAssignableFrom(rawType)) {
+      return true;
+    }
+    if (rawType.isArray()) {
+      return containsMap(rawType.getComponentType(), visited);
+    }
+    if (rawType.isPrimitive() || rawType.getName().startsWith("java.")
+        || !visited.add(rawType)) {
+      return false;
+    }
+    for (Class<?> clazz = rawType; clazz != null && clazz != Object.class;
+        clazz = clazz.getSuperclass()) {
+      for (Field field : clazz.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers())
+            && !Modifier.isTransient(field.getModifiers())
+            && containsMap(field.getGenericType(), visited)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@link Converter} of response bodies, in the binary format or in JSON
+   */
+  private static final class ResponseConverter<T> implements Converter<ResponseBody, T> {
+
+    private final Gson gson;
+    private final Type type;
+    private final TypeAdapter<T> adapter;
+    private final boolean containsMap;
+
+    ResponseConverter(Gson gson, Type type, TypeAdapter<T> adapter, boolean containsMap) {
+
+      this.gson = gson;
+      this.type = type;
+      this.adapter = adapter;
+      this.containsMap = containsMap;
+    }
+
+    @Override
+    public T convert(@NonNull ResponseBody value) throws IOException {
+
+      try {
+        if (isBinary(value.contentType()) && containsMap) {
+          // Read as a tree first, the tree reader handles the keys of the maps
+          final JsonElement tree = TypeAdapters.JSON_ELEMENT.read(
+              new BinaryJsonReader(value.source()));
+          return gson.fromJson(tree, type);
+        }
+        if (isBinary(value.contentType())) {
+          return adapter.read(new BinaryJsonReader(value.source()));
+        }
+        return adapter.read(gson.newJsonReader(value.charStream()));
+      } finally {
+        value.close();
+      }
+    }
+  }
+
+  /**
+   * {@link ConverterStrategy} of the binary format
+   */
+  private static final class BinaryStrategy implements ConverterStrategy {
+
+    private final boolean binaryRequests;
+
+    BinaryStrategy(boolean binaryRequests) {
+
+      this.binaryRequests = binaryRequests;
+    }
+
+    @Override
+    public Converter.Factory createConverterFactory(@NonNull Gson gson) {
+
+      return create(gson, binaryRequests);
+    }
+
+    @Override
+    public String getAcceptHeader() {
+
+      return ACCEPT;
+    }
+  }
+
+  /**
+   * {@link Converter} of request bodies to the binary format
+   */
+  private static final class RequestConverter<T> implements Converter<T, RequestBody> {
+
+    private final Gson gson;
+    private final TypeAdapter<T> adapter;
+
+    RequestConverter(Gson gson, TypeAdapter<T> adapter) {
+
+      this.gson = gson;
+      this.adapter = adapter;
+    }
+
+    @Override
+    public RequestBody convert(@NonNull T value) throws IOException {
+
+      final Buffer buffer = new Buffer();
+      // Same settings the JSON writers of the Gson get
+      final BinaryJsonWriter writer = new BinaryJsonWriter(buffer);
+      writer.setSerializeNulls(gson.serializeNulls());
+      writer.setLenient(true);
+      adapter.write(writer, value);
+      return RequestBody.create(MEDIA_TYPE, buffer.readByteString());
+    }
+  }
+
+}
@@ -0,0 +1,348 @@
+package org.zalando.core.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import okio.BufferedSource;
+
+/**
+ * {@link JsonReader} reading the compact binary format written by {@link BinaryJsonWriter}, so
+ * the {@link com.google.gson.TypeAdapter}s of an api read it as they read JSON
+ */
+final class BinaryJsonReader extends JsonReader {
+
+  private static final int NONE = -1;
+
+  private static final Reader UNREADABLE_READER = new Reader() {
+    @Override
+    public int read(char[] buffer, int offset, int count) {
+
+      throw new AssertionError();
+    }
+
+    @Override
+    public void close() {
+
+      throw new AssertionError();
+    }
+  };
+
+  private final BufferedSource source;
+  private final List<String> names = new ArrayList<>();
+  private int peekedTag = NONE;
+
+  /**
+   * Constructor
+   *
+   * @param source {@link BufferedSource} to read from
+   */
+  BinaryJsonReader(BufferedSource source) {
+
+    super(UNREADABLE_READER);
+    this.source = source;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+
+    expect(BinaryJsonWriter.BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+
+    expect(BinaryJsonWriter.END_ARRAY, JsonToken.END_ARRAY);
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+
+    expect(BinaryJsonWriter.BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+
+    expect(BinaryJsonWriter.END_OBJECT, JsonToken.END_OBJECT);
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+
+    final JsonToken token = peek();
+    return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY
+        && token != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+
+    if (peekedTag == NONE) {
+      if (source.exhausted()) {
+        return JsonToken.END_DOCUMENT;
+      }
+      peekedTag = source.readByte() & 0xFF;
+    }
+    switch (peekedTag) {
+      case BinaryJsonWriter.BEGIN_OBJECT:
+        return JsonToken.BEGIN_OBJECT;
+      case BinaryJsonWriter.END_OBJECT:
+        return JsonToken.END_OBJECT;
+      case BinaryJsonWriter.BEGIN_ARRAY:
+        return JsonToken.BEGIN_ARRAY;
+      case BinaryJsonWriter.END_ARRAY:
+        return JsonToken.END_ARRAY;
+      case BinaryJsonWriter.NULL:
+        return JsonToken.NULL;
+      case BinaryJsonWriter.TRUE:
+      case BinaryJsonWriter.FALSE:
+        return JsonToken.BOOLEAN;
+      case BinaryJsonWriter.LONG:
+      case BinaryJsonWriter.DOUBLE:
+      case BinaryJsonWriter.FLOAT:
+        return JsonToken.NUMBER;
+      case BinaryJsonWriter.STRING:
+        return JsonToken.STRING;
+      case BinaryJsonWriter.NEW_NAME:
+      case BinaryJsonWriter.NAME_REFERENCE:
+        return JsonToken.NAME;
+      default:
+        throw new IOException("Unknown tag " + peekedTag);
+    }
+  }
+
+  @Override
+  public String nextName() throws IOException {
+
+    final JsonToken token = peek();
+    if (token != JsonToken.NAME) {
+      throw new IllegalStateException("Expected a name but was " + token);
+    }
+    final int tag = consume();
+    if (tag == BinaryJsonWriter.NAME_REFERENCE) {
+      final long index = readVarint();
+      if (index < 0 || index >= names.size()) {
+        throw new IOException("Unknown name reference " + index);
+      }
+      return names.get((int) index);
+    }
+    final String name = readString();
+    if (names.size() < BinaryJsonWriter.MAX_NAMES) {
+      names.add(name);
+    }
+    return name;
+  }
+
+  @Override
+  public String nextString() throws IOException {
+
+    final JsonToken token = peek();
+    if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+      throw new IllegalStateException("Expected a string but was " + token);
+    }
+    switch (consume()) {
+      case BinaryJsonWriter.LONG:
+        return Long.toString(unZigZag(readVarint()));
+      case BinaryJsonWriter.DOUBLE:
+        return Double.toString(Double.longBitsToDouble(source.readLong()));
+      case BinaryJsonWriter.FLOAT:
+        return Float.toString(Float.intBitsToFloat(source.readInt()));
+      default:
+        return readString();
+    }
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+
+    final JsonToken token = peek();
+    if (token != JsonToken.BOOLEAN) {
+      throw new IllegalStateException("Expected a boolean but was " + token);
+    }
+    return consume() == BinaryJsonWriter.TRUE;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+
+    expect(BinaryJsonWriter.NULL, JsonToken.NULL);
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+
+    final JsonToken token = peek();
+    switch (peekedTag) {
+      case BinaryJsonWriter.LONG:
+        consume();
+        return unZigZag(readVarint());
+      case BinaryJsonWriter.DOUBLE:
+        consume();
+        return Double.longBitsToDouble(source.readLong());
+      case BinaryJsonWriter.FLOAT:
+        consume();
+        return Float.intBitsToFloat(source.readInt());
+      case BinaryJsonWriter.STRING:
+        return parseDouble(nextString());
+      default:
+        throw new IllegalStateException("Expected a double but was " + token);
+    }
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+
+    final JsonToken token = peek();
+    if (peekedTag == BinaryJsonWriter.LONG) {
+      consume();
+      return unZigZag(readVarint());
+    }
+    if (peekedTag == BinaryJsonWriter.STRING) {
+      final String value = nextString();
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        return toLong(parseDouble(value));
+      }
+    }
+    if (token != JsonToken.NUMBER) {
+      throw new IllegalStateException("Expected a long but was " + token);
+    }
+    return toLong(nextDouble());
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+
+    final long value = nextLong();
+    if (value != (int) value) {
+      throw new NumberFormatException("Expected an int but was " + value);
+    }
+    return (int) value;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+
+    int depth = 0;
+    do {
+      switch (peek()) {
+        case BEGIN_OBJECT:
+        case BEGIN_ARRAY:
+          consume();
+          depth++;
+          break;
+        case END_OBJECT:
+        case END_ARRAY:
+          consume();
+          depth--;
+          break;
+        case NAME:
+          nextName();
+          break;
+        case STRING:
+        case NUMBER:
+          nextString();
+          break;
+        case BOOLEAN:
+        case NULL:
+          consume();
+          break;
+        default:
+          throw new IOException("Unexpected end of document");
+      }
+    } while (depth > 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    peekedTag = NONE;
+    source.close();
+  }
+
+  @Override
+  public String toString() {
+
+    return getClass().getSimpleName();
+  }
+
+  /**
+   * Consumes the next token, checking it is the expected one
+   *
+   * @param tag {@link Integer} with the tag of the expected token
+   * @param expected {@link JsonToken} expected
+   */
+  private void expect(int tag, JsonToken expected) throws IOException {
+
+    final JsonToken token = peek();
+    if (peekedTag != tag) {
+      throw new IllegalStateException("Expected " + expected + " but was " + token);
+    }
+    consume();
+  }
+
+  /**
+   * Consumes the peeked tag
+   *
+   * @return {@link Integer} with the consumed tag
+   */
+  private int consume() throws IOException {
+
+    if (peekedTag == NONE) {
+      peek();
+    }
+    final int tag = peekedTag;
+    peekedTag = NONE;
+    return tag;
+  }
+
+  private String readString() throws IOException {
+
+    final long length = readVarint();
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid string length " + length);
+    }
+    return source.readUtf8(length);
+  }
+
+  private long readVarint() throws IOException {
+
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = source.readByte() & 0xFF;
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private double parseDouble(String value) throws IOException {
+
+    final double parsed = Double.parseDouble(value);
+    if (!isLenient() && (Double.isNaN(parsed) || Double.isInfinite(parsed))) {
+      throw new NumberFormatException("JSON forbids NaN and infinities: " + parsed);
+    }
+    return parsed;
+  }
+
+  private static long toLong(double value) {
+
+    final long result = (long) value;
+    if (result != value) {
+      throw new NumberFormatException("Expected a long but was " + value);
+    }
+    return result;
+  }
+
+  private static long unZigZag(long value) {
+
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+}
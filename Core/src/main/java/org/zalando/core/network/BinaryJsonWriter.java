@@ -0,0 +1,269 @@
+package org.zalando.core.network;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * {@link JsonWriter} writing the compact binary format of {@link BinaryConverterFactory}, so the
+ * {@link com.google.gson.TypeAdapter}s of an api write it as they write JSON. Every value is a tag
+ * byte followed by its payload. Integers are zig-zag varints, strings are prefixed by their length,
+ * and field names are written once per document and then referred to by their index
+ */
+final class BinaryJsonWriter extends JsonWriter {
+
+  static final int BEGIN_OBJECT = 1;
+  static final int END_OBJECT = 2;
+  static final int BEGIN_ARRAY = 3;
+  static final int END_ARRAY = 4;
+  static final int NULL = 5;
+  static final int TRUE = 6;
+  static final int FALSE = 7;
+  static final int LONG = 8;
+  static final int DOUBLE = 9;
+  static final int FLOAT = 10;
+  static final int STRING = 11;
+  static final int NEW_NAME = 12;
+  static final int NAME_REFERENCE = 13;
+  // Names indexed per document, later names are always written in full
+  static final int MAX_NAMES = 1024;
+  // Doubles above it may not be integers stored exactly as longs
+  private static final double MAX_EXACT_LONG = 1L << 53;
+
+  private static final Writer UNWRITABLE_WRITER = new Writer() {
+    @Override
+    public void write(char[] buffer, int offset, int count) {
+
+      throw new AssertionError();
+    }
+
+    @Override
+    public void flush() {
+
+      throw new AssertionError();
+    }
+
+    @Override
+    public void close() {
+
+      throw new AssertionError();
+    }
+  };
+
+  private final BufferedSink sink;
+  private final Map<String, Integer> names = new HashMap<>();
+  private String deferredName;
+
+  /**
+   * Constructor
+   *
+   * @param sink {@link BufferedSink} to write to
+   */
+  BinaryJsonWriter(BufferedSink sink) {
+
+    super(UNWRITABLE_WRITER);
+    this.sink = sink;
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+
+    writeDeferredName();
+    sink.writeByte(BEGIN_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+
+    sink.writeByte(END_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+
+    writeDeferredName();
+    sink.writeByte(BEGIN_OBJECT);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+
+    // A pending name with a null value that was not serialized
+    deferredName = null;
+    sink.writeByte(END_OBJECT);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+
+    if (name == null) {
+      throw new NullPointerException("name == null");
+    }
+    if (deferredName != null) {
+      throw new IllegalStateException("Name already written: " + deferredName);
+    }
+    deferredName = name;
+    return this;
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+
+    if (deferredName != null && !getSerializeNulls()) {
+      deferredName = null;
+      return this;
+    }
+    writeDeferredName();
+    sink.writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    sink.writeByte(STRING);
+    writeString(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+
+    writeDeferredName();
+    sink.writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  public JsonWriter value(Boolean value) throws IOException {
+
+    return value == null ? nullValue() : value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+
+    if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    writeDeferredName();
+    if (Math.abs(value) < MAX_EXACT_LONG && value == (long) value
+        && (value != 0 || 1 / value > 0)) {
+      // Integral doubles are smaller as varints, but negative zero keeps its sign
+      sink.writeByte(LONG);
+      writeVarint(zigZag((long) value));
+    } else {
+      sink.writeByte(DOUBLE);
+      sink.writeLong(Double.doubleToRawLongBits(value));
+    }
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+
+    writeDeferredName();
+    sink.writeByte(LONG);
+    writeVarint(zigZag(value));
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+
+    if (value == null) {
+      return nullValue();
+    }
+    if (value instanceof Float) {
+      final float floatValue = value.floatValue();
+      if (!isLenient() && (Float.isNaN(floatValue) || Float.isInfinite(floatValue))) {
+        throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+      }
+      writeDeferredName();
+      sink.writeByte(FLOAT);
+      sink.writeInt(Float.floatToRawIntBits(floatValue));
+      return this;
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double) {
+      return value(value.doubleValue());
+    }
+    // Other numbers, such as the lazily parsed ones, keep their text
+    final String text = value.toString();
+    try {
+      return value(Long.parseLong(text));
+    } catch (NumberFormatException e) {
+      return value(Double.parseDouble(text));
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+
+    sink.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    sink.close();
+  }
+
+  /**
+   * Writes the pending name, if any, as a new name or as a reference to a previous one
+   */
+  private void writeDeferredName() throws IOException {
+
+    if (deferredName == null) {
+      return;
+    }
+    final Integer index = names.get(deferredName);
+    if (index != null) {
+      sink.writeByte(NAME_REFERENCE);
+      writeVarint(index);
+    } else {
+      sink.writeByte(NEW_NAME);
+      writeString(deferredName);
+      if (names.size() < MAX_NAMES) {
+        names.put(deferredName, names.size());
+      }
+    }
+    deferredName = null;
+  }
+
+  private void writeString(String value) throws IOException {
+
+    final ByteString bytes = ByteString.encodeUtf8(value);
+    writeVarint(bytes.size());
+    sink.write(bytes);
+  }
+
+  private void writeVarint(long value) throws IOException {
+
+    while ((value & ~0x7FL) != 0) {
+      sink.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    sink.writeByte((int) value);
+  }
+
+  private static long zigZag(long value) {
+
+    return (value << 1) ^ (value >> 63);
+  }
+
+}
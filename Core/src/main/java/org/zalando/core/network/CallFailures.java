@@ -0,0 +1,32 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import okhttp3.Interceptor;
+
+/**
+ * Classifies the failures of the calls seen by the interceptors that adapt to the health of a host
+ */
+final class CallFailures {
+
+  /**
+   * Private constructor to avoid object instance
+   */
+  private CallFailures() {
+  }
+
+  /**
+   * Checks if the given failure says nothing about the host: the call was canceled, or the device
+   * is offline
+   *
+   * @param chain {@link Interceptor.Chain} of the call
+   * @param e {@link IOException} the call failed with
+   * @return {@link Boolean} indicating if the failure must be ignored
+   */
+  static boolean isIgnored(Interceptor.Chain chain, IOException e) {
+
+    return chain.call().isCanceled() || "Canceled".equals(e.getMessage())
+        || e instanceof UnknownHostException;
+  }
+
+}
@@ -0,0 +1,257 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.zalando.core.exception.BaseThrowable;
+import org.zalando.core.exception.CircuitOpenException;
+import org.zalando.core.utils.Preconditions;
+import timber.log.Timber;
+
+/**
+ * Interceptor that stops sending requests to the hosts that keep failing. Every host has a circuit
+ * that opens when the rate of failures of its last calls reaches the threshold. Calls failing with
+ * an {@link IOException} and the responses {@link BaseThrowable} types as {@link
+ * BaseThrowable.Type#RECOVERABLE} are failures. Canceled calls and calls failing because the
+ * device is offline say nothing about the host, so they are not counted. While it is open,
+ * requests fail straight away with a {@link CircuitOpenException}, typed as {@link
+ * BaseThrowable.Type#CIRCUIT_OPEN}. Once the open time is over, a few probe requests are let
+ * through: the circuit closes if all of them succeed and opens again if any fails
+ */
+public final class CircuitBreakerInterceptor implements Interceptor {
+
+  /**
+   * States of a circuit
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final float DEFAULT_FAILURE_RATE = 0.5f;
+  private static final int DEFAULT_WINDOW_SIZE = 20;
+  private static final int DEFAULT_MINIMUM_CALLS = 10;
+  private static final long DEFAULT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final int DEFAULT_PROBES = 3;
+
+  private final float failureRate;
+  private final int windowSize;
+  private final int minimumCalls;
+  private final long openMillis;
+  private final int probes;
+  private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor. Circuits open when half of the last 20 calls failed, at least 10 calls, and stay
+   * open 30 seconds before letting 3 probes through
+   */
+  public CircuitBreakerInterceptor() {
+
+    this(DEFAULT_FAILURE_RATE, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_OPEN_MILLIS,
+        TimeUnit.MILLISECONDS, DEFAULT_PROBES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param failureRate {@link Float} with the rate of failed calls opening the circuit, from 0 to 1
+   * @param windowSize {@link Integer} with the number of last calls the rate is computed from
+   * @param minimumCalls {@link Integer} with the number of calls needed to compute the rate
+   * @param openTime {@link Long} with the time the circuit stays open
+   * @param timeUnit {@link TimeUnit} of the open time
+   * @param probes {@link Integer} with the number of probes closing the circuit
+   */
+  public CircuitBreakerInterceptor(float failureRate, int windowSize, int minimumCalls,
+      long openTime, @NonNull TimeUnit timeUnit, int probes) {
+
+    Preconditions.checkArgument(failureRate > 0 && failureRate <= 1, "Failure rate must be "
+        + "between 0 and 1");
+    Preconditions.checkArgument(minimumCalls > 0 && minimumCalls <= windowSize, "Minimum calls "
+        + "must be positive and fit in the window");
+    Preconditions.checkArgument(openTime >= 0 && probes > 0, "Open time and probes must be "
+        + "positive");
+    this.failureRate = failureRate;
+    this.windowSize = windowSize;
+    this.minimumCalls = minimumCalls;
+    this.openMillis = timeUnit.toMillis(openTime);
+    this.probes = probes;
+  }
+
+  /**
+   * @param host {@link String} with the host
+   * @return {@link State} of the circuit of the given host
+   */
+  public State getState(@NonNull String host) {
+
+    final Circuit circuit = circuits.get(host);
+    return circuit != null ? circuit.getState() : State.CLOSED;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    final String host = request.url().host();
+    final Circuit circuit = circuitOf(host);
+    if (!circuit.allowRequest()) {
+      throw new CircuitOpenException(host);
+    }
+
+    // Calls ending without a result only give their probe back, so the circuit never waits for
+    // a probe that will not report
+    boolean counted = false;
+    boolean failed = false;
+    try {
+      final Response response = chain.proceed(request);
+      // Same codes BaseThrowable considers recoverable
+      failed = response.code() == HttpURLConnection.HTTP_INTERNAL_ERROR
+          || response.code() == HttpURLConnection.HTTP_UNAVAILABLE;
+      counted = true;
+      return response;
+    } catch (IOException e) {
+      // Refused connections, resets and TLS failures are as much a failing host as timeouts
+      counted = !CallFailures.isIgnored(chain, e);
+      failed = true;
+      throw e;
+    } finally {
+      if (counted) {
+        circuit.onResult(failed, host);
+      } else {
+        circuit.onIgnored();
+      }
+    }
+  }
+
+  /**
+   * Provides the {@link Circuit} of the given host, creating it the first time
+   *
+   * @param host {@link String} with the host
+   * @return {@link Circuit} of the host
+   */
+  private Circuit circuitOf(String host) {
+
+    Circuit circuit = circuits.get(host);
+    if (circuit == null) {
+      final Circuit newCircuit = new Circuit();
+      circuit = circuits.putIfAbsent(host, newCircuit);
+      if (circuit == null) {
+        circuit = newCircuit;
+      }
+    }
+    return circuit;
+  }
+
+  /**
+   * Circuit of a host, with the results of its last calls
+   */
+  private final class Circuit {
+
+    private final boolean[] failures = new boolean[windowSize];
+    private int calls;
+    private int failureCount;
+    private int nextResult;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesSent;
+    private int probesSucceeded;
+
+    synchronized State getState() {
+
+      return state;
+    }
+
+    /**
+     * Checks if a request can be sent, moving the circuit to half open once the open time is over
+     *
+     * @return {@link Boolean} indicating if the request can be sent
+     */
+    synchronized boolean allowRequest() {
+
+      if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+        state = State.HALF_OPEN;
+        probesSent = 0;
+        probesSucceeded = 0;
+      }
+      if (state == State.HALF_OPEN) {
+        if (probesSent >= probes) {
+          return false;
+        }
+        probesSent++;
+      }
+      return state != State.OPEN;
+    }
+
+    /**
+     * Records the result of a call
+     *
+     * @param failed {@link Boolean} indicating if the call failed in a way that counts
+     * @param host {@link String} with the host, for logging purposes
+     */
+    synchronized void onResult(boolean failed, String host) {
+
+      if (state == State.HALF_OPEN) {
+        if (failed) {
+          open(host);
+        } else if (++probesSucceeded >= probes) {
+          Timber.i("onResult: circuit of %s closed", host);
+          state = State.CLOSED;
+          resetWindow();
+        }
+        return;
+      }
+      if (state == State.OPEN) {
+        // Late result of a call sent before the circuit opened
+        return;
+      }
+
+      // Replace the oldest result in the window
+      if (calls == windowSize) {
+        if (failures[nextResult]) {
+          failureCount--;
+        }
+      } else {
+        calls++;
+      }
+      failures[nextResult] = failed;
+      if (failed) {
+        failureCount++;
+      }
+      nextResult = (nextResult + 1) % windowSize;
+
+      if (calls >= minimumCalls && failureCount >= failureRate * calls) {
+        open(host);
+      }
+    }
+
+    /**
+     * Records a call that ended without a result, giving its probe back
+     */
+    synchronized void onIgnored() {
+
+      if (state == State.HALF_OPEN && probesSent > probesSucceeded) {
+        probesSent--;
+      }
+    }
+
+    private void open(String host) {
+
+      Timber.w("open: circuit of %s opened", host);
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+      resetWindow();
+    }
+
+    private void resetWindow() {
+
+      calls = 0;
+      failureCount = 0;
+      nextResult = 0;
+    }
+  }
+
+}
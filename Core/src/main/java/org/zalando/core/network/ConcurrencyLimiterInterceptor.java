@@ -0,0 +1,289 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.zalando.core.utils.Preconditions;
+
+/**
+ * Interceptor that limits the requests in flight per host. Requests over the limit wait in a queue
+ * ordered by their {@link RequestPriority}, and in arrival order within the same priority. The
+ * limit of every host adapts to its latency: it shrinks when the latency grows over the lowest one
+ * measured for the same endpoint, and grows back while the latency stays low. Responses served
+ * by the cache, canceled calls and failures while offline free their slot without adapting the
+ * limit
+ */
+public final class ConcurrencyLimiterInterceptor implements Interceptor {
+
+  // Samples after which the lowest latency is measured again, so it follows the backend changes
+  private static final int MIN_LATENCY_WINDOW = 500;
+  // Lowest factor the limit is multiplied by after a slow response or a failure
+  private static final double MIN_GRADIENT = 0.5;
+
+  private final int initialLimit;
+  private final int maxLimit;
+  private final ConcurrentMap<String, HostLimiter> hostLimiters = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param initialLimit {@link Integer} with the initial limit of requests in flight per host
+   * @param maxLimit {@link Integer} with the maximum limit of requests in flight per host
+   */
+  public ConcurrencyLimiterInterceptor(int initialLimit, int maxLimit) {
+
+    Preconditions.checkArgument(initialLimit > 0 && initialLimit <= maxLimit, "Initial limit "
+        + "must be positive and not over the maximum");
+    this.initialLimit = initialLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * @return {@link Integer} with the number of requests waiting for every host
+   */
+  public int getQueueDepth() {
+
+    int queueDepth = 0;
+    for (HostLimiter hostLimiter : hostLimiters.values()) {
+      queueDepth += hostLimiter.getQueueDepth();
+    }
+    return queueDepth;
+  }
+
+  /**
+   * @param host {@link String} with the host
+   * @return {@link Integer} with the number of requests waiting for the given host
+   */
+  public int getQueueDepth(String host) {
+
+    final HostLimiter hostLimiter = hostLimiters.get(host);
+    return hostLimiter != null ? hostLimiter.getQueueDepth() : 0;
+  }
+
+  /**
+   * @param host {@link String} with the host
+   * @return {@link Integer} with the current limit of requests in flight to the given host
+   */
+  public int getLimit(String host) {
+
+    final HostLimiter hostLimiter = hostLimiters.get(host);
+    return hostLimiter != null ? hostLimiter.getLimit() : initialLimit;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    Request request = chain.request();
+    final int priority = RequestPriority.valueOf(request.header(RequestPriority.HEADER));
+    request = PriorityHeaderInterceptor.removeHeader(request);
+
+    final HostLimiter hostLimiter = hostLimiterOf(request.url().host());
+    hostLimiter.acquire(priority);
+    final long start = System.nanoTime();
+    Response response = null;
+    boolean ignored = false;
+    try {
+      response = chain.proceed(request);
+      return response;
+    } catch (IOException e) {
+      ignored = CallFailures.isIgnored(chain, e);
+      throw e;
+    } finally {
+      final long latencyNanos = System.nanoTime() - start;
+      if (ignored || response != null && response.cacheResponse() != null) {
+        // Cache hits, revalidations, canceled calls and offline failures say nothing about the
+        // load of the server
+        hostLimiter.release();
+      } else {
+        // Server errors mean it is overloaded as much as slow responses
+        hostLimiter.release(NetworkMetrics.templateOf(request), latencyNanos,
+            response != null && response.code() < 500);
+      }
+    }
+  }
+
+  /**
+   * Provides the {@link HostLimiter} of the given host, creating it the first time
+   *
+   * @param host {@link String} with the host
+   * @return {@link HostLimiter} of the host
+   */
+  private HostLimiter hostLimiterOf(String host) {
+
+    HostLimiter hostLimiter = hostLimiters.get(host);
+    if (hostLimiter == null) {
+      final HostLimiter newHostLimiter = new HostLimiter(initialLimit, maxLimit);
+      hostLimiter = hostLimiters.putIfAbsent(host, newHostLimiter);
+      if (hostLimiter == null) {
+        hostLimiter = newHostLimiter;
+      }
+    }
+    return hostLimiter;
+  }
+
+  /**
+   * Adaptive limit and priority queue of the requests to a host
+   */
+  private static final class HostLimiter {
+
+    private final int maxLimit;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    // Endpoints of a host differ in latency, so each one is compared with its own lowest latency
+    private final Map<String, MinLatency> minLatencies = new HashMap<>();
+    private double estimatedLimit;
+    private int limit;
+    private int inFlight;
+    private long arrivals;
+
+    HostLimiter(int initialLimit, int maxLimit) {
+
+      this.maxLimit = maxLimit;
+      estimatedLimit = initialLimit;
+      limit = initialLimit;
+    }
+
+    synchronized int getQueueDepth() {
+
+      return waiters.size();
+    }
+
+    synchronized int getLimit() {
+
+      return limit;
+    }
+
+    /**
+     * Waits until the request can be sent
+     *
+     * @param priority {@link Integer} with the priority of the request
+     * @throws InterruptedIOException if the waiting thread is interrupted
+     */
+    void acquire(int priority) throws InterruptedIOException {
+
+      final Waiter waiter;
+      synchronized (this) {
+        if (inFlight < limit && waiters.isEmpty()) {
+          inFlight++;
+          return;
+        }
+        waiter = new Waiter(priority, arrivals++);
+        waiters.add(waiter);
+      }
+
+      try {
+        waiter.granted.await();
+      } catch (InterruptedException e) {
+        synchronized (this) {
+          // Give the slot back if it was granted meanwhile
+          if (!waiters.remove(waiter)) {
+            inFlight--;
+            grantSlots();
+          }
+        }
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a request slot");
+      }
+    }
+
+    /**
+     * Frees the slot of a finished request without adapting the limit
+     */
+    synchronized void release() {
+
+      inFlight--;
+      grantSlots();
+    }
+
+    /**
+     * Frees the slot of a finished request and adapts the limit to its latency
+     *
+     * @param template {@link String} with the template of the endpoint, see {@link
+     * NetworkMetrics#templateOf(Request)}
+     * @param latencyNanos {@link Long} with the latency of the request
+     * @param succeeded {@link Boolean} indicating if the request succeeded
+     */
+    synchronized void release(String template, long latencyNanos, boolean succeeded) {
+
+      inFlight--;
+
+      MinLatency minLatency = minLatencies.get(template);
+      if (minLatency == null) {
+        minLatency = new MinLatency();
+        minLatencies.put(template, minLatency);
+      }
+      if (++minLatency.samples >= MIN_LATENCY_WINDOW) {
+        minLatency.samples = 0;
+        minLatency.nanos = Long.MAX_VALUE;
+      }
+      final double gradient;
+      if (succeeded) {
+        minLatency.nanos = Math.min(minLatency.nanos, Math.max(1, latencyNanos));
+        gradient = Math.max(MIN_GRADIENT, Math.min(1, minLatency.nanos
+            / (double) Math.max(1, latencyNanos)));
+      } else {
+        gradient = MIN_GRADIENT;
+      }
+      // Shrinks with the latency growth, grows by the square root of the limit while it is low
+      estimatedLimit = Math.max(1, Math.min(maxLimit, estimatedLimit * gradient
+          + (succeeded ? Math.sqrt(estimatedLimit) : 0)));
+      limit = (int) estimatedLimit;
+
+      grantSlots();
+    }
+
+    /**
+     * Lets the first waiting requests go while there are free slots. Must be called holding the
+     * lock
+     */
+    private void grantSlots() {
+
+      while (inFlight < limit && !waiters.isEmpty()) {
+        inFlight++;
+        waiters.poll().granted.countDown();
+      }
+    }
+  }
+
+  /**
+   * Lowest latency of an endpoint in the current window
+   */
+  private static final class MinLatency {
+
+    long nanos = Long.MAX_VALUE;
+    int samples;
+  }
+
+  /**
+   * Request waiting for a slot
+   */
+  private static final class Waiter implements Comparable<Waiter> {
+
+    final int priority;
+    final long arrival;
+    final CountDownLatch granted = new CountDownLatch(1);
+
+    Waiter(int priority, long arrival) {
+
+      this.priority = priority;
+      this.arrival = arrival;
+    }
+
+    @Override
+    public int compareTo(Waiter other) {
+
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return arrival < other.arrival ? -1 : (arrival == other.arrival ? 0 : 1);
+    }
+  }
+
+}
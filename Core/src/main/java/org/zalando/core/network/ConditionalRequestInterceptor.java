@@ -0,0 +1,511 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.zalando.core.utils.Preconditions;
+import timber.log.Timber;
+
+/**
+ * Interceptor that turns GET requests into conditional requests. The ETag and Last-Modified of
+ * every response are kept in an index on disk, next to the body, and sent back as If-None-Match
+ * and If-Modified-Since. When the server answers that nothing changed, the stored body is served
+ * instead, so it is neither downloaded nor parsed from the network again. Bodies are stored while
+ * the caller reads them, and only once they are fully read. The least recently used bodies are
+ * removed once the stored ones go over the maximum size or number of entries
+ */
+public final class ConditionalRequestInterceptor implements Interceptor {
+
+  private static final String INDEX_FILE = "index";
+  private static final String BODY_EXTENSION = ".body";
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final int INDEX_VERSION = 2;
+  private static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+  private static final int DEFAULT_MAX_ENTRIES = 500;
+  // Bodies stored meanwhile are written to the index at once
+  private static final long SAVE_DELAY_MILLIS = 1000;
+  // Time to wait for the end of a body closed before it, which usually arrived along its last bytes
+  private static final long DRAIN_TIMEOUT_MILLIS = 100;
+  private static final long DRAIN_BYTES = 8 * 1024;
+
+  private final File directory;
+  private final long maxSize;
+  private final int maxEntries;
+  private final Object saveLock = new Object();
+  // Access ordered, so the eldest entry is the least recently used body. Guarded by this
+  private final Map<String, Validators> index = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+  private boolean loaded;
+  private boolean saveScheduled;
+
+  /**
+   * Constructor. Stores up to 500 bodies and 10 MB
+   *
+   * @param directory {@link File} with the directory of the stored bodies, only used by this
+   * interceptor
+   */
+  public ConditionalRequestInterceptor(@NonNull File directory) {
+
+    this(directory, DEFAULT_MAX_SIZE, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory {@link File} with the directory of the stored bodies, only used by this
+   * interceptor
+   * @param maxSize {@link Long} with the maximum size of the stored bodies in bytes
+   * @param maxEntries {@link Integer} with the maximum number of stored bodies
+   */
+  public ConditionalRequestInterceptor(@NonNull File directory, long maxSize, int maxEntries) {
+
+    Preconditions.checkArgument(maxSize > 0 && maxEntries > 0, "Maximum size and entries must "
+        + "be positive");
+    this.directory = directory;
+    this.maxSize = maxSize;
+    this.maxEntries = maxEntries;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    if (!"GET".equals(request.method()) || request.header("If-None-Match") != null
+        || request.header("If-Modified-Since") != null) {
+      return chain.proceed(request);
+    }
+
+    final String url = request.url().toString();
+    final Validators validators = validatorsOf(url);
+    final File bodyFile = bodyFileOf(url);
+
+    Request conditionalRequest = request;
+    if (validators != null && bodyFile.exists()) {
+      final Request.Builder builder = request.newBuilder();
+      if (validators.etag != null) {
+        builder.header("If-None-Match", validators.etag);
+      }
+      if (validators.lastModified != null) {
+        builder.header("If-Modified-Since", validators.lastModified);
+      }
+      conditionalRequest = builder.build();
+    }
+
+    final Response response = chain.proceed(conditionalRequest);
+    if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED && conditionalRequest != request) {
+      try {
+        final Source storedBody = Okio.source(bodyFile);
+        Timber.d("intercept: %s not modified", url);
+        closeBody(response);
+        return response.newBuilder()
+            .code(HttpURLConnection.HTTP_OK)
+            .message("OK")
+            .request(request)
+            .body(ResponseBody.create(validators.contentType != null
+                ? MediaType.parse(validators.contentType) : null, bodyFile.length(),
+                Okio.buffer(storedBody)))
+            .build();
+      } catch (FileNotFoundException e) {
+        // Removed meanwhile, ask for the whole body
+        closeBody(response);
+        remove(url);
+        return chain.proceed(request);
+      }
+    }
+
+    final String etag = response.header("ETag");
+    final String lastModified = response.header("Last-Modified");
+    if (response.code() != HttpURLConnection.HTTP_OK || response.body() == null
+        || (etag == null && lastModified == null)) {
+      if (validators != null && response.code() == HttpURLConnection.HTTP_OK) {
+        remove(url);
+      }
+      return response;
+    }
+
+    final MediaType contentType = response.body().contentType();
+    final Validators newValidators = new Validators(etag, lastModified,
+        contentType != null ? contentType.toString() : null, 0);
+    return response.newBuilder()
+        .body(ResponseBody.create(contentType, response.body().contentLength(),
+            Okio.buffer(new StoringSource(response.body().source(), url, newValidators,
+                response.body().contentLength()))))
+        .build();
+  }
+
+  /**
+   * Provides the file with the stored body of the given url
+   *
+   * @param url {@link String} with the url
+   * @return {@link File} of the body
+   */
+  private File bodyFileOf(String url) {
+
+    return new File(directory, ByteString.encodeUtf8(url).md5().hex() + BODY_EXTENSION);
+  }
+
+  /**
+   * Provides the validators of the given url, loading the index from disk the first time
+   *
+   * @param url {@link String} with the url
+   * @return {@link Validators} of the url, null if none are stored
+   */
+  private synchronized Validators validatorsOf(String url) {
+
+    loadIndex();
+    return index.get(url);
+  }
+
+  /**
+   * Stores the given body with its validators, removing the least recently used bodies over the
+   * limits
+   *
+   * @param url {@link String} with the url
+   * @param validators {@link Validators} of the body
+   * @param body {@link File} with the body, moved to its place
+   * @throws IOException if the body can not be stored
+   */
+  private synchronized void store(String url, Validators validators, File body)
+      throws IOException {
+
+    if (validators.size > maxSize) {
+      throw new IOException("Body larger than the maximum size");
+    }
+    if (!body.renameTo(bodyFileOf(url))) {
+      throw new IOException("Unable to replace the stored body");
+    }
+    final Validators previous = index.put(url, validators);
+    size += validators.size - (previous != null ? previous.size : 0);
+
+    // The stored body is the most recently used one, and fits alone
+    final Iterator<Map.Entry<String, Validators>> iterator = index.entrySet().iterator();
+    while (size > maxSize || index.size() > maxEntries) {
+      final Map.Entry<String, Validators> eldest = iterator.next();
+      Timber.d("store: removing %s", eldest.getKey());
+      size -= eldest.getValue().size;
+      iterator.remove();
+      //noinspection ResultOfMethodCallIgnored
+      bodyFileOf(eldest.getKey()).delete();
+    }
+    scheduleSave();
+  }
+
+  /**
+   * Forgets the validators and the body of the given url
+   *
+   * @param url {@link String} with the url
+   */
+  private synchronized void remove(String url) {
+
+    final Validators removed = index.remove(url);
+    if (removed != null) {
+      size -= removed.size;
+      scheduleSave();
+    }
+    //noinspection ResultOfMethodCallIgnored
+    bodyFileOf(url).delete();
+  }
+
+  /**
+   * Writes the index to disk after a while, along with the changes made meanwhile. Must be called
+   * holding the lock
+   */
+  private void scheduleSave() {
+
+    if (saveScheduled) {
+      return;
+    }
+    saveScheduled = true;
+    Schedulers.io().scheduleDirect(new Runnable() {
+      @Override
+      public void run() {
+
+        saveIndex();
+      }
+    }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Loads the index from disk the first time. Must be called holding the lock
+   */
+  private void loadIndex() {
+
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+
+    final File indexFile = new File(directory, INDEX_FILE);
+    if (!indexFile.exists()) {
+      return;
+    }
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(indexFile)));
+      if (input.readInt() != INDEX_VERSION) {
+        return;
+      }
+      final int entries = input.readInt();
+      for (int i = 0; i < entries; i++) {
+        final String url = input.readUTF();
+        final Validators validators = new Validators(readNullable(input), readNullable(input),
+            readNullable(input), input.readLong());
+        index.put(url, validators);
+        size += validators.size;
+      }
+    } catch (IOException e) {
+      Timber.w(e, "loadIndex: unable to read the index, starting empty");
+      index.clear();
+      size = 0;
+    } finally {
+      closeQuietly(input);
+    }
+  }
+
+  /**
+   * Writes the index to disk in least recently used order, replacing the previous one at once
+   */
+  private void saveIndex() {
+
+    // Copy in the save lock, so a later copy is never overwritten by an earlier one
+    synchronized (saveLock) {
+      final Map<String, Validators> entries;
+      synchronized (this) {
+        saveScheduled = false;
+        entries = new LinkedHashMap<>(index);
+      }
+
+      final File indexFile = new File(directory, INDEX_FILE);
+      final File tempFile = new File(directory, INDEX_FILE + TEMP_EXTENSION);
+      DataOutputStream output = null;
+      try {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        output = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(tempFile)));
+        output.writeInt(INDEX_VERSION);
+        output.writeInt(entries.size());
+        for (Map.Entry<String, Validators> entry : entries.entrySet()) {
+          output.writeUTF(entry.getKey());
+          writeNullable(output, entry.getValue().etag);
+          writeNullable(output, entry.getValue().lastModified);
+          writeNullable(output, entry.getValue().contentType);
+          output.writeLong(entry.getValue().size);
+        }
+        output.close();
+        output = null;
+        if (!tempFile.renameTo(indexFile)) {
+          throw new IOException("Unable to replace the index");
+        }
+      } catch (IOException e) {
+        Timber.w(e, "saveIndex: unable to write the index");
+      } finally {
+        closeQuietly(output);
+      }
+    }
+  }
+
+  private static String readNullable(DataInputStream input) throws IOException {
+
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  private static void writeNullable(DataOutputStream output, String value) throws IOException {
+
+    output.writeBoolean(value != null);
+    if (value != null) {
+      output.writeUTF(value);
+    }
+  }
+
+  private static void closeBody(Response response) {
+
+    if (response.body() != null) {
+      response.body().close();
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Nothing else to do
+      }
+    }
+  }
+
+  /**
+   * Validators of a stored body
+   */
+  private static final class Validators {
+
+    final String etag;
+    final String lastModified;
+    final String contentType;
+    final long size;
+
+    Validators(String etag, String lastModified, String contentType, long size) {
+
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.contentType = contentType;
+      this.size = size;
+    }
+  }
+
+  /**
+   * {@link Source} that copies the body to a temporary file while the caller reads it, and stores
+   * it with its validators once it is fully read
+   */
+  private final class StoringSource extends ForwardingSource {
+
+    private final String url;
+    private final Validators validators;
+    private final long contentLength;
+    private File tempFile;
+    private BufferedSink fileSink;
+    private long stored;
+    private boolean done;
+
+    StoringSource(Source delegate, String url, Validators validators, long contentLength) {
+
+      super(delegate);
+      this.url = url;
+      this.validators = validators;
+      this.contentLength = contentLength;
+      try {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        // Unique, so concurrent calls to the same url store their bodies apart
+        tempFile = File.createTempFile(bodyFileOf(url).getName(), TEMP_EXTENSION, directory);
+        fileSink = Okio.buffer(Okio.sink(tempFile));
+      } catch (IOException e) {
+        Timber.w(e, "StoringSource: unable to store %s", url);
+        abort();
+      }
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+
+      final long read = super.read(sink, byteCount);
+      if (done) {
+        return read;
+      }
+      if (read == -1) {
+        commit();
+        return read;
+      }
+      try {
+        sink.copyTo(fileSink.buffer(), sink.size() - read, read);
+        fileSink.emitCompleteSegments();
+        stored += read;
+      } catch (IOException e) {
+        // Storing is best effort, the caller keeps reading
+        abort();
+        return read;
+      }
+      if (stored > maxSize) {
+        abort();
+      } else if (stored == contentLength) {
+        // Converters stop at the end of the value, without reading the end of the body
+        commit();
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      if (!done && contentLength == -1) {
+        drain();
+      }
+      if (!done) {
+        // Closed before the end, the body is incomplete
+        abort();
+      }
+      super.close();
+    }
+
+    /**
+     * Reads the rest of a body of unknown length for a short while, storing it if it ends
+     */
+    private void drain() {
+
+      final Timeout timeout = timeout();
+      final long deadlineNanos = timeout.hasDeadline() ? timeout.deadlineNanoTime() : -1;
+      timeout.deadline(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      try {
+        final Buffer discarded = new Buffer();
+        while (!done && read(discarded, DRAIN_BYTES) != -1) {
+          if (discarded.size() > DRAIN_BYTES) {
+            // Too much left, the caller gave up on the body
+            abort();
+          }
+        }
+      } catch (IOException e) {
+        abort();
+      } finally {
+        if (deadlineNanos == -1) {
+          timeout.clearDeadline();
+        } else {
+          timeout.deadlineNanoTime(deadlineNanos);
+        }
+      }
+    }
+
+    private void commit() {
+
+      done = true;
+      try {
+        fileSink.close();
+        store(url, new Validators(validators.etag, validators.lastModified,
+            validators.contentType, stored), tempFile);
+      } catch (IOException e) {
+        Timber.w(e, "commit: unable to store %s", url);
+        //noinspection ResultOfMethodCallIgnored
+        tempFile.delete();
+      }
+    }
+
+    private void abort() {
+
+      done = true;
+      closeQuietly(fileSink);
+      if (tempFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        tempFile.delete();
+      }
+    }
+  }
+
+}
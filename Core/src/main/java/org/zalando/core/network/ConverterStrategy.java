@@ -0,0 +1,29 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.gson.Gson;
+import retrofit2.Converter;
+
+/**
+ * Strategy converting the bodies of the apis created by {@link RestApiFactory}. Its converters are
+ * asked before the default JSON ones, which handle the types the strategy does not convert
+ */
+public interface ConverterStrategy {
+
+  /**
+   * Creates the {@link Converter.Factory} of an api
+   *
+   * @param gson {@link Gson} of the api
+   * @return {@link Converter.Factory} of the api
+   */
+  Converter.Factory createConverterFactory(@NonNull Gson gson);
+
+  /**
+   * @return {@link String} with the Accept header of the requests sent without one, null to not
+   * add it
+   */
+  @Nullable
+  String getAcceptHeader();
+
+}
@@ -0,0 +1,144 @@
+package org.zalando.core.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of the calls to an endpoint, updated without locks
+ */
+public final class EndpointMetrics {
+
+  private static final int FAILED = 0;
+
+  private final LatencyHistogram dnsLatency = new LatencyHistogram();
+  private final LatencyHistogram connectLatency = new LatencyHistogram();
+  private final LatencyHistogram tlsLatency = new LatencyHistogram();
+  private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+  private final LatencyHistogram totalLatency = new LatencyHistogram();
+  private final AtomicLong requestBytes = new AtomicLong();
+  private final AtomicLong responseBytes = new AtomicLong();
+  // Failed calls and calls per status class, from 1xx to 5xx
+  private final AtomicLongArray statuses = new AtomicLongArray(6);
+
+  /**
+   * @return {@link LatencyHistogram} of the DNS lookups, only done by calls opening connections
+   */
+  public LatencyHistogram getDnsLatency() {
+
+    return dnsLatency;
+  }
+
+  /**
+   * @return {@link LatencyHistogram} of the connections, TLS handshakes included
+   */
+  public LatencyHistogram getConnectLatency() {
+
+    return connectLatency;
+  }
+
+  /**
+   * @return {@link LatencyHistogram} of the TLS handshakes
+   */
+  public LatencyHistogram getTlsLatency() {
+
+    return tlsLatency;
+  }
+
+  /**
+   * @return {@link LatencyHistogram} from the start of the request headers to the first byte of the
+   * response, so connecting is not included
+   */
+  public LatencyHistogram getTimeToFirstByte() {
+
+    return timeToFirstByte;
+  }
+
+  /**
+   * @return {@link LatencyHistogram} of the whole calls, reading the body included
+   */
+  public LatencyHistogram getTotalLatency() {
+
+    return totalLatency;
+  }
+
+  /**
+   * @return {@link Long} with the bytes sent in request bodies
+   */
+  public long getRequestBytes() {
+
+    return requestBytes.get();
+  }
+
+  /**
+   * @return {@link Long} with the bytes received in response bodies
+   */
+  public long getResponseBytes() {
+
+    return responseBytes.get();
+  }
+
+  /**
+   * Provides the number of calls answered with a status of the given class
+   *
+   * @param statusClass {@link Integer} with the class of the status, from 1 for 1xx to 5 for 5xx
+   * @return {@link Long} with the number of calls
+   */
+  public long getStatusCount(int statusClass) {
+
+    return statusClass > 0 && statusClass < statuses.length() ? statuses.get(statusClass) : 0;
+  }
+
+  /**
+   * @return {@link Long} with the number of calls that failed without a response
+   */
+  public long getFailedCount() {
+
+    return statuses.get(FAILED);
+  }
+
+  /**
+   * @param bytes {@link Long} with the bytes sent in a request body
+   */
+  void addRequestBytes(long bytes) {
+
+    requestBytes.addAndGet(bytes);
+  }
+
+  /**
+   * @param bytes {@link Long} with the bytes received in a response body
+   */
+  void addResponseBytes(long bytes) {
+
+    responseBytes.addAndGet(bytes);
+  }
+
+  /**
+   * @param code {@link Integer} with the status code of a response
+   */
+  void recordStatus(int code) {
+
+    final int statusClass = code / 100;
+    if (statusClass > 0 && statusClass < statuses.length()) {
+      statuses.incrementAndGet(statusClass);
+    }
+  }
+
+  /**
+   * Records a call that failed without a response
+   */
+  void recordFailure() {
+
+    statuses.incrementAndGet(FAILED);
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format("%d calls (2xx %d, 4xx %d, 5xx %d, failed %d), total %s, ttfb %s, "
+            + "dns %s, connect %s, tls %s, %d bytes sent, %d bytes received",
+        totalLatency.getCount(), getStatusCount(2), getStatusCount(4), getStatusCount(5),
+        getFailedCount(), totalLatency, timeToFirstByte, dnsLatency, connectLatency, tlsLatency,
+        getRequestBytes(), getResponseBytes());
+  }
+
+}
@@ -0,0 +1,301 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import retrofit2.HttpException;
+import timber.log.Timber;
+
+/**
+ * Downloads and uploads files through the base client of {@link RestApiFactory}, streaming them
+ * from and to disk so they are never held in memory. Interrupted downloads are kept apart and
+ * resumed with a range request the next time, as long as the file did not change on the server
+ */
+public final class FileTransfer {
+
+  // Bytes moved at once, the progress is reported after each of them
+  static final long CHUNK_SIZE = 64 * 1024;
+
+  private static final String PARTIAL_EXTENSION = ".part";
+  private static final String VALIDATOR_EXTENSION = ".validator";
+
+  /**
+   * Listener of the progress of a transfer
+   */
+  public interface ProgressListener {
+
+    /**
+     * Called after each chunk of the transfer, on the thread doing it
+     *
+     * @param bytes {@link Long} with the bytes transferred
+     * @param totalBytes {@link Long} with the total bytes, -1 if unknown
+     */
+    void onProgress(long bytes, long totalBytes);
+  }
+
+  /**
+   * Private constructor to force static access to methods
+   */
+  private FileTransfer() {
+  }
+
+  /**
+   * Downloads the given url to the given file, resuming a previous download of the same file
+   *
+   * @param url {@link String} with the url to download
+   * @param file {@link File} to write, only replaced once the download completes
+   * @param listener {@link ProgressListener} notified of the progress, null to not notify it
+   * @return {@link Single} emitting the file once downloaded
+   */
+  public static Single<File> download(@NonNull final String url, @NonNull final File file,
+      @Nullable final ProgressListener listener) {
+
+    return Single.create(new SingleOnSubscribe<File>() {
+      @Override
+      public void subscribe(SingleEmitter<File> emitter) throws Exception {
+
+        final Call[] call = new Call[1];
+        emitter.setCancellable(new Cancellable() {
+          @Override
+          public void cancel() throws Exception {
+
+            synchronized (call) {
+              if (call[0] != null) {
+                call[0].cancel();
+              }
+            }
+          }
+        });
+        try {
+          downloadTo(url, file, listener, call);
+          emitter.onSuccess(file);
+        } catch (IOException | HttpException e) {
+          // Cancelling the call fails it, nobody is listening anymore
+          if (!emitter.isDisposed()) {
+            emitter.onError(e);
+          }
+        }
+      }
+    }).subscribeOn(Schedulers.io());
+  }
+
+  /**
+   * Uploads the given file as the only part of a multipart POST request
+   *
+   * @param url {@link String} with the url to upload to
+   * @param partName {@link String} with the name of the form part
+   * @param file {@link File} to upload
+   * @param contentType {@link MediaType} of the file, null if unknown
+   * @param listener {@link ProgressListener} notified of the progress, null to not notify it
+   * @return {@link Completable} completing once the server accepted the file
+   */
+  public static Completable upload(@NonNull final String url, @NonNull final String partName,
+      @NonNull final File file, @Nullable final MediaType contentType,
+      @Nullable final ProgressListener listener) {
+
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override
+      public void subscribe(CompletableEmitter emitter) throws Exception {
+
+        final MultipartBody body = new MultipartBody.Builder()
+            .setType(MultipartBody.FORM)
+            .addPart(createFilePart(partName, file, contentType, listener))
+            .build();
+        final Call call = RestApiFactory.getBaseClient().newCall(new Request.Builder()
+            .url(url)
+            .post(body)
+            .build());
+        emitter.setCancellable(new Cancellable() {
+          @Override
+          public void cancel() throws Exception {
+
+            call.cancel();
+          }
+        });
+        try {
+          final Response response = call.execute();
+          try {
+            checkSuccessful(response);
+          } finally {
+            response.close();
+          }
+          emitter.onComplete();
+        } catch (IOException | HttpException e) {
+          // Cancelling the call fails it, nobody is listening anymore
+          if (!emitter.isDisposed()) {
+            emitter.onError(e);
+          }
+        }
+      }
+    }).subscribeOn(Schedulers.io());
+  }
+
+  /**
+   * Creates a multipart part streaming the given file, to upload it through retrofit {@link
+   * retrofit2.http.Multipart} methods
+   *
+   * @param partName {@link String} with the name of the form part
+   * @param file {@link File} to upload
+   * @param contentType {@link MediaType} of the file, null if unknown
+   * @param listener {@link ProgressListener} notified of the progress, null to not notify it
+   * @return {@link MultipartBody.Part} with the file
+   */
+  public static MultipartBody.Part createFilePart(@NonNull String partName, @NonNull File file,
+      @Nullable MediaType contentType, @Nullable ProgressListener listener) {
+
+    return MultipartBody.Part.createFormData(partName, file.getName(),
+        new ProgressRequestBody(file, contentType, listener));
+  }
+
+  /**
+   * Downloads the given url, appending to the partial file of a previous download if there is one
+   *
+   * @param url {@link String} with the url to download
+   * @param file {@link File} to write
+   * @param listener {@link ProgressListener} notified of the progress, nullable
+   * @param call array holding the {@link Call} in flight, so it can be cancelled
+   * @throws IOException if the download fails or is cancelled
+   */
+  private static void downloadTo(String url, File file, @Nullable ProgressListener listener,
+      Call[] call) throws IOException {
+
+    final File partialFile = new File(file.getPath() + PARTIAL_EXTENSION);
+    final File validatorFile = new File(file.getPath() + VALIDATOR_EXTENSION);
+    final String validator = validatorFile.exists() ? readValidator(validatorFile) : null;
+    final long partialLength = partialFile.exists() && validator != null
+        ? partialFile.length() : 0;
+
+    final Request.Builder requestBuilder = new Request.Builder().url(url);
+    if (partialLength > 0) {
+      // The range is ignored if the file changed since the partial download
+      requestBuilder.header("Range", "bytes=" + partialLength + "-")
+          .header("If-Range", validator);
+    }
+
+    final Response response;
+    synchronized (call) {
+      call[0] = RestApiFactory.getBaseClient().newCall(requestBuilder.build());
+    }
+    response = call[0].execute();
+    try {
+      if (response.code() == 416 && partialLength > 0) {
+        // The partial file does not fit the file on the server anymore, start again
+        Timber.d("downloadTo: range of %s not satisfiable, restarting", url);
+        deleteQuietly(partialFile, validatorFile);
+        response.close();
+        downloadTo(url, file, listener, call);
+        return;
+      }
+      checkSuccessful(response);
+
+      final boolean resumed = response.code() == HttpURLConnection.HTTP_PARTIAL
+          && partialLength > 0;
+      if (!resumed) {
+        writeValidator(validatorFile, response.header("ETag", response.header("Last-Modified")));
+      }
+      final long offset = resumed ? partialLength : 0;
+      final ResponseBody body = response.body();
+      final long total = body.contentLength() >= 0 ? offset + body.contentLength() : -1;
+
+      final BufferedSource source = body.source();
+      final BufferedSink sink = Okio.buffer(resumed ? Okio.appendingSink(partialFile)
+          : Okio.sink(partialFile));
+      try {
+        long written = offset;
+        long read;
+        // Segments move from the response to the file buffer without copying their bytes
+        while ((read = source.read(sink.buffer(), CHUNK_SIZE)) != -1) {
+          sink.emitCompleteSegments();
+          written += read;
+          if (listener != null) {
+            listener.onProgress(written, total);
+          }
+        }
+      } finally {
+        sink.close();
+      }
+    } finally {
+      response.close();
+    }
+
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Unable to replace " + file);
+    }
+    if (!partialFile.renameTo(file)) {
+      throw new IOException("Unable to move the download to " + file);
+    }
+    deleteQuietly(validatorFile);
+  }
+
+  /**
+   * Throws an {@link HttpException} if the given response is not successful, so it is handled as
+   * the errors of retrofit calls
+   *
+   * @param response {@link Response} to check
+   */
+  private static void checkSuccessful(Response response) {
+
+    if (!response.isSuccessful()) {
+      throw new HttpException(retrofit2.Response.error(response.body(), response));
+    }
+  }
+
+  private static String readValidator(File validatorFile) {
+
+    try {
+      final BufferedSource source = Okio.buffer(Okio.source(validatorFile));
+      try {
+        final String validator = source.readUtf8();
+        return validator.isEmpty() ? null : validator;
+      } finally {
+        source.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static void writeValidator(File validatorFile, @Nullable String validator)
+      throws IOException {
+
+    if (validator == null) {
+      // Without validator a partial download can not be resumed safely
+      deleteQuietly(validatorFile);
+      return;
+    }
+    final BufferedSink sink = Okio.buffer(Okio.sink(validatorFile));
+    try {
+      sink.writeUtf8(validator);
+    } finally {
+      sink.close();
+    }
+  }
+
+  private static void deleteQuietly(File... files) {
+
+    for (File file : files) {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+  }
+
+}
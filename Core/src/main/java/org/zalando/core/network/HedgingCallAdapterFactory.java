@@ -0,0 +1,501 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Request;
+import org.zalando.core.utils.Preconditions;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.Streaming;
+import timber.log.Timber;
+
+/**
+ * {@link CallAdapter.Factory} sending a duplicate of the GET and HEAD requests that take longer
+ * than the 95th percentile of their endpoint. The first response wins and the other request is
+ * cancelled. Hedges are only sent once the endpoint has enough latencies recorded, and their rate
+ * is capped, so the extra load stays bounded. It wraps the calls given to the next factory, so it
+ * must be added before the other {@link CallAdapter.Factory}s
+ */
+public final class HedgingCallAdapterFactory extends CallAdapter.Factory {
+
+  private static final double HEDGE_PERCENTILE = 95;
+  private static final int MIN_SAMPLES = 20;
+  // Hedges allowed in a burst, on top of the rate
+  private static final double MAX_HEDGE_BUDGET = 10;
+
+  private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1,
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+
+          final Thread thread = new Thread(runnable, "http-hedging");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final long minDelayMillis;
+  private final double maxHedgeRate;
+  private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+  private double hedgeBudget;
+  private long hedges;
+
+  /**
+   * Constructor. Hedges wait at least 50 milliseconds, and at most 5% of the requests are hedged
+   */
+  public HedgingCallAdapterFactory() {
+
+    this(50, TimeUnit.MILLISECONDS, 0.05);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param minDelay {@link Long} with the minimum time to wait before sending a hedge
+   * @param timeUnit {@link TimeUnit} of the minimum delay
+   * @param maxHedgeRate {@link Double} with the maximum rate of hedged requests, from 0 to 1
+   */
+  public HedgingCallAdapterFactory(long minDelay, @NonNull TimeUnit timeUnit,
+      double maxHedgeRate) {
+
+    Preconditions.checkArgument(minDelay >= 0, "Minimum delay can not be negative");
+    Preconditions.checkArgument(maxHedgeRate >= 0 && maxHedgeRate <= 1, "Hedge rate must be "
+        + "between 0 and 1");
+    this.minDelayMillis = timeUnit.toMillis(minDelay);
+    this.maxHedgeRate = maxHedgeRate;
+  }
+
+  /**
+   * @return {@link Long} with the number of hedges sent
+   */
+  public synchronized long getHedgeCount() {
+
+    return hedges;
+  }
+
+  @Override
+  public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+
+    final CallAdapter<?, ?> delegate = retrofit.nextCallAdapter(this, returnType, annotations);
+    // Streamed bodies are read while they arrive, hedging them would download them twice
+    for (Annotation annotation : annotations) {
+      if (annotation instanceof Streaming) {
+        return delegate;
+      }
+    }
+    return new HedgingCallAdapter<>(delegate);
+  }
+
+  /**
+   * Provides the delay before hedging the given request
+   *
+   * @param request {@link Request} to hedge
+   * @return {@link Long} with the delay in milliseconds, -1 if the request is not hedged
+   */
+  private long hedgeDelayOf(Request request) {
+
+    if (!"GET".equals(request.method()) && !"HEAD".equals(request.method())) {
+      return -1;
+    }
+    final LatencyHistogram histogram = latencies.get(NetworkMetrics.templateOf(request));
+    if (histogram == null || histogram.getCount() < MIN_SAMPLES) {
+      return -1;
+    }
+    return Math.max(minDelayMillis, histogram.getPercentileMillis(HEDGE_PERCENTILE));
+  }
+
+  /**
+   * Records the latency of a request that got a response
+   *
+   * @param request {@link Request} that got the response
+   * @param latencyNanos {@link Long} with the latency in nanoseconds, from the start of the
+   * primary request
+   */
+  private void recordLatency(Request request, long latencyNanos) {
+
+    histogramOf(request).record(latencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records a request that failed or timed out. Its latency is unknown but at least the time it
+   * took to fail, and never lower than the percentile hedges wait for, so failing fast does not
+   * make the endpoint look faster
+   *
+   * @param request {@link Request} that failed
+   * @param elapsedNanos {@link Long} with the time it took to fail in nanoseconds, from the start
+   * of the primary request
+   */
+  private void recordFailure(Request request, long elapsedNanos) {
+
+    final LatencyHistogram histogram = histogramOf(request);
+    final long percentileNanos = histogram.getCount() > 0 ? TimeUnit.MILLISECONDS.toNanos(
+        histogram.getPercentileMillis(HEDGE_PERCENTILE)) : 0;
+    histogram.record(Math.max(elapsedNanos, percentileNanos), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Provides the {@link LatencyHistogram} of the endpoint of the given request, creating it the
+   * first time
+   *
+   * @param request {@link Request} to the endpoint
+   * @return {@link LatencyHistogram} of the endpoint
+   */
+  private LatencyHistogram histogramOf(Request request) {
+
+    final String template = NetworkMetrics.templateOf(request);
+    LatencyHistogram histogram = latencies.get(template);
+    if (histogram == null) {
+      final LatencyHistogram newHistogram = new LatencyHistogram();
+      histogram = latencies.putIfAbsent(template, newHistogram);
+      if (histogram == null) {
+        histogram = newHistogram;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Adds the share of hedges of a new request to the budget
+   */
+  private synchronized void onRequest() {
+
+    hedgeBudget = Math.min(MAX_HEDGE_BUDGET, hedgeBudget + maxHedgeRate);
+  }
+
+  /**
+   * Takes a hedge from the budget
+   *
+   * @return {@link Boolean} indicating if the hedge can be sent
+   */
+  private synchronized boolean tryHedge() {
+
+    if (hedgeBudget < 1) {
+      return false;
+    }
+    hedgeBudget--;
+    hedges++;
+    return true;
+  }
+
+  /**
+   * {@link CallAdapter} giving hedged calls to the next one
+   */
+  private final class HedgingCallAdapter<R, T> implements CallAdapter<R, T> {
+
+    private final CallAdapter<R, T> delegate;
+
+    HedgingCallAdapter(CallAdapter<R, T> delegate) {
+
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Type responseType() {
+
+      return delegate.responseType();
+    }
+
+    @Override
+    public T adapt(@NonNull Call<R> call) {
+
+      return delegate.adapt(new HedgedCall<>(call));
+    }
+  }
+
+  /**
+   * {@link Call} racing the given call against a hedge sent once it is late
+   */
+  private final class HedgedCall<R> implements Call<R> {
+
+    private final Call<R> primary;
+    private Race<R> race;
+    private boolean executed;
+    private volatile boolean canceled;
+
+    HedgedCall(Call<R> primary) {
+
+      this.primary = primary;
+    }
+
+    @Override
+    public Response<R> execute() throws IOException {
+
+      // Requests that are not hedged stay on the calling thread, out of the async dispatcher
+      if (hedgeDelayOf(primary.request()) < 0) {
+        return executePrimary();
+      }
+
+      final CountDownLatch latch = new CountDownLatch(1);
+      final Object[] result = new Object[1];
+      enqueue(new Callback<R>() {
+        @Override
+        public void onResponse(Call<R> call, Response<R> response) {
+
+          result[0] = response;
+          latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Call<R> call, Throwable t) {
+
+          result[0] = t;
+          latch.countDown();
+        }
+      });
+
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        cancel();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the response");
+      }
+
+      if (result[0] instanceof IOException) {
+        throw (IOException) result[0];
+      }
+      if (result[0] instanceof RuntimeException) {
+        throw (RuntimeException) result[0];
+      }
+      if (result[0] instanceof Error) {
+        throw (Error) result[0];
+      }
+      if (result[0] instanceof Throwable) {
+        throw new RuntimeException((Throwable) result[0]);
+      }
+      //noinspection unchecked
+      return (Response<R>) result[0];
+    }
+
+    /**
+     * Executes the primary call on the calling thread, recording its latency
+     *
+     * @return {@link Response} of the call
+     * @throws IOException if the call fails
+     */
+    private Response<R> executePrimary() throws IOException {
+
+      synchronized (this) {
+        Preconditions.checkState(!executed, "Already executed");
+        executed = true;
+      }
+      onRequest();
+      if (canceled) {
+        primary.cancel();
+      }
+      final long start = System.nanoTime();
+      try {
+        final Response<R> response = primary.execute();
+        recordLatency(primary.request(), System.nanoTime() - start);
+        return response;
+      } catch (IOException e) {
+        // Requests canceled by the caller say nothing about the endpoint
+        if (!primary.isCanceled()) {
+          recordFailure(primary.request(), System.nanoTime() - start);
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    public void enqueue(@NonNull Callback<R> callback) {
+
+      final Race<R> newRace;
+      synchronized (this) {
+        Preconditions.checkState(!executed, "Already executed");
+        executed = true;
+        newRace = new Race<>(primary, callback);
+        race = newRace;
+      }
+      onRequest();
+      newRace.start(canceled);
+    }
+
+    @Override
+    public synchronized boolean isExecuted() {
+
+      return executed;
+    }
+
+    @Override
+    public void cancel() {
+
+      canceled = true;
+      final Race<R> currentRace;
+      synchronized (this) {
+        currentRace = race;
+      }
+      if (currentRace != null) {
+        currentRace.cancel();
+      } else {
+        primary.cancel();
+      }
+    }
+
+    @Override
+    public boolean isCanceled() {
+
+      return canceled;
+    }
+
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    @Override
+    public Call<R> clone() {
+
+      return new HedgedCall<>(primary.clone());
+    }
+
+    @Override
+    public Request request() {
+
+      return primary.request();
+    }
+  }
+
+  /**
+   * Race between a call and its hedge, reporting the first response to the callback
+   */
+  private final class Race<R> implements Callback<R>, Runnable {
+
+    private final Call<R> primary;
+    private final Callback<R> callback;
+    private final long primaryStart = System.nanoTime();
+    private Call<R> hedge;
+    private Future<?> hedgeTimer;
+    private int pending = 1;
+    private boolean finished;
+
+    Race(Call<R> primary, Callback<R> callback) {
+
+      this.primary = primary;
+      this.callback = callback;
+    }
+
+    /**
+     * Sends the call, and schedules its hedge if the request can be hedged
+     *
+     * @param canceled {@link Boolean} indicating if the call was cancelled before starting
+     */
+    void start(boolean canceled) {
+
+      if (canceled) {
+        primary.cancel();
+      }
+      primary.enqueue(this);
+      final long delay = hedgeDelayOf(primary.request());
+      if (delay >= 0 && !canceled) {
+        synchronized (this) {
+          if (!finished) {
+            hedgeTimer = TIMER.schedule(this, delay, TimeUnit.MILLISECONDS);
+          }
+        }
+      }
+    }
+
+    /**
+     * Cancels the call and its hedge
+     */
+    void cancel() {
+
+      final Call<R> currentHedge;
+      synchronized (this) {
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        currentHedge = hedge;
+      }
+      primary.cancel();
+      if (currentHedge != null) {
+        currentHedge.cancel();
+      }
+    }
+
+    @Override
+    public void run() {
+
+      final Call<R> newHedge;
+      synchronized (this) {
+        if (finished || primary.isCanceled() || !tryHedge()) {
+          return;
+        }
+        newHedge = primary.clone();
+        hedge = newHedge;
+        pending++;
+      }
+      Timber.d("run: hedging %s", newHedge.request().url());
+      newHedge.enqueue(this);
+    }
+
+    @Override
+    public void onResponse(Call<R> call, Response<R> response) {
+
+      final Call<R> loser;
+      synchronized (this) {
+        pending--;
+        if (finished) {
+          closeQuietly(response);
+          return;
+        }
+        finished = true;
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        loser = call == primary ? hedge : primary;
+      }
+      if (loser != null) {
+        loser.cancel();
+      }
+      // From the start of the primary, the latency the caller saw even when the hedge won
+      recordLatency(call.request(), System.nanoTime() - primaryStart);
+      callback.onResponse(call, response);
+    }
+
+    @Override
+    public void onFailure(Call<R> call, Throwable t) {
+
+      synchronized (this) {
+        pending--;
+        // Wait for the other request while it can still answer
+        if (finished || (pending > 0 && !primary.isCanceled())) {
+          return;
+        }
+        finished = true;
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+      }
+      // Requests canceled by the caller say nothing about the endpoint
+      if (!primary.isCanceled()) {
+        recordFailure(call.request(), System.nanoTime() - primaryStart);
+      }
+      callback.onFailure(call, t);
+    }
+
+    /**
+     * Closes the error body of a response that lost the race
+     *
+     * @param response {@link Response} that lost
+     */
+    private void closeQuietly(Response<R> response) {
+
+      if (response.errorBody() != null) {
+        response.errorBody().close();
+      }
+    }
+  }
+
+}
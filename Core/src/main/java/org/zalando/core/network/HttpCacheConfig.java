@@ -0,0 +1,97 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.zalando.core.utils.Preconditions;
+
+/**
+ * Settings of the disk cache of HTTP responses used by the apis created by {@link RestApiFactory}
+ */
+public final class HttpCacheConfig {
+
+  final File directory;
+  final long maxSize;
+  final Map<String, Long> maxAgeSeconds;
+  final long staleWhileRevalidateSeconds;
+
+  /**
+   * Private constructor, configs are created with a {@link Builder}
+   *
+   * @param builder {@link Builder} with the settings
+   */
+  private HttpCacheConfig(Builder builder) {
+
+    directory = builder.directory;
+    maxSize = builder.maxSize;
+    maxAgeSeconds = Collections.unmodifiableMap(new LinkedHashMap<>(builder.maxAgeSeconds));
+    staleWhileRevalidateSeconds = builder.staleWhileRevalidateSeconds;
+  }
+
+  /**
+   * Builder of {@link HttpCacheConfig}
+   */
+  public static final class Builder {
+
+    private final File directory;
+    private final long maxSize;
+    private final Map<String, Long> maxAgeSeconds = new LinkedHashMap<>();
+    private long staleWhileRevalidateSeconds;
+
+    /**
+     * Constructor for the builder
+     *
+     * @param directory {@link File} with the directory of the cache, only used by this cache
+     * @param maxSize {@link Long} with the maximum size of the cache in bytes
+     */
+    public Builder(@NonNull File directory, long maxSize) {
+
+      Preconditions.checkArgument(maxSize > 0, "Cache size must be positive");
+      this.directory = directory;
+      this.maxSize = maxSize;
+    }
+
+    /**
+     * Caches the successful GET responses of the endpoints under the given path for the given
+     * time, whatever the server says. The longest matching path wins
+     *
+     * @param pathPrefix {@link String} with the prefix of the encoded path of the endpoints
+     * @param maxAge {@link Long} with the time the responses are fresh
+     * @param timeUnit {@link TimeUnit} of the max age
+     * @return {@link Builder} to continue building the config
+     */
+    public Builder setMaxAge(@NonNull String pathPrefix, long maxAge, @NonNull TimeUnit timeUnit) {
+
+      Preconditions.checkArgument(maxAge >= 0, "Max age can not be negative");
+      maxAgeSeconds.put(pathPrefix, timeUnit.toSeconds(maxAge));
+      return this;
+    }
+
+    /**
+     * Serves cached responses up to the given time after they became stale, refreshing them in the
+     * background. Disabled by default
+     *
+     * @param maxStale {@link Long} with the time stale responses are still served
+     * @param timeUnit {@link TimeUnit} of the max stale time
+     * @return {@link Builder} to continue building the config
+     */
+    public Builder setStaleWhileRevalidate(long maxStale, @NonNull TimeUnit timeUnit) {
+
+      Preconditions.checkArgument(maxStale >= 0, "Max stale time can not be negative");
+      staleWhileRevalidateSeconds = timeUnit.toSeconds(maxStale);
+      return this;
+    }
+
+    /**
+     * @return {@link HttpCacheConfig} with the given settings
+     */
+    public HttpCacheConfig build() {
+
+      return new HttpCacheConfig(this);
+    }
+  }
+
+}
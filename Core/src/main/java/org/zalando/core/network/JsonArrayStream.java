@@ -0,0 +1,24 @@
+package org.zalando.core.network;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link retrofit2.http.Streaming} rest api method returning {@link io.reactivex.Flowable}
+ * whose items are the elements of a JSON array of the response, parsed while the body is still
+ * downloading. See {@link StreamingJsonCallAdapterFactory}
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface JsonArrayStream {
+
+  /**
+   * @return {@link String} with the dot separated path of the array field, empty if the whole
+   * response is the array
+   */
+  String value() default "";
+}
@@ -0,0 +1,129 @@
+package org.zalando.core.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.zalando.core.utils.Preconditions;
+
+/**
+ * Lock-free histogram of latencies. Latencies are counted in buckets with exponential bounds, so
+ * recording never allocates nor locks, and percentiles are approximated by interpolating linearly
+ * within their bucket
+ */
+public final class LatencyHistogram {
+
+  // Upper bounds of the buckets in milliseconds, the last bucket holds the slower latencies
+  private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000,
+      2000, 5000, 10000, 20000, 60000};
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMillis = new AtomicLong();
+  private final AtomicLong maxMillis = new AtomicLong();
+
+  /**
+   * Records the given latency
+   *
+   * @param latency {@link Long} with the latency
+   * @param timeUnit {@link TimeUnit} of the latency
+   */
+  public void record(long latency, TimeUnit timeUnit) {
+
+    final long millis = Math.max(0, timeUnit.toMillis(latency));
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+      bucket++;
+    }
+    buckets.incrementAndGet(bucket);
+    count.incrementAndGet();
+    totalMillis.addAndGet(millis);
+
+    long max = maxMillis.get();
+    while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+      max = maxMillis.get();
+    }
+  }
+
+  /**
+   * @return {@link Long} with the number of recorded latencies
+   */
+  public long getCount() {
+
+    return count.get();
+  }
+
+  /**
+   * @return {@link Long} with the mean latency in milliseconds, 0 if none was recorded
+   */
+  public long getMeanMillis() {
+
+    final long recorded = count.get();
+    return recorded == 0 ? 0 : totalMillis.get() / recorded;
+  }
+
+  /**
+   * @return {@link Long} with the maximum latency in milliseconds
+   */
+  public long getMaxMillis() {
+
+    return maxMillis.get();
+  }
+
+  /**
+   * Provides an approximation of the given percentile, interpolated linearly between the bounds of
+   * the bucket it falls in
+   *
+   * @param percentile {@link Double} with the percentile, from 0 to 100
+   * @return {@link Long} with the latency in milliseconds, 0 if none was recorded
+   */
+  public long getPercentileMillis(double percentile) {
+
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "Percentile must be "
+        + "between 0 and 100");
+
+    long total = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      total += buckets.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    final double rank = Math.max(1, total * percentile / 100);
+    final long max = maxMillis.get();
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      final long inBucket = buckets.get(i);
+      if (inBucket > 0 && seen + inBucket >= rank) {
+        // The slowest bucket has no upper bound but the maximum latency
+        final long lower = i == 0 ? 0 : BUCKET_BOUNDS_MILLIS[i - 1];
+        final long upper = i < BUCKET_BOUNDS_MILLIS.length ? BUCKET_BOUNDS_MILLIS[i] : max;
+        final long interpolated = lower + Math.round((upper - lower) * (rank - seen) / inBucket);
+        return Math.min(interpolated, max);
+      }
+      seen += inBucket;
+    }
+    return max;
+  }
+
+  /**
+   * Forgets all the recorded latencies
+   */
+  public void reset() {
+
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    totalMillis.set(0);
+    maxMillis.set(0);
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format("p50 %d ms, p95 %d ms, max %d ms", getPercentileMillis(50),
+        getPercentileMillis(95), getMaxMillis());
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import java.util.Map;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Network interceptor that overrides the freshness of the successful GET responses of the
+ * endpoints with a configured max age, so the cache keeps them for that time
+ */
+final class MaxAgeInterceptor implements Interceptor {
+
+  private static final String CACHE_CONTROL = "Cache-Control";
+  private static final String PRAGMA = "Pragma";
+
+  private final Map<String, Long> maxAgeSeconds;
+
+  /**
+   * Constructor
+   *
+   * @param maxAgeSeconds {@link Map} with the max age in seconds of every path prefix
+   */
+  MaxAgeInterceptor(Map<String, Long> maxAgeSeconds) {
+
+    this.maxAgeSeconds = maxAgeSeconds;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    final Response response = chain.proceed(request);
+    if (!"GET".equals(request.method()) || !response.isSuccessful()) {
+      return response;
+    }
+
+    final Long maxAge = maxAgeOf(request.url().encodedPath());
+    if (maxAge == null) {
+      return response;
+    }
+    return response.newBuilder()
+        .removeHeader(PRAGMA)
+        .header(CACHE_CONTROL, "max-age=" + maxAge)
+        .build();
+  }
+
+  /**
+   * Provides the max age of the longest path prefix matching the given path
+   *
+   * @param path {@link String} with the encoded path of the request
+   * @return {@link Long} with the max age in seconds, null if no prefix matches
+   */
+  private Long maxAgeOf(String path) {
+
+    String matchingPrefix = null;
+    for (String prefix : maxAgeSeconds.keySet()) {
+      if (path.startsWith(prefix)
+          && (matchingPrefix == null || prefix.length() > matchingPrefix.length())) {
+        matchingPrefix = prefix;
+      }
+    }
+    return matchingPrefix != null ? maxAgeSeconds.get(matchingPrefix) : null;
+  }
+
+}
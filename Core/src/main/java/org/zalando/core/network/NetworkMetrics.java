@@ -0,0 +1,290 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import timber.log.Timber;
+
+/**
+ * Collects the {@link EndpointMetrics} of the calls made by the apis created by {@link
+ * RestApiFactory}, through an OkHttp {@link EventListener}. Calls are grouped by endpoint template:
+ * the method, the host and the path with its ids replaced by <code>{id}</code>
+ */
+public final class NetworkMetrics {
+
+  private static final String ID_SEGMENT = "{id}";
+  // Numbers, UUIDs and long hexadecimal hashes are considered ids
+  private static final Pattern ID_PATTERN = Pattern.compile("\\d+|[0-9a-fA-F-]{8,}");
+
+  private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+  private final EventListener.Factory eventListenerFactory = new EventListener.Factory() {
+    @Override
+    public EventListener create(@NonNull Call call) {
+      return new CallMetricsListener();
+    }
+  };
+
+  /**
+   * @return {@link EventListener.Factory} recording the metrics of every call
+   */
+  public EventListener.Factory getEventListenerFactory() {
+
+    return eventListenerFactory;
+  }
+
+  /**
+   * Provides the metrics recorded so far, sorted by endpoint template. Metrics keep being updated
+   *
+   * @return {@link Map} with the {@link EndpointMetrics} of every endpoint template
+   */
+  public Map<String, EndpointMetrics> getEndpoints() {
+
+    return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+  }
+
+  /**
+   * Forgets all the recorded metrics
+   */
+  public void reset() {
+
+    endpoints.clear();
+  }
+
+  /**
+   * Writes the metrics of every endpoint to the log
+   */
+  public void dump() {
+
+    for (Map.Entry<String, EndpointMetrics> endpoint : getEndpoints().entrySet()) {
+      Timber.i("%s: %s", endpoint.getKey(), endpoint.getValue());
+    }
+  }
+
+  /**
+   * Periodically writes the metrics of every endpoint to the log in a background thread
+   *
+   * @param period {@link Long} with the time between dumps
+   * @param timeUnit {@link TimeUnit} of the period
+   * @return {@link Disposable} to stop dumping
+   */
+  public Disposable startPeriodicDump(long period, @NonNull TimeUnit timeUnit) {
+
+    return Observable.interval(period, timeUnit, Schedulers.io())
+        .subscribe(new Consumer<Long>() {
+          @Override
+          public void accept(Long tick) throws Exception {
+            dump();
+          }
+        });
+  }
+
+  /**
+   * Provides the {@link EndpointMetrics} of the endpoint template of the given request
+   *
+   * @param request {@link Request} to a endpoint
+   * @return {@link EndpointMetrics} of the endpoint
+   */
+  private EndpointMetrics metricsOf(Request request) {
+
+    final String template = templateOf(request);
+    EndpointMetrics metrics = endpoints.get(template);
+    if (metrics == null) {
+      final EndpointMetrics newMetrics = new EndpointMetrics();
+      metrics = endpoints.putIfAbsent(template, newMetrics);
+      if (metrics == null) {
+        metrics = newMetrics;
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Provides the endpoint template of the given request
+   *
+   * @param request {@link Request} to a endpoint
+   * @return {@link String} with the method, the host and the path with its ids replaced
+   */
+  static String templateOf(Request request) {
+
+    final HttpUrl url = request.url();
+    final StringBuilder template = new StringBuilder(request.method()).append(' ')
+        .append(url.host());
+    for (String segment : url.pathSegments()) {
+      template.append('/').append(ID_PATTERN.matcher(segment).matches() ? ID_SEGMENT : segment);
+    }
+    return template.toString();
+  }
+
+  /**
+   * {@link EventListener} of a single call. Measures are kept until the call ends and recorded in
+   * the endpoint of the last request sent to the network, so the endpoint is the one the
+   * interceptors finally chose, not the one the call was created with
+   */
+  private final class CallMetricsListener extends EventListener {
+
+    private static final long NONE = -1;
+
+    private long callStart;
+    private long dnsStart;
+    private long connectStart;
+    private long secureConnectStart;
+    private long requestHeadersStart;
+    private long dnsNanos = NONE;
+    private long connectNanos = NONE;
+    private long tlsNanos = NONE;
+    private long timeToFirstByteNanos = NONE;
+    private long requestBytes;
+    private long responseBytes;
+    private int status = (int) NONE;
+    // Last request sent to the network, null until the first one is sent
+    private Request networkRequest;
+
+    @Override
+    public void callStart(Call call) {
+
+      callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+
+      dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+
+      dnsNanos = System.nanoTime() - dnsStart;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+
+      connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+
+      secureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+
+      tlsNanos = System.nanoTime() - secureConnectStart;
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        Protocol protocol) {
+
+      connectNanos = System.nanoTime() - connectStart;
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+
+      requestHeadersStart = System.nanoTime();
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+
+      networkRequest = request;
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+
+      requestBytes += byteCount;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+
+      // From the request being sent, so the time waiting for a connection is left out
+      timeToFirstByteNanos = System.nanoTime() - requestHeadersStart;
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+
+      status = response.code();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+
+      responseBytes += byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+
+      record(call, false);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+
+      record(call, true);
+    }
+
+    /**
+     * Records the measures of the call in the metrics of its endpoint
+     *
+     * @param call {@link Call} that ended
+     * @param failed {@link Boolean} indicating if the call failed
+     */
+    private void record(Call call, boolean failed) {
+
+      // Calls failing before reaching the network are recorded in the endpoint they were made to
+      final EndpointMetrics metrics = metricsOf(networkRequest != null ? networkRequest
+          : call.request());
+      record(metrics.getDnsLatency(), dnsNanos);
+      record(metrics.getConnectLatency(), connectNanos);
+      record(metrics.getTlsLatency(), tlsNanos);
+      record(metrics.getTimeToFirstByte(), timeToFirstByteNanos);
+      if (status != NONE) {
+        metrics.recordStatus(status);
+      }
+      metrics.addRequestBytes(requestBytes);
+      metrics.addResponseBytes(responseBytes);
+      if (failed) {
+        metrics.recordFailure();
+      }
+      metrics.getTotalLatency().record(System.nanoTime() - callStart, TimeUnit.NANOSECONDS);
+    }
+
+    private void record(LatencyHistogram histogram, long nanos) {
+
+      if (nanos != NONE) {
+        histogram.record(nanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,34 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Interceptor removing the {@link RequestPriority} header from the requests of the apis without
+ * {@link ConcurrencyLimiterInterceptor}, so it never reaches the server
+ */
+final class PriorityHeaderInterceptor implements Interceptor {
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    return chain.proceed(removeHeader(chain.request()));
+  }
+
+  /**
+   * Removes the {@link RequestPriority} header from the given request
+   *
+   * @param request {@link Request} to send
+   * @return {@link Request} without the header, the given one if it had none
+   */
+  static Request removeHeader(Request request) {
+
+    if (request.header(RequestPriority.HEADER) == null) {
+      return request;
+    }
+    return request.newBuilder().removeHeader(RequestPriority.HEADER).build();
+  }
+
+}
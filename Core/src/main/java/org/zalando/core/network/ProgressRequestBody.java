@@ -0,0 +1,72 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * {@link RequestBody} streaming a file while it is sent, so the file is never held in memory.
+ * Segments read from the file are handed to the connection as they are, and the progress is
+ * reported after each of them
+ */
+public final class ProgressRequestBody extends RequestBody {
+
+  private final File file;
+  private final MediaType contentType;
+  private final FileTransfer.ProgressListener listener;
+
+  /**
+   * Constructor
+   *
+   * @param file {@link File} to send
+   * @param contentType {@link MediaType} of the file, null if unknown
+   * @param listener {@link FileTransfer.ProgressListener} notified of the progress, null to not
+   * notify it
+   */
+  public ProgressRequestBody(@NonNull File file, @Nullable MediaType contentType,
+      @Nullable FileTransfer.ProgressListener listener) {
+
+    this.file = file;
+    this.contentType = contentType;
+    this.listener = listener;
+  }
+
+  @Override
+  public MediaType contentType() {
+
+    return contentType;
+  }
+
+  @Override
+  public long contentLength() {
+
+    return file.length();
+  }
+
+  @Override
+  public void writeTo(@NonNull BufferedSink sink) throws IOException {
+
+    final long total = contentLength();
+    final Source source = Okio.source(file);
+    try {
+      long sent = 0;
+      long read;
+      while ((read = source.read(sink.buffer(), FileTransfer.CHUNK_SIZE)) != -1) {
+        sink.emitCompleteSegments();
+        sent += read;
+        if (listener != null) {
+          listener.onProgress(sent, total);
+        }
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+}
@@ -0,0 +1,151 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import timber.log.Timber;
+
+/**
+ * Interceptor that attaches identical GET and HEAD requests to the one already in flight, so only
+ * one of them reaches the network and its response is shared by all. Requests are identical if
+ * they have the same method, url and headers, apart from their {@link RequestPriority}. Responses
+ * are buffered in memory to be shared, so only the ones whose Content-Length is known and up to
+ * {@link #MAX_SHARED_BODY_BYTES} are shared. For any other response, every request waiting for it
+ * goes to the network on its own as soon as its headers arrive
+ */
+final class RequestCoalescingInterceptor implements Interceptor {
+
+  static final long MAX_SHARED_BODY_BYTES = 1024 * 1024;
+
+  private final ConcurrentMap<String, InFlightRequest> inFlightRequests =
+      new ConcurrentHashMap<>();
+  private final AtomicLong deduplicatedRequests = new AtomicLong();
+
+  /**
+   * @return {@link Long} with the number of requests answered with the response of another one
+   */
+  long getDeduplicatedRequests() {
+
+    return deduplicatedRequests.get();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    if (!"GET".equals(request.method()) && !"HEAD".equals(request.method())) {
+      return chain.proceed(request);
+    }
+
+    // Requests only differing in their priority get the same response
+    final String key = request.method() + ' ' + request.url() + '\n'
+        + request.headers().newBuilder().removeAll(RequestPriority.HEADER).build();
+    final InFlightRequest inFlightRequest = new InFlightRequest();
+    final InFlightRequest leader = inFlightRequests.putIfAbsent(key, inFlightRequest);
+    if (leader != null) {
+      final SharedResponse sharedResponse = leader.await();
+      if (sharedResponse != null) {
+        deduplicatedRequests.incrementAndGet();
+        Timber.d("intercept: %s deduplicated", request.url());
+        return sharedResponse.newResponse(request);
+      }
+      // The response could not be shared
+      return chain.proceed(request);
+    }
+
+    SharedResponse sharedResponse = null;
+    try {
+      final Response response = chain.proceed(request);
+      final ResponseBody body = response.body();
+      // Bodies of unknown or big size are streamed to the caller, waiting for them would block
+      // the leader until the whole body arrives
+      if (body == null || body.contentLength() < 0
+          || body.contentLength() > MAX_SHARED_BODY_BYTES) {
+        return response;
+      }
+      sharedResponse = new SharedResponse(response, body.contentType(), body.bytes());
+      return sharedResponse.newResponse(request);
+    } finally {
+      // Requests arriving from now on go to the network again
+      inFlightRequests.remove(key, inFlightRequest);
+      inFlightRequest.complete(sharedResponse);
+    }
+  }
+
+  /**
+   * Request in flight, with the requests waiting for its response
+   */
+  private static final class InFlightRequest {
+
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile SharedResponse response;
+
+    /**
+     * Releases the waiting requests
+     *
+     * @param sharedResponse {@link SharedResponse} to share, null if it can not be shared
+     */
+    void complete(SharedResponse sharedResponse) {
+
+      response = sharedResponse;
+      completed.countDown();
+    }
+
+    /**
+     * Waits for the response of the request
+     *
+     * @return {@link SharedResponse} to share, null if it can not be shared
+     * @throws InterruptedIOException if the waiting thread is interrupted
+     */
+    SharedResponse await() throws InterruptedIOException {
+
+      try {
+        completed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for an identical request");
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Response with its body in memory, that can be handed out to many requests
+   */
+  private static final class SharedResponse {
+
+    private final Response response;
+    private final MediaType contentType;
+    private final byte[] body;
+
+    SharedResponse(Response response, MediaType contentType, byte[] body) {
+
+      this.response = response;
+      this.contentType = contentType;
+      this.body = body;
+    }
+
+    /**
+     * Creates a copy of the response for the given request
+     *
+     * @param request {@link Request} the response answers
+     * @return {@link Response} with its own body
+     */
+    Response newResponse(Request request) {
+
+      return response.newBuilder()
+          .request(request)
+          .body(ResponseBody.create(contentType, body))
+          .build();
+    }
+  }
+
+}
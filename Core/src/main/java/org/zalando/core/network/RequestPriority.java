@@ -0,0 +1,57 @@
+package org.zalando.core.network;
+
+/**
+ * Priorities of the requests queued by the {@link ConcurrencyLimiterInterceptor}. Set them on the
+ * rest api methods with the static headers of Retrofit, like <code>@Headers(RequestPriority
+ * .HIGH)</code>. Requests without priority are {@link #NORMAL}
+ */
+public final class RequestPriority {
+
+  /**
+   * Name of the header with the priority, removed before the request is sent
+   */
+  public static final String HEADER = "X-Request-Priority";
+
+  /**
+   * Requests blocking what the user is waiting for
+   */
+  public static final String HIGH = HEADER + ": high";
+
+  /**
+   * Default priority
+   */
+  public static final String NORMAL = HEADER + ": normal";
+
+  /**
+   * Background requests, like prefetches
+   */
+  public static final String LOW = HEADER + ": low";
+
+  static final int HIGH_VALUE = 0;
+  static final int NORMAL_VALUE = 1;
+  static final int LOW_VALUE = 2;
+
+  /**
+   * Private constructor to avoid object instance
+   */
+  private RequestPriority() {
+  }
+
+  /**
+   * Provides the priority with the given header value
+   *
+   * @param headerValue {@link String} with the value of the header, null if there is none
+   * @return {@link Integer} with the priority, lower goes first
+   */
+  static int valueOf(String headerValue) {
+
+    if ("high".equalsIgnoreCase(headerValue)) {
+      return HIGH_VALUE;
+    }
+    if ("low".equalsIgnoreCase(headerValue)) {
+      return LOW_VALUE;
+    }
+    return NORMAL_VALUE;
+  }
+
+}
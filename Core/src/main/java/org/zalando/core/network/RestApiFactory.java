@@ -4,12 +4,23 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
 import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
-import okhttp3.logging.HttpLoggingInterceptor;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.zalando.core.utils.Preconditions;
 import org.zalando.core.utils.ValidationUtils;
 import retrofit2.CallAdapter;
@@ -19,10 +30,45 @@ import retrofit2.converter.gson.GsonConverterFactory;
 import timber.log.Timber;
 
 /**
- * Factory class that helps building Rest Api interfaces using RetroFit.
+ * Factory class that helps building Rest Api interfaces using RetroFit. Every api shares the
+ * connection pool, dispatcher and TLS session cache of a single base {@link OkHttpClient}, and
+ * {@link Retrofit} objects are reused for apis created with the same settings
  */
 public final class RestApiFactory {
 
+  private static final long DEFAULT_MAX_LOGGED_BODY_BYTES = 4 * 1024;
+  // Apis created with interceptors or Gson objects created on the fly never share a Retrofit
+  // object, so only the most recently used ones are kept
+  static final int MAX_RETROFITS = 32;
+
+  private static final CallAdapter.Factory CALL_ADAPTER_FACTORY = RxJava2CallAdapterFactory
+      .createWithScheduler(Schedulers.io());
+  // Access ordered, so the eldest entry is the least recently used Retrofit object
+  private static final Map<RetrofitKey, Retrofit> RETROFITS = new LinkedHashMap<RetrofitKey,
+      Retrofit>(MAX_RETROFITS, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<RetrofitKey, Retrofit> eldest) {
+      return size() > MAX_RETROFITS;
+    }
+  };
+  private static final Interceptor PRIORITY_HEADER_INTERCEPTOR = new PriorityHeaderInterceptor();
+  private static final List<TypeAdapterFactory> TYPE_ADAPTER_FACTORIES = new ArrayList<>();
+  private static Gson defaultGson = new GsonBuilder().create();
+  private static OkHttpClient baseClient = new OkHttpClient();
+  private static HttpCacheConfig cacheConfig;
+  private static Cache cache;
+  private static RequestCoalescingInterceptor requestCoalescingInterceptor;
+  private static NetworkMetrics networkMetrics;
+  private static ConcurrencyLimiterInterceptor concurrencyLimiter;
+  private static CircuitBreakerInterceptor circuitBreaker;
+  private static ConditionalRequestInterceptor conditionalRequestInterceptor;
+  private static HedgingCallAdapterFactory hedgingCallAdapterFactory;
+  private static ConverterStrategy converterStrategy;
+  private static Interceptor acceptHeaderInterceptor;
+  private static AdaptiveTimeoutInterceptor adaptiveTimeoutInterceptor;
+  private static Interceptor loggingInterceptor = new SampledLoggingInterceptor(
+      DEFAULT_MAX_LOGGED_BODY_BYTES, 1);
+
   /**
    * Private constructor to force static access to methods
    */
@@ -53,8 +99,8 @@ public final class RestApiFactory {
         baseUrl,
         interceptors,
         null,
-        RxJava2CallAdapterFactory.createWithScheduler(Schedulers.io()),
-        gson != null ? gson : new GsonBuilder().create(),
+        CALL_ADAPTER_FACTORY,
+        gson != null ? gson : getDefaultGson(),
         logs).create(restInterface);
   }
 
@@ -77,8 +123,8 @@ public final class RestApiFactory {
         baseUrl,
         null,
         null,
-        RxJava2CallAdapterFactory.createWithScheduler(Schedulers.io()),
-        new GsonBuilder().create(),
+        CALL_ADAPTER_FACTORY,
+        getDefaultGson(),
         logs).create(restInterface);
   }
 
@@ -103,11 +149,295 @@ public final class RestApiFactory {
         baseUrl,
         interceptors,
         networkInterceptors,
-        RxJava2CallAdapterFactory.createWithScheduler(Schedulers.io()),
-        gson != null ? gson : new GsonBuilder().create(),
+        CALL_ADAPTER_FACTORY,
+        gson != null ? gson : getDefaultGson(),
         logs).create(restInterface);
   }
 
+  /**
+   * Provides the base {@link OkHttpClient} shared by every api. Derive clients for other uses from
+   * it with {@link OkHttpClient#newBuilder()}, so they share its connections and threads too
+   *
+   * @return {@link OkHttpClient} shared by every api
+   */
+  public static synchronized OkHttpClient getBaseClient() {
+
+    return baseClient;
+  }
+
+  /**
+   * Sets the base {@link OkHttpClient} shared by the apis created from now on, like one with
+   * custom timeouts or certificate pinning
+   *
+   * @param client {@link OkHttpClient} to share
+   */
+  public static synchronized void setBaseClient(@NonNull OkHttpClient client) {
+
+    Timber.d("setBaseClient: %s", client);
+
+    baseClient = client;
+    // Cached Retrofit objects use clients derived from the previous base client
+    RETROFITS.clear();
+  }
+
+  /**
+   * Registers a {@link TypeAdapterFactory} in the default {@link Gson} of the apis created from now
+   * on. Factories parsing the entities straight from the JSON stream, such as the ones generated by
+   * annotation processors, spare the reflective access to their fields. Apis created with their own
+   * {@link Gson} must register it themselves
+   *
+   * @param factory {@link TypeAdapterFactory} to register
+   */
+  public static synchronized void addTypeAdapterFactory(@NonNull TypeAdapterFactory factory) {
+
+    Timber.d("addTypeAdapterFactory: %s", factory);
+
+    TYPE_ADAPTER_FACTORIES.add(factory);
+    final GsonBuilder gsonBuilder = new GsonBuilder();
+    for (TypeAdapterFactory typeAdapterFactory : TYPE_ADAPTER_FACTORIES) {
+      gsonBuilder.registerTypeAdapterFactory(typeAdapterFactory);
+    }
+    defaultGson = gsonBuilder.create();
+  }
+
+  /**
+   * @return {@link Gson} used by the apis created without their own one
+   */
+  private static synchronized Gson getDefaultGson() {
+
+    return defaultGson;
+  }
+
+  /**
+   * Configures the logs of the apis created from now on with logs enabled. By default every request
+   * is logged with the first {@value #DEFAULT_MAX_LOGGED_BODY_BYTES} bytes of its bodies
+   *
+   * @param maxBodyBytes {@link Long} with the maximum number of bytes logged of every body, 0 to
+   * not log bodies
+   * @param sampleRate {@link Float} with the fraction of the requests to log, from 0 to 1
+   */
+  public static synchronized void setLogging(long maxBodyBytes, float sampleRate) {
+
+    Timber.d("setLogging: %d bytes, %f sample rate", maxBodyBytes, sampleRate);
+
+    loggingInterceptor = new SampledLoggingInterceptor(maxBodyBytes, sampleRate);
+    RETROFITS.clear();
+  }
+
+  /**
+   * Records the {@link NetworkMetrics} of the calls made by the apis created from now on
+   *
+   * @param metrics {@link NetworkMetrics} to record to, null to stop recording
+   */
+  public static synchronized void setMetrics(@Nullable NetworkMetrics metrics) {
+
+    networkMetrics = metrics;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Limits the requests in flight per host of the apis created from now on. Requests over the limit
+   * wait ordered by their {@link RequestPriority}
+   *
+   * @param limiter {@link ConcurrencyLimiterInterceptor} shared by the apis, null to not limit them
+   */
+  public static synchronized void setConcurrencyLimiter(
+      @Nullable ConcurrencyLimiterInterceptor limiter) {
+
+    concurrencyLimiter = limiter;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Stops sending the requests of the apis created from now on to the hosts that keep failing
+   *
+   * @param breaker {@link CircuitBreakerInterceptor} shared by the apis, null to always send them
+   */
+  public static synchronized void setCircuitBreaker(@Nullable CircuitBreakerInterceptor breaker) {
+
+    circuitBreaker = breaker;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Sends the GET requests of the apis created from now on as conditional requests, serving the
+   * stored body when the server answers that it did not change. Ignored while the cache is enabled
+   * through {@link #setCache(HttpCacheConfig)}, which revalidates the responses it holds itself
+   *
+   * @param directory {@link File} with the directory of the stored bodies, null to disable them
+   */
+  public static synchronized void setConditionalRequests(@Nullable File directory) {
+
+    Timber.d("setConditionalRequests: %s", directory);
+
+    conditionalRequestInterceptor = directory != null
+        ? new ConditionalRequestInterceptor(directory) : null;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Hedges the slow GET and HEAD requests of the apis created from now on. Hedges are identical to
+   * the request they hedge, so request coalescing is left out of the apis while hedging is enabled
+   *
+   * @param factory {@link HedgingCallAdapterFactory} shared by the apis, null to not hedge them
+   */
+  public static synchronized void setHedging(@Nullable HedgingCallAdapterFactory factory) {
+
+    hedgingCallAdapterFactory = factory;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Converts the bodies of the apis created from now on with the given strategy, before falling
+   * back to JSON
+   *
+   * @param strategy {@link ConverterStrategy} of the apis, such as {@link
+   * BinaryConverterFactory#STRATEGY}, null to only convert JSON
+   */
+  public static synchronized void setConverterStrategy(@Nullable ConverterStrategy strategy) {
+
+    converterStrategy = strategy;
+    final String accept = strategy != null ? strategy.getAcceptHeader() : null;
+    acceptHeaderInterceptor = accept != null ? new AcceptHeaderInterceptor(accept) : null;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Adapts the connect and read timeouts of the apis created from now on to the recent latencies
+   * of their endpoints. Timeouts of the base client are replaced, unless the interceptor keeps the
+   * longer ones
+   *
+   * @param interceptor {@link AdaptiveTimeoutInterceptor} shared by the apis, null to keep the
+   * timeouts of the base client
+   */
+  public static synchronized void setAdaptiveTimeouts(
+      @Nullable AdaptiveTimeoutInterceptor interceptor) {
+
+    adaptiveTimeoutInterceptor = interceptor;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Opens connections to the given base urls in the background, so the first requests to them do
+   * not wait for DNS, TCP and TLS. Apis share the connection pool of the base client, so any of
+   * them reuses the connections
+   *
+   * @param baseUrls {@link String}s with the base urls
+   */
+  public static void prewarm(@NonNull String... baseUrls) {
+
+    final OkHttpClient client = getBaseClient();
+    for (final String baseUrl : baseUrls) {
+      if (!ValidationUtils.isValidURL(baseUrl)) {
+        Timber.w("prewarm: invalid url %s", baseUrl);
+        continue;
+      }
+      client.newCall(new Request.Builder().url(baseUrl).head().build()).enqueue(new Callback() {
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+
+          Timber.d(e, "prewarm: unable to connect to %s", baseUrl);
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) {
+
+          // Only the connection matters, it stays in the pool once the response is closed
+          response.close();
+        }
+      });
+    }
+  }
+
+  /**
+   * Enables the disk cache of HTTP responses for the apis created from now on. All of them share
+   * the same cache. The previous cache is closed, so apis created with it must be created again.
+   * Conditional requests of {@link #setConditionalRequests(File)} are left out while it is enabled
+   *
+   * @param config {@link HttpCacheConfig} with the settings of the cache, null to disable it
+   */
+  public static synchronized void setCache(@Nullable HttpCacheConfig config) {
+
+    Timber.d("setCache: %s", config != null ? config.directory : null);
+
+    if (cache != null) {
+      try {
+        // Two caches must never work on the same directory, close it before opening the new one
+        cache.close();
+      } catch (IOException e) {
+        Timber.e(e, "setCache: unable to close %s", cache.directory());
+      }
+    }
+    cacheConfig = config;
+    cache = config != null ? new Cache(config.directory, config.maxSize) : null;
+    RETROFITS.clear();
+  }
+
+  /**
+   * Attaches identical GET and HEAD requests of the apis created from now on to the one already in
+   * flight, so only one of them reaches the network and all of them get its response
+   *
+   * @param enabled {@link Boolean} indicating if identical requests are coalesced
+   */
+  public static synchronized void setRequestCoalescing(boolean enabled) {
+
+    Timber.d("setRequestCoalescing: %b", enabled);
+
+    if (enabled != (requestCoalescingInterceptor != null)) {
+      requestCoalescingInterceptor = enabled ? new RequestCoalescingInterceptor() : null;
+      RETROFITS.clear();
+    }
+  }
+
+  /**
+   * Provides the number of requests that were answered with the response of an identical request
+   * already in flight
+   *
+   * @return {@link Long} with the number of deduplicated requests
+   */
+  public static synchronized long getDeduplicatedRequestCount() {
+
+    return requestCoalescingInterceptor != null
+        ? requestCoalescingInterceptor.getDeduplicatedRequests() : 0;
+  }
+
+  /**
+   * @return {@link Integer} with the number of {@link Retrofit} objects kept for reuse
+   */
+  static synchronized int getRetrofitCount() {
+
+    return RETROFITS.size();
+  }
+
+  /**
+   * Provides the {@link Retrofit} object with the given settings, creating it the first time
+   *
+   * @param url {@link String} with the Base Url
+   * @param interceptors {@link List} of {@link Interceptor} to add to the rest api
+   * @param networkInterceptors {@link List} of {@link Interceptor} as NetworkInterceptor
+   * @param callAdapterFactory {@link retrofit2.CallAdapter.Factory}
+   * @param gsonConverterFactory {@link Gson} converter to use for serialising
+   * @param logs {@link Boolean} indicating if logs are required
+   * @return {@link Retrofit} object with the given settings
+   */
+  private static synchronized Retrofit setupRetrofit(@NonNull String url,
+      @Nullable List<Interceptor> interceptors,
+      @Nullable List<Interceptor> networkInterceptors,
+      @NonNull CallAdapter.Factory callAdapterFactory,
+      @NonNull Gson gsonConverterFactory,
+      boolean logs) {
+
+    final RetrofitKey key = new RetrofitKey(url, interceptors, networkInterceptors,
+        callAdapterFactory, gsonConverterFactory, logs);
+    Retrofit retrofit = RETROFITS.get(key);
+    if (retrofit == null) {
+      retrofit = createRetrofit(url, interceptors, networkInterceptors, callAdapterFactory,
+          gsonConverterFactory, logs);
+      RETROFITS.put(key, retrofit);
+    }
+    return retrofit;
+  }
+
   /**
    * Creates a {@link Retrofit} object with the given settings
    *
@@ -119,7 +449,7 @@ public final class RestApiFactory {
    * @param logs {@link Boolean} indicating if logs are required
    * @return {@link Retrofit} object with the given settings
    */
-  private static Retrofit setupRetrofit(@NonNull String url,
+  private static Retrofit createRetrofit(@NonNull String url,
       @Nullable List<Interceptor> interceptors,
       @Nullable List<Interceptor> networkInterceptors,
       @NonNull CallAdapter.Factory callAdapterFactory,
@@ -129,20 +459,75 @@ public final class RestApiFactory {
     Preconditions.checkArgument(ValidationUtils.isValidURL(url), "Base URL is invalid");
     Timber.d("setupRetrofit: %s", url);
 
-    // Add the interceptors if they exist
-    OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder();
+    // Derive the client from the base one, so connections and threads are shared
+    OkHttpClient.Builder okHttpClientBuilder = baseClient.newBuilder();
+
+    if (networkMetrics != null) {
+      okHttpClientBuilder.eventListenerFactory(networkMetrics.getEventListenerFactory());
+    }
+
+    StaleWhileRevalidateInterceptor staleWhileRevalidateInterceptor = null;
+    if (cacheConfig != null) {
+      okHttpClientBuilder.cache(cache);
+      if (cacheConfig.staleWhileRevalidateSeconds > 0) {
+        // Looks the cache up without any interceptor, the request already went through the ones
+        // of the api and the limiter would make the lookup block
+        final OkHttpClient.Builder cacheClientBuilder = baseClient.newBuilder().cache(cache);
+        cacheClientBuilder.interceptors().clear();
+        cacheClientBuilder.networkInterceptors().clear();
+        staleWhileRevalidateInterceptor = new StaleWhileRevalidateInterceptor(
+            cacheConfig.staleWhileRevalidateSeconds, cacheClientBuilder.build());
+      }
+      if (!cacheConfig.maxAgeSeconds.isEmpty()) {
+        okHttpClientBuilder.addNetworkInterceptor(new MaxAgeInterceptor(
+            cacheConfig.maxAgeSeconds));
+      }
+    }
 
     // Add a Log interceptor if debug mode
     List<Interceptor> interceptorList = new ArrayList<>();
     if (logs) {
-      HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
-      loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
       interceptorList.add(loggingInterceptor);
     }
     // Add param interceptors
     if (interceptors != null && !interceptors.isEmpty()) {
       interceptorList.addAll(interceptors);
     }
+    // Negotiate the format unless the api or its interceptors asked for one
+    if (acceptHeaderInterceptor != null) {
+      interceptorList.add(acceptHeaderInterceptor);
+    }
+    // Serve stale responses once the request has its final url and headers, so the lookup finds
+    // the cached responses, even while the circuit of the host is open
+    if (staleWhileRevalidateInterceptor != null) {
+      interceptorList.add(staleWhileRevalidateInterceptor);
+    }
+    // Fail fast once the interceptors set the final host, before waiting for other requests
+    if (circuitBreaker != null) {
+      interceptorList.add(circuitBreaker);
+    }
+    // Add the validators before coalescing, so identical requests stay identical. The cache
+    // already sends the validators of the responses it holds, and bypasses requests carrying
+    // their own, so conditional requests are only added to apis without cache
+    if (conditionalRequestInterceptor != null && cacheConfig == null) {
+      interceptorList.add(conditionalRequestInterceptor);
+    }
+    // Coalesce requests last, once the interceptors added all their headers. Hedges would be
+    // coalesced with the request they hedge
+    if (requestCoalescingInterceptor != null && hedgingCallAdapterFactory == null) {
+      interceptorList.add(requestCoalescingInterceptor);
+    }
+    // Limit after coalescing, so coalesced requests do not take a slot. The limiter removes the
+    // priority header, apis without limiter still never send it
+    if (concurrencyLimiter != null) {
+      interceptorList.add(concurrencyLimiter);
+    } else {
+      interceptorList.add(PRIORITY_HEADER_INTERCEPTOR);
+    }
+    // Time the requests once they leave the queue of the limiter
+    if (adaptiveTimeoutInterceptor != null) {
+      interceptorList.add(adaptiveTimeoutInterceptor);
+    }
     // Add all of them to the okHttpBuilder
     for (int i = 0; i < interceptorList.size(); i++) {
       okHttpClientBuilder.addInterceptor(interceptorList.get(i));
@@ -156,10 +541,63 @@ public final class RestApiFactory {
     }
 
     // Finally create the client
-    return new Retrofit.Builder().client(okHttpClientBuilder.build()).baseUrl(url)
-        .addConverterFactory(GsonConverterFactory.create(gsonConverterFactory))
+    final OkHttpClient client = okHttpClientBuilder.build();
+    if (staleWhileRevalidateInterceptor != null) {
+      staleWhileRevalidateInterceptor.setCallFactory(client);
+    }
+    final Retrofit.Builder retrofitBuilder = new Retrofit.Builder().client(client).baseUrl(url);
+    // Before JSON, which converts every type
+    if (converterStrategy != null) {
+      retrofitBuilder.addConverterFactory(
+          converterStrategy.createConverterFactory(gsonConverterFactory));
+    }
+    retrofitBuilder.addConverterFactory(GsonConverterFactory.create(gsonConverterFactory));
+    // First, so it wraps the calls given to the other factories
+    if (hedgingCallAdapterFactory != null) {
+      retrofitBuilder.addCallAdapterFactory(hedgingCallAdapterFactory);
+    }
+    return retrofitBuilder
+        // Before the generic factory, so it handles the JsonArrayStream methods
+        .addCallAdapterFactory(StreamingJsonCallAdapterFactory.create(gsonConverterFactory))
         .addCallAdapterFactory(callAdapterFactory)
         .build();
   }
 
+  /**
+   * Settings a {@link Retrofit} object is created with. Settings are compared with their equals,
+   * so interceptors, call adapter factories and {@link Gson} objects that do not override it, like
+   * {@link Gson} itself, are compared by identity
+   */
+  private static final class RetrofitKey {
+
+    private final List<Object> settings;
+
+    RetrofitKey(String url, @Nullable List<Interceptor> interceptors,
+        @Nullable List<Interceptor> networkInterceptors, CallAdapter.Factory callAdapterFactory,
+        Gson gson, boolean logs) {
+
+      // Interceptor lists are copied, so later changes to them do not alter the key
+      settings = Arrays.asList(url, copyOf(interceptors), copyOf(networkInterceptors),
+          callAdapterFactory, gson, logs);
+    }
+
+    private static List<Interceptor> copyOf(@Nullable List<Interceptor> interceptors) {
+
+      return interceptors == null ? Collections.<Interceptor>emptyList()
+          : new ArrayList<>(interceptors);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+
+      return other instanceof RetrofitKey && settings.equals(((RetrofitKey) other).settings);
+    }
+
+    @Override
+    public int hashCode() {
+
+      return settings.hashCode();
+    }
+  }
+
 }
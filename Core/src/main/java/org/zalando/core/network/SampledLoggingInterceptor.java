@@ -0,0 +1,330 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+import org.zalando.core.utils.Preconditions;
+import timber.log.Timber;
+
+/**
+ * Interceptor that logs a sample of the requests and their responses. Bodies are logged up to a
+ * maximum size without consuming them: request bodies are copied while they are written to the
+ * network, and logs are formatted and written in a background thread, so logging barely adds
+ * latency to the calls. Logs are dropped when the background thread can not
+ * keep up. Response bodies are never waited for: only the ones of known length within the maximum
+ * size are logged whole, of any other only the bytes already received are logged. Binary bodies
+ * are not logged, nor the values of the headers carrying credentials
+ */
+public final class SampledLoggingInterceptor implements Interceptor {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAX_PENDING_LOGS = 256;
+  // Code points checked to tell text from binary bodies
+  private static final int PLAINTEXT_CODE_POINTS = 16;
+  private static final String REDACTED = "██";
+
+  // One logging thread shared by every interceptor
+  private static final ExecutorService LOG_EXECUTOR = new ThreadPoolExecutor(1, 1, 0,
+      TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_PENDING_LOGS),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+          final Thread thread = new Thread(runnable, "http-logging");
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        }
+      }, new ThreadPoolExecutor.DiscardPolicy());
+
+  private final long maxBodyBytes;
+  private final float sampleRate;
+  private final Random random = new Random();
+  private volatile Set<String> headersToRedact;
+
+  /**
+   * Constructor
+   *
+   * @param maxBodyBytes {@link Long} with the maximum number of bytes logged of every body, 0 to
+   * not log bodies
+   * @param sampleRate {@link Float} with the fraction of the requests to log, from 0 to 1
+   */
+  public SampledLoggingInterceptor(long maxBodyBytes, float sampleRate) {
+
+    Preconditions.checkArgument(maxBodyBytes >= 0, "Body size can not be negative");
+    Preconditions.checkArgument(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be "
+        + "between 0 and 1");
+    this.maxBodyBytes = maxBodyBytes;
+    this.sampleRate = sampleRate;
+    final Set<String> defaultHeadersToRedact = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    defaultHeadersToRedact.addAll(Arrays.asList("Authorization", "Proxy-Authorization",
+        "Cookie", "Set-Cookie"));
+    headersToRedact = defaultHeadersToRedact;
+  }
+
+  /**
+   * Logs the given header without its value. Authorization, Proxy-Authorization, Cookie and
+   * Set-Cookie are always redacted
+   *
+   * @param name {@link String} with the name of the header, case insensitive
+   */
+  public void redactHeader(@NonNull String name) {
+
+    final Set<String> newHeadersToRedact = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    newHeadersToRedact.addAll(headersToRedact);
+    newHeadersToRedact.add(name);
+    headersToRedact = newHeadersToRedact;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request sampledRequest = chain.request();
+    if (sampleRate < 1 && random.nextFloat() >= sampleRate) {
+      return chain.proceed(sampledRequest);
+    }
+
+    final CapturingRequestBody requestBody = sampledRequest.body() != null && maxBodyBytes > 0
+        ? new CapturingRequestBody(sampledRequest.body(), maxBodyBytes) : null;
+    final Request request = requestBody != null ? sampledRequest.newBuilder()
+        .method(sampledRequest.method(), requestBody)
+        .build() : sampledRequest;
+    final long start = System.nanoTime();
+    final Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (final IOException e) {
+      log(new Runnable() {
+        @Override
+        public void run() {
+          Timber.d("--> %s %s\n%s<-- HTTP FAILED: %s", request.method(), request.url(),
+              format(request.headers()), e);
+        }
+      });
+      throw e;
+    }
+    final long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    final byte[] responseBody = peekResponseBody(response.body());
+    final MediaType responseContentType = response.body() != null
+        ? response.body().contentType() : null;
+    final boolean responseBodyTruncated = responseBody != null
+        && isTruncated(response.body(), responseBody.length);
+    final Headers responseHeaders = response.headers();
+    // Written by now, unless the response did not need it, as for cached responses
+    final byte[] capturedRequestBody = requestBody != null ? requestBody.captured : null;
+    final boolean requestBodyTruncated = requestBody != null && requestBody.truncated;
+    log(new Runnable() {
+      @Override
+      public void run() {
+        Timber.d("--> %s %s\n%s%s<-- %d %s %s (%d ms)\n%s%s", request.method(), request.url(),
+            format(request.headers()), format(capturedRequestBody, request.body() != null
+                ? request.body().contentType() : null, requestBodyTruncated),
+            response.code(), response.message(), response.request().url(), tookMillis,
+            format(responseHeaders), format(responseBody, responseContentType,
+                responseBodyTruncated));
+      }
+    });
+    return response;
+  }
+
+  /**
+   * Copies the logged part of the given response body without waiting for the network. Bodies of
+   * known length within the maximum size are copied whole, of any other only the bytes already
+   * received are copied
+   *
+   * @param body {@link ResponseBody} to copy
+   * @return byte array with the logged part of the body, null if it is not logged
+   * @throws IOException if the body can not be read
+   */
+  private byte[] peekResponseBody(ResponseBody body) throws IOException {
+
+    if (body == null || maxBodyBytes == 0) {
+      return null;
+    }
+    final BufferedSource source = body.source();
+    final long contentLength = body.contentLength();
+    if (contentLength >= 0 && contentLength <= maxBodyBytes) {
+      // Small enough to wait for, the caller needs all of it anyway
+      source.request(contentLength);
+    }
+    final Buffer buffer = source.buffer();
+    final Buffer copy = new Buffer();
+    buffer.copyTo(copy, 0, Math.min(buffer.size(), maxBodyBytes));
+    return copy.readByteArray();
+  }
+
+  /**
+   * Checks if the logged part of the given response body misses some of it. Bodies of unknown
+   * length are only known to be cut when more bytes than the logged ones were received
+   *
+   * @param body {@link ResponseBody} that was logged
+   * @param logged {@link Integer} with the number of logged bytes
+   * @return {@link Boolean} indicating if the body is only a part of the whole one
+   */
+  private static boolean isTruncated(ResponseBody body, int logged) {
+
+    final long contentLength = body.contentLength();
+    return contentLength >= 0 ? logged < contentLength : body.source().buffer().size() > logged;
+  }
+
+  /**
+   * Formats the given headers, redacting the values of the ones carrying credentials
+   *
+   * @param headers {@link Headers} to format
+   * @return {@link String} with the formatted headers
+   */
+  private String format(Headers headers) {
+
+    final Set<String> redacted = headersToRedact;
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < headers.size(); i++) {
+      builder.append(headers.name(i)).append(": ")
+          .append(redacted.contains(headers.name(i)) ? REDACTED : headers.value(i)).append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Formats the given body
+   *
+   * @param body byte array with the body, null if it is not logged
+   * @param contentType {@link MediaType} of the body
+   * @param truncated {@link Boolean} indicating if the body is only a part of the whole one
+   * @return {@link String} with the formatted body
+   */
+  private static String format(byte[] body, MediaType contentType, boolean truncated) {
+
+    if (body == null || body.length == 0) {
+      return "";
+    }
+    final Charset charset = contentType != null ? contentType.charset(UTF_8) : UTF_8;
+    final String text = new String(body, charset);
+    if (!isPlaintext(text)) {
+      return String.format(Locale.US, "(binary body, %d bytes omitted)\n", body.length);
+    }
+    return text + (truncated ? "..." : "") + '\n';
+  }
+
+  /**
+   * Checks if the given decoded body is text, looking for control characters at its beginning
+   *
+   * @param text {@link String} with the decoded body
+   * @return {@link Boolean} indicating if the body is likely text
+   */
+  private static boolean isPlaintext(String text) {
+
+    int offset = 0;
+    for (int i = 0; i < PLAINTEXT_CODE_POINTS && offset < text.length(); i++) {
+      final int codePoint = text.codePointAt(offset);
+      if (Character.isISOControl(codePoint) && !Character.isWhitespace(codePoint)) {
+        return false;
+      }
+      offset += Character.charCount(codePoint);
+    }
+    return true;
+  }
+
+  /**
+   * Writes the given log in the logging thread, dropping it if too many logs are pending
+   *
+   * @param log {@link Runnable} writing the log
+   */
+  private static void log(Runnable log) {
+
+    LOG_EXECUTOR.execute(log);
+  }
+
+  /**
+   * {@link RequestBody} that copies the first bytes of the given body while it is written, so it is
+   * logged without writing it twice
+   */
+  private static final class CapturingRequestBody extends RequestBody {
+
+    private final RequestBody delegate;
+    private final long maxBytes;
+    private volatile byte[] captured;
+    private volatile boolean truncated;
+
+    CapturingRequestBody(RequestBody delegate, long maxBytes) {
+
+      this.delegate = delegate;
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public MediaType contentType() {
+
+      return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+
+      return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+
+      // Retries write the body again, only the last write is logged
+      final CapturingSink capturingSink = new CapturingSink(sink, maxBytes);
+      final BufferedSink tee = Okio.buffer(capturingSink);
+      delegate.writeTo(tee);
+      // Never closed, the sink belongs to the connection
+      tee.emit();
+      truncated = capturingSink.written > capturingSink.capture.size();
+      captured = capturingSink.capture.readByteArray();
+    }
+  }
+
+  /**
+   * Sink that copies the first bytes written to the given sink
+   */
+  private static final class CapturingSink extends ForwardingSink {
+
+    private final long maxBytes;
+    final Buffer capture = new Buffer();
+    long written;
+
+    CapturingSink(Sink delegate, long maxBytes) {
+
+      super(delegate);
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(@NonNull Buffer source, long byteCount) throws IOException {
+
+      final long toCapture = Math.min(byteCount, maxBytes - capture.size());
+      if (toCapture > 0) {
+        source.copyTo(capture, 0, toCapture);
+      }
+      written += byteCount;
+      super.write(source, byteCount);
+    }
+  }
+
+}
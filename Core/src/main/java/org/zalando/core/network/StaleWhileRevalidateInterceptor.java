@@ -0,0 +1,129 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import timber.log.Timber;
+
+/**
+ * Interceptor that answers GET requests with the cached response, even if it is stale up to a
+ * limit, and refreshes stale responses in the background. Only requests missing from the cache
+ * wait for the network
+ */
+final class StaleWhileRevalidateInterceptor implements Interceptor {
+
+  // Marks the background requests refreshing a stale response
+  private static final String REVALIDATION_HEADER = "X-Stale-While-Revalidate";
+  // Warning added by OkHttp when it serves a stale response
+  private static final String STALE_WARNING = "110";
+
+  private final CacheControl cacheOnly;
+  private final Call.Factory cacheClient;
+  private final Set<String> revalidatingUrls = Collections.newSetFromMap(
+      new ConcurrentHashMap<String, Boolean>());
+  private volatile Call.Factory callFactory;
+
+  /**
+   * Constructor
+   *
+   * @param maxStaleSeconds {@link Long} with the time stale responses are still served
+   * @param cacheClient {@link Call.Factory} with the cache of the client and no interceptors, so
+   * looking up the cache never runs the interceptors of the client nor alters the request
+   */
+  StaleWhileRevalidateInterceptor(long maxStaleSeconds, Call.Factory cacheClient) {
+
+    this.cacheClient = cacheClient;
+    cacheOnly = new CacheControl.Builder()
+        .onlyIfCached()
+        .maxStale((int) Math.min(maxStaleSeconds, Integer.MAX_VALUE), TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Sets the {@link Call.Factory} used to refresh stale responses. It must be the client this
+   * interceptor belongs to, so refreshes go through the same interceptors and cache
+   *
+   * @param callFactory {@link Call.Factory} of the client
+   */
+  void setCallFactory(Call.Factory callFactory) {
+
+    this.callFactory = callFactory;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    if (request.header(REVALIDATION_HEADER) != null) {
+      // Background refresh, skip the cache so the fresh response replaces the stale one
+      return chain.proceed(request.newBuilder()
+          .removeHeader(REVALIDATION_HEADER)
+          .cacheControl(CacheControl.FORCE_NETWORK)
+          .build());
+    }
+    if (!"GET".equals(request.method()) || request.cacheControl().noCache()) {
+      return chain.proceed(request);
+    }
+
+    // Only the cache is looked up, the request never leaves the device
+    final Response cached = cacheClient.newCall(request.newBuilder().cacheControl(cacheOnly)
+        .build()).execute();
+    if (cached.code() == HttpURLConnection.HTTP_GATEWAY_TIMEOUT) {
+      // Not cached, or too stale to be served
+      cached.body().close();
+      return chain.proceed(request);
+    }
+
+    final String warning = cached.header("Warning");
+    if (warning != null && warning.startsWith(STALE_WARNING)) {
+      revalidate(request);
+    }
+    return cached;
+  }
+
+  /**
+   * Refreshes the cached response of the given request in the background, unless it is already
+   * being refreshed
+   *
+   * @param request {@link Request} to refresh
+   */
+  private void revalidate(Request request) {
+
+    final Call.Factory factory = callFactory;
+    final String url = request.url().toString();
+    if (factory == null || !revalidatingUrls.add(url)) {
+      return;
+    }
+
+    Timber.d("revalidate: %s", url);
+    factory.newCall(request.newBuilder().header(REVALIDATION_HEADER, "true").build())
+        .enqueue(new Callback() {
+          @Override
+          public void onFailure(Call call, IOException e) {
+            revalidatingUrls.remove(url);
+            Timber.w(e, "revalidate: %s failed", url);
+          }
+
+          @Override
+          public void onResponse(Call call, Response response) throws IOException {
+            try {
+              // The cache stores the body while it is read
+              response.body().bytes();
+            } finally {
+              response.body().close();
+              revalidatingUrls.remove(url);
+            }
+          }
+        });
+  }
+
+}
@@ -0,0 +1,196 @@
+package org.zalando.core.network;
+
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.Callable;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.HttpException;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.Streaming;
+
+/**
+ * {@link CallAdapter.Factory} of the rest api methods annotated with {@link JsonArrayStream}. The
+ * elements of the array are parsed one by one with a streaming {@link JsonReader} and emitted as
+ * they are requested, so the whole response is never in memory and the first element arrives
+ * before the download finishes. Fields after the array are not read. Calls run on the io
+ * scheduler
+ */
+public final class StreamingJsonCallAdapterFactory extends CallAdapter.Factory {
+
+  private final Gson gson;
+
+  /**
+   * Private constructor, use {@link #create(Gson)}
+   *
+   * @param gson {@link Gson} to parse the elements
+   */
+  private StreamingJsonCallAdapterFactory(Gson gson) {
+
+    this.gson = gson;
+  }
+
+  /**
+   * Creates a {@link StreamingJsonCallAdapterFactory}
+   *
+   * @param gson {@link Gson} to parse the elements
+   * @return {@link StreamingJsonCallAdapterFactory} parsing with the given {@link Gson}
+   */
+  public static StreamingJsonCallAdapterFactory create(@NonNull Gson gson) {
+
+    return new StreamingJsonCallAdapterFactory(gson);
+  }
+
+  @Override
+  public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+
+    JsonArrayStream jsonArrayStream = null;
+    boolean streaming = false;
+    for (Annotation annotation : annotations) {
+      if (annotation instanceof JsonArrayStream) {
+        jsonArrayStream = (JsonArrayStream) annotation;
+      } else if (annotation instanceof Streaming) {
+        streaming = true;
+      }
+    }
+    if (jsonArrayStream == null) {
+      return null;
+    }
+
+    if (getRawType(returnType) != Flowable.class || !(returnType instanceof ParameterizedType)) {
+      throw new IllegalArgumentException("JsonArrayStream methods must return Flowable<T>");
+    }
+    if (!streaming) {
+      // Otherwise the body is fully downloaded before it is parsed
+      throw new IllegalArgumentException("JsonArrayStream methods must be annotated with "
+          + "@Streaming");
+    }
+
+    final Type elementType = getParameterUpperBound(0, (ParameterizedType) returnType);
+    return new JsonArrayCallAdapter<>(gson.getAdapter(TypeToken.get(elementType)),
+        jsonArrayStream.value());
+  }
+
+  /**
+   * {@link CallAdapter} emitting the elements of a JSON array
+   *
+   * @param <T> {@link T} type of the elements
+   */
+  private static final class JsonArrayCallAdapter<T>
+      implements CallAdapter<ResponseBody, Flowable<T>> {
+
+    private final TypeAdapter<T> elementAdapter;
+    private final String[] arrayPath;
+
+    JsonArrayCallAdapter(TypeAdapter<T> elementAdapter, String arrayPath) {
+
+      this.elementAdapter = elementAdapter;
+      this.arrayPath = TextUtils.isEmpty(arrayPath) ? new String[0] : arrayPath.split("\\.");
+    }
+
+    @Override
+    public Type responseType() {
+
+      return ResponseBody.class;
+    }
+
+    @Override
+    public Flowable<T> adapt(final Call<ResponseBody> call) {
+
+      return Flowable.generate(new Callable<ArrayStream>() {
+        @Override
+        public ArrayStream call() throws Exception {
+          final Call<ResponseBody> streamCall = call.clone();
+          return new ArrayStream(streamCall, openArray(streamCall));
+        }
+      }, new BiFunction<ArrayStream, Emitter<T>, ArrayStream>() {
+        @Override
+        public ArrayStream apply(ArrayStream stream, Emitter<T> emitter) throws Exception {
+          // Only the requested elements are parsed
+          if (stream.reader.hasNext()) {
+            emitter.onNext(elementAdapter.read(stream.reader));
+          } else {
+            emitter.onComplete();
+          }
+          return stream;
+        }
+      }, new Consumer<ArrayStream>() {
+        @Override
+        public void accept(ArrayStream stream) throws Exception {
+          // Canceling aborts the download at once, even if a read is blocked on the socket
+          stream.call.cancel();
+          stream.reader.close();
+        }
+      }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Executes the given call and moves a {@link JsonReader} of its body to the first element of
+     * the array
+     *
+     * @param call {@link Call} to execute
+     * @return {@link JsonReader} positioned inside the array
+     * @throws IOException if the request fails or the array is not found
+     */
+    private JsonReader openArray(Call<ResponseBody> call) throws IOException {
+
+      final Response<ResponseBody> response = call.execute();
+      if (!response.isSuccessful()) {
+        throw new HttpException(response);
+      }
+
+      // The Accept header of the converter strategy may have asked for the binary format
+      final ResponseBody body = response.body();
+      final JsonReader reader = BinaryConverterFactory.isBinary(body.contentType())
+          ? new BinaryJsonReader(body.source()) : new JsonReader(body.charStream());
+      try {
+        for (String field : arrayPath) {
+          reader.beginObject();
+          while (reader.hasNext() && !field.equals(reader.nextName())) {
+            reader.skipValue();
+          }
+          if (reader.peek() == JsonToken.END_OBJECT) {
+            throw new IOException(String.format("%s field not found", field));
+          }
+        }
+        reader.beginArray();
+        return reader;
+      } catch (IOException | RuntimeException e) {
+        reader.close();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Call being streamed, with the {@link JsonReader} of its body
+   */
+  private static final class ArrayStream {
+
+    final Call<ResponseBody> call;
+    final JsonReader reader;
+
+    ArrayStream(Call<ResponseBody> call, JsonReader reader) {
+
+      this.call = call;
+      this.reader = reader;
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+package org.zalando.core.persistence;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Single {@link OnSharedPreferenceChangeListener} of a table that dispatches every change only to
+ * the observers of the changed key, and to the observers of the prefixes matching it
+ */
+final class ChangeNotificationHub implements OnSharedPreferenceChangeListener {
+
+  /**
+   * Definition of the observers notified by the hub
+   */
+  interface Observer {
+
+    /**
+     * Called when the value of an observed key changed
+     *
+     * @param key {@link String} with the changed key, null if the whole table was cleared
+     */
+    void onChanged(@Nullable String key);
+  }
+
+  private static final Map<SharedPreferences, ChangeNotificationHub> HUBS = new WeakHashMap<>();
+
+  private final Map<String, List<Observer>> keyObservers = new ConcurrentHashMap<>();
+  private final List<PrefixObserver> prefixObservers = new CopyOnWriteArrayList<>();
+
+  /**
+   * Provides the hub of the given table, creating it the first time
+   *
+   * @param sharedPreferences {@link SharedPreferences} with the table
+   * @return {@link ChangeNotificationHub} of the table
+   */
+  static ChangeNotificationHub of(@NonNull SharedPreferences sharedPreferences) {
+
+    synchronized (HUBS) {
+      ChangeNotificationHub hub = HUBS.get(sharedPreferences);
+      if (hub == null) {
+        hub = new ChangeNotificationHub();
+        // Tables keep their listeners weakly, the map keeps the hub alive as long as the table
+        sharedPreferences.registerOnSharedPreferenceChangeListener(hub);
+        HUBS.put(sharedPreferences, hub);
+      }
+      return hub;
+    }
+  }
+
+  /**
+   * Private constructor, hubs are shared through {@link #of(SharedPreferences)}
+   */
+  private ChangeNotificationHub() {
+  }
+
+  /**
+   * Adds an {@link Observer} of the given key
+   *
+   * @param key {@link String} with the key to observe
+   * @param observer {@link Observer} to notify
+   */
+  void addKeyObserver(@NonNull String key, @NonNull Observer observer) {
+
+    synchronized (keyObservers) {
+      List<Observer> observers = keyObservers.get(key);
+      if (observers == null) {
+        observers = new CopyOnWriteArrayList<>();
+        keyObservers.put(key, observers);
+      }
+      observers.add(observer);
+    }
+  }
+
+  /**
+   * Removes an {@link Observer} of the given key
+   *
+   * @param key {@link String} with the observed key
+   * @param observer {@link Observer} to remove
+   */
+  void removeKeyObserver(@NonNull String key, @NonNull Observer observer) {
+
+    synchronized (keyObservers) {
+      final List<Observer> observers = keyObservers.get(key);
+      if (observers != null) {
+        observers.remove(observer);
+        if (observers.isEmpty()) {
+          keyObservers.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds an {@link Observer} of all the keys starting with the given prefix
+   *
+   * @param prefix {@link String} with the prefix to observe
+   * @param observer {@link Observer} to notify
+   */
+  void addPrefixObserver(@NonNull String prefix, @NonNull Observer observer) {
+
+    prefixObservers.add(new PrefixObserver(prefix, observer));
+  }
+
+  /**
+   * Removes an {@link Observer} of a prefix
+   *
+   * @param observer {@link Observer} to remove
+   */
+  void removePrefixObserver(@NonNull Observer observer) {
+
+    for (PrefixObserver prefixObserver : prefixObservers) {
+      if (prefixObserver.observer == observer) {
+        prefixObservers.remove(prefixObserver);
+      }
+    }
+  }
+
+  @Override
+  public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+      @Nullable String key) {
+
+    if (key == null) {
+      // Table cleared, every observer may be affected
+      for (List<Observer> observers : keyObservers.values()) {
+        notify(observers, null);
+      }
+    } else {
+      final List<Observer> observers = keyObservers.get(key);
+      if (observers != null) {
+        notify(observers, key);
+      }
+    }
+
+    for (PrefixObserver prefixObserver : prefixObservers) {
+      if (key == null || key.startsWith(prefixObserver.prefix)) {
+        prefixObserver.observer.onChanged(key);
+      }
+    }
+  }
+
+  /**
+   * Notifies the given observers
+   *
+   * @param observers {@link List} of {@link Observer}s to notify
+   * @param key {@link String} with the changed key
+   */
+  private static void notify(List<Observer> observers, @Nullable String key) {
+
+    for (Observer observer : observers) {
+      observer.onChanged(key);
+    }
+  }
+
+  /**
+   * {@link Observer} attached to a prefix
+   */
+  private static final class PrefixObserver {
+
+    final String prefix;
+    final Observer observer;
+
+    PrefixObserver(String prefix, Observer observer) {
+
+      this.prefix = prefix;
+      this.observer = observer;
+    }
+  }
+
+}
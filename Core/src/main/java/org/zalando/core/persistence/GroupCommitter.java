@@ -0,0 +1,295 @@
+package org.zalando.core.persistence;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.AsyncSubject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Coalesces the batches committed by concurrent writers into group commits. Batches committed
+ * within the flush window, or while a previous group is being written, are merged into a single
+ * {@link SharedPreferences.Editor} per table and written to disk at once
+ */
+final class GroupCommitter {
+
+  /**
+   * Writes the modifications of a batch into an {@link SharedPreferences.Editor}
+   */
+  interface Modifications {
+
+    /**
+     * Applies the modifications to the given {@link SharedPreferences.Editor}
+     *
+     * @param editor {@link SharedPreferences.Editor} to write to
+     */
+    void applyTo(SharedPreferences.Editor editor);
+
+    /**
+     * Called once the modifications are written, before their writer is notified
+     */
+    void onCommitted();
+  }
+
+  private final Object flushLock = new Object();
+  private final List<PendingBatch> pendingBatches = new ArrayList<>();
+  private volatile long windowMillis;
+  private boolean flushScheduled;
+
+  /**
+   * Sets the time to wait for other writers before a group is written
+   *
+   * @param window {@link Long} with the window, 0 to only group writers that arrive while a
+   * previous group is being written
+   * @param timeUnit {@link TimeUnit} of the window
+   */
+  void setWindow(long window, @NonNull TimeUnit timeUnit) {
+
+    windowMillis = timeUnit.toMillis(window);
+  }
+
+  /**
+   * Queues the given modifications to be written in the next group commit
+   *
+   * @param target {@link SharedPreferences} to write to
+   * @param modifications {@link Modifications} to write
+   * @return {@link Completable} that completes once the modifications are on disk
+   */
+  Completable submit(@NonNull SharedPreferences target, @NonNull Modifications modifications) {
+
+    final AsyncSubject<Object> result = AsyncSubject.create();
+
+    synchronized (pendingBatches) {
+      pendingBatches.add(new PendingBatch(target, modifications, result));
+      if (!flushScheduled) {
+        flushScheduled = true;
+        Schedulers.io().scheduleDirect(new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    return result.ignoreElements();
+  }
+
+  /**
+   * Writes all the pending batches, one {@link SharedPreferences.Editor} per table
+   */
+  private void flush() {
+
+    // Only one group is written at a time, late writers wait here and join the next group
+    synchronized (flushLock) {
+      final List<PendingBatch> group;
+      synchronized (pendingBatches) {
+        group = new ArrayList<>(pendingBatches);
+        pendingBatches.clear();
+        flushScheduled = false;
+      }
+
+      final Map<SharedPreferences, List<PendingBatch>> groupsByTarget = new IdentityHashMap<>();
+      for (PendingBatch batch : group) {
+        List<PendingBatch> targetGroup = groupsByTarget.get(batch.target);
+        if (targetGroup == null) {
+          targetGroup = new ArrayList<>();
+          groupsByTarget.put(batch.target, targetGroup);
+        }
+        targetGroup.add(batch);
+      }
+
+      for (Map.Entry<SharedPreferences, List<PendingBatch>> entry : groupsByTarget.entrySet()) {
+        commit(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Commits the given batches into the given table and notifies their writers
+   *
+   * @param target {@link SharedPreferences} to write to
+   * @param batches {@link List} of {@link PendingBatch} to write, in submission order
+   */
+  private static void commit(SharedPreferences target, List<PendingBatch> batches) {
+
+    Timber.d("commit: %d batches", batches.size());
+
+    final SharedPreferences.Editor editor = target.edit();
+    final List<PendingBatch> appliedBatches = new ArrayList<>(batches.size());
+    for (PendingBatch batch : batches) {
+      // Stage every batch apart, so a failing one does not fail the others of the group
+      final StagingEditor staging = new StagingEditor();
+      try {
+        batch.modifications.applyTo(staging);
+      } catch (RuntimeException e) {
+        Timber.e(e, "commit: batch failed");
+        batch.result.onError(e);
+        continue;
+      }
+      staging.applyTo(editor);
+      appliedBatches.add(batch);
+    }
+    if (appliedBatches.isEmpty()) {
+      return;
+    }
+
+    Throwable error = null;
+    try {
+      if (!editor.commit()) {
+        error = new IOException("Unable to write the batch to disk");
+      }
+    } catch (RuntimeException e) {
+      error = e;
+    }
+
+    for (PendingBatch batch : appliedBatches) {
+      if (error == null) {
+        batch.modifications.onCommitted();
+        batch.result.onComplete();
+      } else {
+        batch.result.onError(error);
+      }
+    }
+  }
+
+  /**
+   * {@link SharedPreferences.Editor} recording the modifications of a batch, to apply them to the
+   * editor of the group once the whole batch was recorded
+   */
+  private static final class StagingEditor implements SharedPreferences.Editor {
+
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> modifications = new LinkedHashMap<>();
+    private boolean clear;
+
+    @Override
+    public SharedPreferences.Editor putString(String key, String value) {
+
+      modifications.put(key, value != null ? value : REMOVED);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+
+      modifications.put(key, values != null ? values : REMOVED);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor putInt(String key, int value) {
+
+      modifications.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor putLong(String key, long value) {
+
+      modifications.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor putFloat(String key, float value) {
+
+      modifications.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor putBoolean(String key, boolean value) {
+
+      modifications.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor remove(String key) {
+
+      modifications.put(key, REMOVED);
+      return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor clear() {
+
+      clear = true;
+      return this;
+    }
+
+    @Override
+    public boolean commit() {
+
+      throw new UnsupportedOperationException("Batches are committed by the group");
+    }
+
+    @Override
+    public void apply() {
+
+      throw new UnsupportedOperationException("Batches are committed by the group");
+    }
+
+    /**
+     * Applies the recorded modifications to the given editor
+     *
+     * @param editor {@link SharedPreferences.Editor} of the group
+     */
+    @SuppressWarnings("unchecked")
+    void applyTo(SharedPreferences.Editor editor) {
+
+      if (clear) {
+        editor.clear();
+      }
+      for (Map.Entry<String, Object> modification : modifications.entrySet()) {
+        final String key = modification.getKey();
+        final Object value = modification.getValue();
+        if (value == REMOVED) {
+          editor.remove(key);
+        } else if (value instanceof String) {
+          editor.putString(key, (String) value);
+        } else if (value instanceof Set) {
+          editor.putStringSet(key, (Set<String>) value);
+        } else if (value instanceof Integer) {
+          editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+          editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+          editor.putFloat(key, (Float) value);
+        } else {
+          editor.putBoolean(key, (Boolean) value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Batch waiting to be written
+   */
+  private static final class PendingBatch {
+
+    final SharedPreferences target;
+    final Modifications modifications;
+    final AsyncSubject<Object> result;
+
+    PendingBatch(SharedPreferences target, Modifications modifications,
+        AsyncSubject<Object> result) {
+
+      this.target = target;
+      this.modifications = modifications;
+      this.result = result;
+    }
+  }
+
+}
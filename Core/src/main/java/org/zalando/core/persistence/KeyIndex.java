@@ -0,0 +1,253 @@
+package org.zalando.core.persistence;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sorted index of the keys of a table. It is built once from the table, and then kept up to date
+ * by the writers and by the {@link ChangeNotificationHub} of the table. Keys starting with the
+ * reserved prefix hold the expiry time of the key following the prefix: they are not listed as keys
+ * of the table, their times are kept in memory instead so reads check them without the table
+ */
+final class KeyIndex implements ChangeNotificationHub.Observer {
+
+  private static final Map<SharedPreferences, KeyIndex> INDEXES = new WeakHashMap<>();
+
+  // Held weakly, the index is a value of a weak map keyed by the table and an observer of its hub,
+  // so a strong reference would keep the table, its hub and the index in memory forever
+  private final WeakReference<SharedPreferences> table;
+  private final String reservedPrefix;
+  private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+  // Expiry times of the keys saved with a time to live
+  private final Map<String, Long> expiryTimes = new ConcurrentHashMap<>();
+  // Skip list sets count their elements on every call, so the size is tracked apart
+  private final AtomicInteger size = new AtomicInteger();
+  // Handles that acquired the index, guarded by the lock of the indexes
+  private int handles;
+
+  /**
+   * Provides the index of the given table, building it the first time
+   *
+   * @param table {@link SharedPreferences} with the table
+   * @param reservedPrefix {@link String} with the prefix of the reserved keys
+   * @return {@link KeyIndex} of the table
+   */
+  static KeyIndex of(@NonNull SharedPreferences table, @NonNull String reservedPrefix) {
+
+    synchronized (INDEXES) {
+      KeyIndex index = INDEXES.get(table);
+      if (index == null) {
+        index = new KeyIndex(table, reservedPrefix);
+        index.rebuild();
+        ChangeNotificationHub.of(table).addPrefixObserver("", index);
+        INDEXES.put(table, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Provides the index of the given table like {@link #of(SharedPreferences, String)}, counting
+   * the caller among the handles keeping it. Every acquired index must be released
+   *
+   * @param table {@link SharedPreferences} with the table
+   * @param reservedPrefix {@link String} with the prefix of the reserved keys
+   * @return {@link KeyIndex} of the table
+   */
+  static KeyIndex acquire(@NonNull SharedPreferences table, @NonNull String reservedPrefix) {
+
+    synchronized (INDEXES) {
+      final KeyIndex index = of(table, reservedPrefix);
+      index.handles++;
+      return index;
+    }
+  }
+
+  /**
+   * Releases an index acquired with {@link #acquire(SharedPreferences, String)}. Once no handle
+   * keeps it, the index is forgotten, so neither the index nor the table are kept in memory. It is
+   * built again the next time it is requested
+   */
+  void release() {
+
+    synchronized (INDEXES) {
+      if (--handles > 0) {
+        return;
+      }
+      final SharedPreferences current = table.get();
+      if (current != null && INDEXES.get(current) == this) {
+        INDEXES.remove(current);
+        ChangeNotificationHub.of(current).removePrefixObserver(this);
+      }
+    }
+  }
+
+  /**
+   * Private constructor, indexes are shared through {@link #of(SharedPreferences, String)}
+   *
+   * @param table {@link SharedPreferences} with the table
+   * @param reservedPrefix {@link String} with the prefix of the reserved keys
+   */
+  private KeyIndex(SharedPreferences table, String reservedPrefix) {
+
+    this.table = new WeakReference<>(table);
+    this.reservedPrefix = reservedPrefix;
+  }
+
+  /**
+   * Checks if this is the index of the given table
+   *
+   * @param table {@link SharedPreferences} with the table
+   * @return {@link Boolean} indicating if the index belongs to the table
+   */
+  boolean isOf(@NonNull SharedPreferences table) {
+
+    return this.table.get() == table;
+  }
+
+  /**
+   * @return {@link Integer} with the number of keys of the table, including the expired ones
+   */
+  int size() {
+
+    return size.get();
+  }
+
+  /**
+   * Provides the number of keys of the table whose time to live is not over
+   *
+   * @param now {@link Long} with the current time in milliseconds
+   * @return {@link Integer} with the number of live keys
+   */
+  int liveSize(long now) {
+
+    int expired = 0;
+    for (Map.Entry<String, Long> expiryTime : expiryTimes.entrySet()) {
+      if (expiryTime.getValue() <= now && keys.contains(expiryTime.getKey())) {
+        expired++;
+      }
+    }
+    return size.get() - expired;
+  }
+
+  /**
+   * Checks if the time to live of the given key is over
+   *
+   * @param key {@link String} with the key
+   * @param now {@link Long} with the current time in milliseconds
+   * @return {@link Boolean} indicating if the key expired, false if it has no time to live
+   */
+  boolean isExpired(@NonNull String key, long now) {
+
+    final Long expiryTime = expiryTimes.get(key);
+    return expiryTime != null && expiryTime <= now;
+  }
+
+  /**
+   * Provides a live view of the keys starting with the given prefix
+   *
+   * @param prefix {@link String} with the prefix
+   * @return {@link SortedSet} with the matching keys
+   */
+  SortedSet<String> keys(@NonNull String prefix) {
+
+    return Collections.unmodifiableSortedSet(keys.subSet(prefix, true,
+        prefix + Character.MAX_VALUE, true));
+  }
+
+  /**
+   * Provides a live view of the keys between the given keys
+   *
+   * @param fromKey {@link String} with the first key, inclusive
+   * @param toKey {@link String} with the last key, exclusive
+   * @return {@link SortedSet} with the matching keys
+   */
+  SortedSet<String> scan(@NonNull String fromKey, @NonNull String toKey) {
+
+    return Collections.unmodifiableSortedSet(keys.subSet(fromKey, true, toKey, false));
+  }
+
+  /**
+   * Provides a live view of the expiry times of the keys saved with a time to live
+   *
+   * @return {@link Map} with the expiry time in milliseconds of every key
+   */
+  Map<String, Long> expiryTimes() {
+
+    return Collections.unmodifiableMap(expiryTimes);
+  }
+
+  /**
+   * Updates the given keys with their current state in the table
+   *
+   * @param keysToRefresh {@link String}s with the keys to update
+   */
+  synchronized void refresh(@NonNull String... keysToRefresh) {
+
+    final SharedPreferences table = this.table.get();
+    if (table == null) {
+      return;
+    }
+    for (String key : keysToRefresh) {
+      if (key.startsWith(reservedPrefix)) {
+        final String expiringKey = key.substring(reservedPrefix.length());
+        if (table.contains(key)) {
+          expiryTimes.put(expiringKey, table.getLong(key, 0));
+        } else {
+          expiryTimes.remove(expiringKey);
+        }
+      } else if (table.contains(key)) {
+        if (keys.add(key)) {
+          size.incrementAndGet();
+        }
+      } else if (keys.remove(key)) {
+        size.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Builds the index again from the content of the table
+   */
+  synchronized void rebuild() {
+
+    final SharedPreferences table = this.table.get();
+    if (table == null) {
+      return;
+    }
+    keys.clear();
+    expiryTimes.clear();
+    for (Map.Entry<String, ?> entry : table.getAll().entrySet()) {
+      final String key = entry.getKey();
+      if (key.startsWith(reservedPrefix)) {
+        if (entry.getValue() instanceof Long) {
+          expiryTimes.put(key.substring(reservedPrefix.length()), (Long) entry.getValue());
+        }
+      } else {
+        keys.add(key);
+      }
+    }
+    size.set(keys.size());
+  }
+
+  @Override
+  public void onChanged(@Nullable String key) {
+
+    if (key == null) {
+      rebuild();
+    } else {
+      refresh(key);
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+package org.zalando.core.persistence;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * {@link StorageEngine} that keeps every table in an append-only, memory-mapped log. Writes cost
+ * the size of the written entry instead of the size of the whole table, and the log is compacted
+ * in background once it contains more stale than live data
+ */
+public class MappedLogEngine implements StorageEngine {
+
+  private static final String DIRECTORY = "persistent_hash_tables";
+  private static final String DEFAULT_TABLE = "_default";
+  private static final String EXTENSION = ".log";
+
+  // Tables are shared by every engine instance, so two handles never write the same file. They are
+  // held weakly, a table nobody uses any more is forgotten and mapped again by the next open
+  private static final Map<String, WeakReference<MappedLogPreferences>> OPENED_TABLES =
+      new HashMap<>();
+
+  @Override
+  public SharedPreferences openDefault(@NonNull Context context) {
+
+    return open(context, DEFAULT_TABLE);
+  }
+
+  @Override
+  public SharedPreferences open(@NonNull Context context, @NonNull String id) {
+
+    final File file = new File(new File(context.getFilesDir(), DIRECTORY), id + EXTENSION);
+
+    synchronized (OPENED_TABLES) {
+      final WeakReference<MappedLogPreferences> reference = OPENED_TABLES.get(file.getPath());
+      MappedLogPreferences table = reference != null ? reference.get() : null;
+      if (table == null) {
+        removeCollectedTables();
+        table = new MappedLogPreferences(file);
+        OPENED_TABLES.put(file.getPath(), new WeakReference<>(table));
+      }
+      return table;
+    }
+  }
+
+  @Override
+  public void release(@NonNull SharedPreferences table) {
+
+    ((MappedLogPreferences) table).release();
+  }
+
+  /**
+   * Removes the entries of the tables already collected. Must be called holding the lock of the
+   * opened tables
+   */
+  private static void removeCollectedTables() {
+
+    final Iterator<WeakReference<MappedLogPreferences>> iterator = OPENED_TABLES.values()
+        .iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().get() == null) {
+        iterator.remove();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,876 @@
+package org.zalando.core.persistence;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import timber.log.Timber;
+
+/**
+ * {@link SharedPreferences} implementation backed by an append-only log mapped in memory.
+ *
+ * The log starts with a header (magic and version) followed by records with the layout
+ * <pre>[int bodyLength][int crc][byte type][int keyLength][key][payload]</pre>
+ * A zero length follows the last record. The length of a record is written after its body, and
+ * the checksum covers the rest of the body, so a torn write is detected even when the pages reach
+ * the disk out of order. Replaying stops at the first invalid record and the log is truncated
+ * there. An in-memory index points every key to its latest record, and values are decoded lazily
+ * the first time they are read. Published bytes are never overwritten: clearing and compacting
+ * the log write a brand new file, so readers never observe a half written value.
+ *
+ * Unlike the platform implementation, listeners are notified synchronously on the thread that
+ * writes the changes, not on the main thread.
+ */
+final class MappedLogPreferences implements SharedPreferences {
+
+  private static final int MAGIC = 0x5A4C4F47;
+  private static final int VERSION = 2;
+  // Logs without checksums, upgraded when they are loaded
+  private static final int VERSION_WITHOUT_CHECKSUM = 1;
+  private static final int HEADER_SIZE = 8;
+  // bodyLength + crc + type + keyLength
+  private static final int RECORD_HEADER_SIZE = 13;
+  private static final int RECORD_HEADER_SIZE_WITHOUT_CHECKSUM = 9;
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  private static final int MIN_COMPACTION_BYTES = 32 * 1024;
+
+  private static final byte TYPE_REMOVE = 0;
+  private static final byte TYPE_BOOLEAN = 1;
+  private static final byte TYPE_INT = 2;
+  private static final byte TYPE_LONG = 3;
+  private static final byte TYPE_FLOAT = 4;
+  private static final byte TYPE_STRING = 5;
+  private static final byte TYPE_STRING_SET = 6;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Object REMOVED = new Object();
+  private static final Object PRESENT = new Object();
+
+  private final File file;
+  private final Object writeLock = new Object();
+  private final Map<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+  // Null until the log is loaded, and again once it is released
+  private volatile Map<String, Slot> index;
+
+  // Guarded by writeLock
+  private RandomAccessFile randomAccessFile;
+  private MappedByteBuffer buffer;
+  private int tail;
+  private long liveBytes;
+  private boolean compactionScheduled;
+  private boolean syncScheduled;
+
+  /**
+   * Constructor. The log is not read until the table is accessed for the first time
+   *
+   * @param file {@link File} holding the log
+   */
+  MappedLogPreferences(@NonNull File file) {
+
+    this.file = file;
+  }
+
+  @Override
+  public Map<String, ?> getAll() {
+
+    final Map<String, Slot> currentIndex = index();
+    final Map<String, Object> values = new HashMap<>(currentIndex.size());
+    for (Map.Entry<String, Slot> entry : currentIndex.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().value());
+    }
+    return values;
+  }
+
+  @Nullable
+  @Override
+  public String getString(String key, @Nullable String defValue) {
+
+    final Object value = getValue(key);
+    return value != null ? (String) value : defValue;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  @Override
+  public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+
+    final Object value = getValue(key);
+    return value != null ? (Set<String>) value : defValues;
+  }
+
+  @Override
+  public int getInt(String key, int defValue) {
+
+    final Object value = getValue(key);
+    return value != null ? (Integer) value : defValue;
+  }
+
+  @Override
+  public long getLong(String key, long defValue) {
+
+    final Object value = getValue(key);
+    return value != null ? (Long) value : defValue;
+  }
+
+  @Override
+  public float getFloat(String key, float defValue) {
+
+    final Object value = getValue(key);
+    return value != null ? (Float) value : defValue;
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defValue) {
+
+    final Object value = getValue(key);
+    return value != null ? (Boolean) value : defValue;
+  }
+
+  @Override
+  public boolean contains(String key) {
+
+    return index().containsKey(key);
+  }
+
+  @Override
+  public SharedPreferences.Editor edit() {
+
+    return new Editor();
+  }
+
+  @Override
+  public void registerOnSharedPreferenceChangeListener(
+      OnSharedPreferenceChangeListener listener) {
+
+    synchronized (listeners) {
+      listeners.put(listener, PRESENT);
+    }
+  }
+
+  @Override
+  public void unregisterOnSharedPreferenceChangeListener(
+      OnSharedPreferenceChangeListener listener) {
+
+    synchronized (listeners) {
+      listeners.remove(listener);
+    }
+  }
+
+  /**
+   * Provides the decoded value stored with the given key
+   *
+   * @param key {@link String} with the key
+   * @return {@link Object} with the value, null if the key does not exist
+   */
+  @Nullable
+  private Object getValue(String key) {
+
+    final Slot slot = index().get(key);
+    return slot != null ? slot.value() : null;
+  }
+
+  /**
+   * Releases the memory held by the table. The log is loaded again the next time it is accessed,
+   * readers still holding the previous index keep reading valid values
+   */
+  void release() {
+
+    synchronized (writeLock) {
+      if (index == null) {
+        return;
+      }
+      try {
+        buffer.force();
+        randomAccessFile.close();
+      } catch (IOException e) {
+        Timber.e(e, "release: %s", file);
+      }
+      index = null;
+      buffer = null;
+      randomAccessFile = null;
+    }
+  }
+
+  /**
+   * Provides the index of the table, reading the log if it is not loaded yet
+   *
+   * @return {@link Map} with the index of the table
+   */
+  private Map<String, Slot> index() {
+
+    final Map<String, Slot> currentIndex = index;
+    if (currentIndex != null) {
+      return currentIndex;
+    }
+    synchronized (writeLock) {
+      return loadedIndex();
+    }
+  }
+
+  /**
+   * Provides the index of the table, reading the log if it is not loaded yet. Must be called
+   * holding the write lock
+   *
+   * @return {@link Map} with the index of the table
+   */
+  private Map<String, Slot> loadedIndex() {
+
+    if (index == null) {
+      load();
+    }
+    return index;
+  }
+
+  /**
+   * Maps the log file and replays all its records into the index
+   */
+  private void load() {
+
+    try {
+      final File directory = file.getParentFile();
+      if (directory != null && !directory.exists() && !directory.mkdirs()) {
+        throw new IOException("Unable to create " + directory);
+      }
+
+      // Readers only see the index once it is complete
+      final Map<String, Slot> loadedIndex = new ConcurrentHashMap<>();
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      liveBytes = 0;
+      final long length = randomAccessFile.length();
+      if (length < HEADER_SIZE) {
+        rewrite(loadedIndex);
+        index = loadedIndex;
+        return;
+      }
+
+      buffer = map(randomAccessFile, (int) Math.max(INITIAL_CAPACITY, length));
+      final int version = buffer.getInt(4);
+      if (buffer.getInt(0) != MAGIC
+          || (version != VERSION && version != VERSION_WITHOUT_CHECKSUM)) {
+        Timber.w("load: discarding unknown log format %s", file);
+        rewrite(loadedIndex);
+        index = loadedIndex;
+        return;
+      }
+
+      final boolean checksums = version == VERSION;
+      int position = HEADER_SIZE;
+      while (position + 4 <= buffer.capacity()) {
+        final int bodyLength = buffer.getInt(position);
+        // A zero length marks the end of the log
+        if (bodyLength == 0 || !replaySafely(loadedIndex, position, bodyLength, checksums)) {
+          break;
+        }
+        position += 4 + bodyLength;
+      }
+      tail = position;
+      if (!checksums) {
+        Timber.d("load: upgrading %s", file);
+        rewrite(loadedIndex);
+      } else if (position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+        // Truncate the torn write, so stale bytes are never replayed after later records
+        Timber.w("load: truncating %s at %d", file, position);
+        buffer.putInt(position, 0);
+        buffer.force();
+      }
+      index = loadedIndex;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open " + file, e);
+    }
+  }
+
+  /**
+   * Applies the record at the given position of the log to the given index, considering it
+   * invalid if it can not be read
+   *
+   * @param loadedIndex {@link Map} with the index being loaded
+   * @param position {@link Integer} with the position of the record
+   * @param bodyLength {@link Integer} with the length of the record body
+   * @param checksums {@link Boolean} indicating if the records of the log have checksums
+   * @return {@link Boolean} indicating if the record was valid
+   */
+  private boolean replaySafely(Map<String, Slot> loadedIndex, int position, int bodyLength,
+      boolean checksums) {
+
+    try {
+      return replay(loadedIndex, position, bodyLength, checksums);
+    } catch (RuntimeException e) {
+      Timber.w(e, "replaySafely: invalid record at %d of %s", position, file);
+      return false;
+    }
+  }
+
+  /**
+   * Applies the record at the given position of the log to the given index
+   *
+   * @param loadedIndex {@link Map} with the index being loaded
+   * @param position {@link Integer} with the position of the record
+   * @param bodyLength {@link Integer} with the length of the record body
+   * @param checksums {@link Boolean} indicating if the records of the log have checksums
+   * @return {@link Boolean} indicating if the record was valid, replaying stops otherwise
+   */
+  private boolean replay(Map<String, Slot> loadedIndex, int position, int bodyLength,
+      boolean checksums) {
+
+    final int headerSize = checksums ? RECORD_HEADER_SIZE : RECORD_HEADER_SIZE_WITHOUT_CHECKSUM;
+    final int end = position + 4 + bodyLength;
+    if (bodyLength < headerSize - 4 || end > buffer.capacity() || end < position) {
+      return false;
+    }
+    if (checksums && buffer.getInt(position + 4) != checksum(buffer, position + 8, end)) {
+      return false;
+    }
+
+    final int typePosition = position + headerSize - 5;
+    final byte type = buffer.get(typePosition);
+    final int keyLength = buffer.getInt(typePosition + 1);
+    if (type < TYPE_REMOVE || type > TYPE_STRING_SET || keyLength < 0
+        || keyLength > bodyLength - (headerSize - 4)) {
+      return false;
+    }
+    final String key = readString(buffer, position + headerSize, keyLength);
+    final int payloadPosition = position + headerSize + keyLength;
+    final int payloadLength = bodyLength - (headerSize - 4) - keyLength;
+
+    final Slot previous;
+    if (type == TYPE_REMOVE) {
+      previous = loadedIndex.remove(key);
+    } else {
+      final Slot slot = new Slot(buffer, payloadPosition, payloadLength, 4 + bodyLength, type,
+          null);
+      previous = loadedIndex.put(key, slot);
+      liveBytes += slot.recordSize;
+    }
+    if (previous != null) {
+      liveBytes -= previous.recordSize;
+    }
+    return true;
+  }
+
+  /**
+   * Applies the given modifications to the log
+   *
+   * @param clear {@link Boolean} indicating if the table must be cleared first
+   * @param modifications {@link Map} with the values to write, {@link #REMOVED} to remove them
+   * @param sync {@link Boolean} indicating if data must reach the disk before returning
+   * @return {@link List} with the keys whose value changed
+   * @throws IOException if the log could not be written
+   */
+  private List<String> write(boolean clear, Map<String, Object> modifications, boolean sync)
+      throws IOException {
+
+    final List<String> changedKeys = new ArrayList<>(modifications.size());
+
+    synchronized (writeLock) {
+      final Map<String, Slot> index = loadedIndex();
+      if (clear && !index.isEmpty()) {
+        index.clear();
+        rewrite(index);
+      }
+
+      for (Map.Entry<String, Object> modification : modifications.entrySet()) {
+        final String key = modification.getKey();
+        final Object value = modification.getValue();
+        final Slot current = index.get(key);
+
+        if (value == REMOVED) {
+          if (current == null) {
+            continue;
+          }
+          append(key, TYPE_REMOVE, null);
+          index.remove(key);
+          liveBytes -= current.recordSize;
+        } else {
+          // Same as the platform preferences, do not write nor notify unchanged values
+          if (current != null && value.equals(current.value())) {
+            continue;
+          }
+          final Slot slot = append(key, typeOf(value), value);
+          index.put(key, slot);
+          liveBytes += slot.recordSize - (current != null ? current.recordSize : 0);
+        }
+        changedKeys.add(key);
+      }
+
+      if (sync) {
+        buffer.force();
+      } else if (!changedKeys.isEmpty()) {
+        scheduleSync();
+      }
+      scheduleCompactionIfNeeded();
+    }
+
+    return changedKeys;
+  }
+
+  /**
+   * Appends a record at the end of the log
+   *
+   * @param key {@link String} with the key of the record
+   * @param type {@link Byte} with the type of the record
+   * @param value {@link Object} with the value of the record, null for removals
+   * @return {@link Slot} pointing to the written record
+   * @throws IOException if the log could not be grown
+   */
+  private Slot append(String key, byte type, @Nullable Object value) throws IOException {
+
+    final byte[] keyBytes = key.getBytes(UTF_8);
+    final byte[] payload = encode(type, value);
+    final int bodyLength = RECORD_HEADER_SIZE - 4 + keyBytes.length + payload.length;
+    final int recordSize = 4 + bodyLength;
+
+    if (tail + recordSize + 4 > buffer.capacity()) {
+      buffer = map(randomAccessFile, Math.max(buffer.capacity() * 2, tail + recordSize + 4));
+    }
+
+    final ByteBuffer writer = buffer.duplicate();
+    writer.position(tail + 8);
+    writer.put(type);
+    writer.putInt(keyBytes.length);
+    writer.put(keyBytes);
+    writer.put(payload);
+    buffer.putInt(tail + 4, checksum(buffer, tail + 8, tail + recordSize));
+    // End of the log, so bytes left by a torn write after the tail are never replayed
+    buffer.putInt(tail + recordSize, 0);
+    // Publish the record, a record without length is ignored when the log is replayed
+    buffer.putInt(tail, bodyLength);
+
+    final Slot slot = new Slot(buffer, tail + RECORD_HEADER_SIZE + keyBytes.length,
+        payload.length, recordSize, type, value);
+    tail += recordSize;
+    return slot;
+  }
+
+  /**
+   * Writes the entries of the given index into a brand new log and swaps it with the current one.
+   * Previous mappings stay valid, so readers holding old slots are never affected
+   *
+   * @param index {@link Map} with the index to write, its slots are updated to the new log
+   * @throws IOException if the new log could not be written
+   */
+  private void rewrite(Map<String, Slot> index) throws IOException {
+
+    final File temporaryFile = new File(file.getPath() + ".tmp");
+    final RandomAccessFile temporaryAccessFile = new RandomAccessFile(temporaryFile, "rw");
+    temporaryAccessFile.setLength(0);
+
+    final RandomAccessFile previousAccessFile = randomAccessFile;
+    randomAccessFile = temporaryAccessFile;
+    buffer = map(temporaryAccessFile, INITIAL_CAPACITY);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    tail = HEADER_SIZE;
+    liveBytes = 0;
+
+    for (Map.Entry<String, Slot> entry : new ArrayList<>(index.entrySet())) {
+      final Slot previous = entry.getValue();
+      final Slot slot = append(entry.getKey(), previous.type, previous.value());
+      index.put(entry.getKey(), slot);
+      liveBytes += slot.recordSize;
+    }
+
+    buffer.force();
+    if (!temporaryFile.renameTo(file)) {
+      throw new IOException("Unable to replace " + file);
+    }
+    if (previousAccessFile != null && previousAccessFile != temporaryAccessFile) {
+      previousAccessFile.close();
+    }
+  }
+
+  /**
+   * Schedules a background compaction if the log holds more stale than live data
+   */
+  private void scheduleCompactionIfNeeded() {
+
+    final long staleBytes = tail - HEADER_SIZE - liveBytes;
+    if (compactionScheduled || staleBytes < MIN_COMPACTION_BYTES || staleBytes < liveBytes) {
+      return;
+    }
+
+    compactionScheduled = true;
+    Schedulers.io().scheduleDirect(new Runnable() {
+      @Override
+      public void run() {
+        compact();
+      }
+    });
+  }
+
+  /**
+   * Rewrites the log keeping only the latest record of every key
+   */
+  private void compact() {
+
+    synchronized (writeLock) {
+      compactionScheduled = false;
+      if (index == null) {
+        // Released meanwhile, nothing to compact until it is loaded again
+        return;
+      }
+      final long staleBytes = tail - HEADER_SIZE - liveBytes;
+      Timber.d("compact: %s stale bytes %d", file, staleBytes);
+      try {
+        rewrite(index);
+      } catch (IOException e) {
+        Timber.e(e, "compact: %s", file);
+      }
+    }
+  }
+
+  /**
+   * Schedules flushing the mapped pages to disk, coalescing consecutive asynchronous writes
+   */
+  private void scheduleSync() {
+
+    if (syncScheduled) {
+      return;
+    }
+
+    syncScheduled = true;
+    Schedulers.io().scheduleDirect(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (writeLock) {
+          syncScheduled = false;
+          // Released tables are already flushed
+          if (buffer != null) {
+            buffer.force();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Notifies the registered listeners about the given changed keys
+   *
+   * @param changedKeys {@link List} of changed keys
+   */
+  private void notifyListeners(List<String> changedKeys) {
+
+    if (changedKeys.isEmpty()) {
+      return;
+    }
+
+    final List<OnSharedPreferenceChangeListener> listenersToNotify;
+    synchronized (listeners) {
+      listenersToNotify = new ArrayList<>(listeners.keySet());
+    }
+    for (int i = changedKeys.size() - 1; i >= 0; i--) {
+      for (OnSharedPreferenceChangeListener listener : listenersToNotify) {
+        listener.onSharedPreferenceChanged(this, changedKeys.get(i));
+      }
+    }
+  }
+
+  /**
+   * Maps the given file in memory
+   *
+   * @param accessFile {@link RandomAccessFile} to map
+   * @param size {@link Integer} with the size to map, the file grows if needed
+   * @return {@link MappedByteBuffer} with the mapped file
+   * @throws IOException if the file could not be mapped
+   */
+  private static MappedByteBuffer map(RandomAccessFile accessFile, int size) throws IOException {
+
+    return accessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  /**
+   * Computes the checksum of the given range of the buffer
+   *
+   * @param buffer {@link ByteBuffer} holding the range
+   * @param start {@link Integer} with the start of the range, inclusive
+   * @param end {@link Integer} with the end of the range, exclusive
+   * @return {@link Integer} with the CRC32 of the range
+   */
+  private static int checksum(ByteBuffer buffer, int start, int end) {
+
+    final byte[] bytes = new byte[end - start];
+    final ByteBuffer reader = buffer.duplicate();
+    reader.position(start);
+    reader.get(bytes);
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Provides the record type of the given value
+   *
+   * @param value {@link Object} to store
+   * @return {@link Byte} with the record type
+   */
+  private static byte typeOf(Object value) {
+
+    if (value instanceof Boolean) {
+      return TYPE_BOOLEAN;
+    }
+    if (value instanceof Integer) {
+      return TYPE_INT;
+    }
+    if (value instanceof Long) {
+      return TYPE_LONG;
+    }
+    if (value instanceof Float) {
+      return TYPE_FLOAT;
+    }
+    if (value instanceof String) {
+      return TYPE_STRING;
+    }
+    if (value instanceof Set) {
+      return TYPE_STRING_SET;
+    }
+    throw new IllegalArgumentException(String.format("Saving %s type is not supported",
+        value.getClass()));
+  }
+
+  /**
+   * Encodes the given value as the payload of a record
+   *
+   * @param type {@link Byte} with the record type
+   * @param value {@link Object} to encode
+   * @return byte array with the payload
+   */
+  @SuppressWarnings("unchecked")
+  private static byte[] encode(byte type, @Nullable Object value) {
+
+    switch (type) {
+      case TYPE_BOOLEAN:
+        return new byte[]{(byte) ((Boolean) value ? 1 : 0)};
+      case TYPE_INT:
+        return ByteBuffer.allocate(4).putInt((Integer) value).array();
+      case TYPE_LONG:
+        return ByteBuffer.allocate(8).putLong((Long) value).array();
+      case TYPE_FLOAT:
+        return ByteBuffer.allocate(4).putFloat((Float) value).array();
+      case TYPE_STRING:
+        return ((String) value).getBytes(UTF_8);
+      case TYPE_STRING_SET:
+        final Set<String> strings = (Set<String>) value;
+        final List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+        int length = 4;
+        for (String string : strings) {
+          final byte[] encodedString = string.getBytes(UTF_8);
+          encodedStrings.add(encodedString);
+          length += 4 + encodedString.length;
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.putInt(encodedStrings.size());
+        for (byte[] encodedString : encodedStrings) {
+          payload.putInt(encodedString.length);
+          payload.put(encodedString);
+        }
+        return payload.array();
+      default:
+        return new byte[0];
+    }
+  }
+
+  /**
+   * Decodes the payload of a record
+   *
+   * @param buffer {@link ByteBuffer} holding the record
+   * @param position {@link Integer} with the position of the payload
+   * @param length {@link Integer} with the length of the payload
+   * @param type {@link Byte} with the record type
+   * @return {@link Object} with the decoded value
+   */
+  private static Object decode(ByteBuffer buffer, int position, int length, byte type) {
+
+    switch (type) {
+      case TYPE_BOOLEAN:
+        return buffer.get(position) != 0;
+      case TYPE_INT:
+        return buffer.getInt(position);
+      case TYPE_LONG:
+        return buffer.getLong(position);
+      case TYPE_FLOAT:
+        return buffer.getFloat(position);
+      case TYPE_STRING:
+        return readString(buffer, position, length);
+      case TYPE_STRING_SET:
+        final int size = buffer.getInt(position);
+        final Set<String> strings = new HashSet<>(size);
+        int offset = position + 4;
+        for (int i = 0; i < size; i++) {
+          final int stringLength = buffer.getInt(offset);
+          strings.add(readString(buffer, offset + 4, stringLength));
+          offset += 4 + stringLength;
+        }
+        return Collections.unmodifiableSet(strings);
+      default:
+        throw new IllegalStateException(String.format("Unknown record type %d", type));
+    }
+  }
+
+  /**
+   * Reads an UTF-8 {@link String} without moving the position of the given buffer
+   *
+   * @param buffer {@link ByteBuffer} to read from
+   * @param position {@link Integer} with the position of the string
+   * @param length {@link Integer} with the length in bytes of the string
+   * @return {@link String} read
+   */
+  private static String readString(ByteBuffer buffer, int position, int length) {
+
+    final byte[] bytes = new byte[length];
+    final ByteBuffer reader = buffer.duplicate();
+    reader.position(position);
+    reader.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Location of the latest record of a key. The decoded value is cached after the first read
+   */
+  private static final class Slot {
+
+    final ByteBuffer buffer;
+    final int position;
+    final int length;
+    final int recordSize;
+    final byte type;
+    private volatile Object value;
+
+    Slot(ByteBuffer buffer, int position, int length, int recordSize, byte type,
+        @Nullable Object value) {
+
+      this.buffer = buffer;
+      this.position = position;
+      this.length = length;
+      this.recordSize = recordSize;
+      this.type = type;
+      this.value = value;
+    }
+
+    Object value() {
+
+      Object decoded = value;
+      if (decoded == null) {
+        decoded = decode(buffer, position, length, type);
+        value = decoded;
+      }
+      return decoded;
+    }
+  }
+
+  /**
+   * {@link SharedPreferences.Editor} that appends its modifications to the log
+   */
+  private final class Editor implements SharedPreferences.Editor {
+
+    private final Map<String, Object> modifications = new LinkedHashMap<>();
+    private boolean clear;
+
+    @Override
+    public SharedPreferences.Editor putString(String key, @Nullable String value) {
+
+      return modify(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putStringSet(String key, @Nullable Set<String> values) {
+
+      return modify(key, values != null ? Collections.unmodifiableSet(new HashSet<>(values))
+          : null);
+    }
+
+    @Override
+    public SharedPreferences.Editor putInt(String key, int value) {
+
+      return modify(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putLong(String key, long value) {
+
+      return modify(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putFloat(String key, float value) {
+
+      return modify(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putBoolean(String key, boolean value) {
+
+      return modify(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor remove(String key) {
+
+      return modify(key, null);
+    }
+
+    @Override
+    public synchronized SharedPreferences.Editor clear() {
+
+      clear = true;
+      return this;
+    }
+
+    @Override
+    public boolean commit() {
+
+      return write(true);
+    }
+
+    @Override
+    public void apply() {
+
+      write(false);
+    }
+
+    private synchronized SharedPreferences.Editor modify(String key, @Nullable Object value) {
+
+      modifications.put(key, value != null ? value : REMOVED);
+      return this;
+    }
+
+    private boolean write(boolean sync) {
+
+      final boolean clearToWrite;
+      final Map<String, Object> modificationsToWrite;
+      synchronized (this) {
+        clearToWrite = clear;
+        modificationsToWrite = new LinkedHashMap<>(modifications);
+        clear = false;
+        modifications.clear();
+      }
+
+      try {
+        notifyListeners(MappedLogPreferences.this.write(clearToWrite, modificationsToWrite,
+            sync));
+        return true;
+      } catch (IOException e) {
+        Timber.e(e, "write: %s", file);
+        return false;
+      }
+    }
+  }
+
+}
@@ -2,34 +2,160 @@ package org.zalando.core.persistence;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.preference.PreferenceManager;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
+import android.util.Base64;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.AsyncSubject;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
 import org.zalando.core.utils.Preconditions;
+import org.zalando.core.utils.SecurityUtils;
 import timber.log.Timber;
 
 /**
- * Thread safe class that stores key/value primitive data in the persistent storage
+ * Thread safe class that stores key/value primitive data in the persistent storage.
+ *
+ * Reads do not take the locks of the handle: the table currently in use is published through a
+ * volatile field and every operation works on the table it read once, so switching the table never
+ * blocks readers. Whether a read locks inside the table depends on the {@link StorageEngine}: the
+ * platform {@link SharedPreferences} synchronize every read, while the {@link MappedLogEngine}
+ * reads its index without locks.
+ *
+ * Tables created with an encryption key store every value encrypted, keys and expiry times are
+ * stored in plain text
  */
 public class PersistentHashTable {
 
+  // Marks removed keys in a batch
+  private static final Object REMOVED = new Object();
+  // Maximum number of decoded values kept in memory
+  private static final int MAX_DECODED_VALUES = 256;
+  // Prefix of the keys holding the expiry time of the values saved with a TTL
+  private static final String EXPIRY_KEY_PREFIX = "__expiry__.";
+  // Codecs of the natively supported types, used to encrypt them
+  private static final Map<Class<?>, ValueCodec<?>> NATIVE_CODECS;
+
+  static {
+    final Map<Class<?>, ValueCodec<?>> nativeCodecs = new HashMap<>();
+    nativeCodecs.put(Boolean.class, ValueCodecs.BOOLEAN);
+    nativeCodecs.put(String.class, ValueCodecs.STRING);
+    nativeCodecs.put(Float.class, ValueCodecs.FLOAT);
+    nativeCodecs.put(Long.class, ValueCodecs.LONG);
+    nativeCodecs.put(Date.class, ValueCodecs.DATE);
+    nativeCodecs.put(Integer.class, ValueCodecs.INTEGER);
+    NATIVE_CODECS = Collections.unmodifiableMap(nativeCodecs);
+  }
+
   private final Context context;
-  private SharedPreferences sharedPreferences;
-  private String persistentHashTableId;
+  private final StorageEngine storageEngine;
+  private final GroupCommitter groupCommitter = new GroupCommitter();
+  private final Map<Class<?>, ValueCodec<?>> codecs = new ConcurrentHashMap<>();
+  private final Map<String, DecodedValue> decodedValues = new ConcurrentHashMap<>();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  // Null if values are stored in plain text
+  @Nullable
+  private final SecurityUtils.BinaryCipher cipher;
+  // Null until the table is used for the first time, so constructing it does not touch the disk
+  private volatile SharedPreferences sharedPreferences;
+  private volatile String persistentHashTableId;
+  private volatile boolean ready;
+  // Index of the table in use, null until it is used
+  private volatile KeyIndex keyIndex;
+  private AsyncSubject<Object> warmUp;
 
+  /**
+   * Constructor. Data is stored in the platform {@link SharedPreferences}
+   *
+   * @param applicationContext {@link Context} of the application
+   */
   @Inject
   public PersistentHashTable(Context applicationContext) {
 
+    this(applicationContext, new SharedPreferencesEngine());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param applicationContext {@link Context} of the application
+   * @param storageEngine {@link StorageEngine} that stores the data of the table
+   */
+  public PersistentHashTable(Context applicationContext, @NonNull StorageEngine storageEngine) {
+
+    this(applicationContext, storageEngine, null, (SecurityUtils.BinaryCipher) null);
+  }
+
+  /**
+   * Constructor of a table bound to the given id
+   *
+   * @param applicationContext {@link Context} of the application
+   * @param storageEngine {@link StorageEngine} that stores the data of the table
+   * @param persistentHashTableId {@link String} with the id of the table
+   */
+  public PersistentHashTable(Context applicationContext, @NonNull StorageEngine storageEngine,
+      @NonNull String persistentHashTableId) {
+
+    this(applicationContext, storageEngine, checkTableId(persistentHashTableId),
+        (SecurityUtils.BinaryCipher) null);
+  }
+
+  /**
+   * Constructor of an encrypted table bound to the given id. Every value is encrypted before it is
+   * stored, with a key that is parsed only once
+   *
+   * @param applicationContext {@link Context} of the application
+   * @param storageEngine {@link StorageEngine} that stores the data of the table
+   * @param persistentHashTableId {@link String} with the id of the table
+   * @param encryptionKey {@link String} with the key, as generated by {@link
+   * SecurityUtils#generateKey(String)}
+   */
+  public PersistentHashTable(Context applicationContext, @NonNull StorageEngine storageEngine,
+      @NonNull String persistentHashTableId, @NonNull String encryptionKey) {
+
+    this(applicationContext, storageEngine, checkTableId(persistentHashTableId),
+        createCipher(encryptionKey));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param applicationContext {@link Context} of the application
+   * @param storageEngine {@link StorageEngine} that stores the data of the table
+   * @param persistentHashTableId {@link String} with the id of the table, null for the default one
+   * @param cipher {@link SecurityUtils.BinaryCipher} to encrypt the values, null to store them in
+   * plain text
+   */
+  private PersistentHashTable(Context applicationContext, StorageEngine storageEngine,
+      @Nullable String persistentHashTableId, @Nullable SecurityUtils.BinaryCipher cipher) {
+
     context = applicationContext.getApplicationContext();
-    sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    this.storageEngine = storageEngine;
+    this.persistentHashTableId = persistentHashTableId;
+    this.cipher = cipher;
+    codecs.put(byte[].class, ValueCodecs.BYTES);
   }
 
   /**
@@ -46,30 +172,37 @@ public class PersistentHashTable {
 
     Preconditions.checkArgument(defaultValue.getClass().equals(clazz));
 
+    // Read the table once, so a concurrent switch never mixes tables within the same read
+    final SharedPreferences sharedPreferences = table();
+    final String cleanKey = validateAndCleanKey(key);
+    if (isExpired(sharedPreferences, cleanKey)) {
+      return defaultValue;
+    }
+
+    if (cipher != null) {
+      final T value = decode(sharedPreferences, cleanKey, clazz, this.<T>nativeCodecOf(clazz));
+      return value != null ? value : defaultValue;
+    }
+
     // Check each supported type
     if (defaultValue instanceof Boolean) {
-      return clazz.cast(sharedPreferences.getBoolean(validateAndCleanKey(key),
-          (Boolean) defaultValue));
+      return clazz.cast(sharedPreferences.getBoolean(cleanKey, (Boolean) defaultValue));
     }
     if (defaultValue instanceof String) {
-      return clazz.cast(sharedPreferences.getString(validateAndCleanKey(key),
-          (String) defaultValue));
+      return clazz.cast(sharedPreferences.getString(cleanKey, (String) defaultValue));
     }
     if (defaultValue instanceof Float) {
-      return clazz.cast(sharedPreferences.getFloat(validateAndCleanKey(key),
-          (Float) defaultValue));
+      return clazz.cast(sharedPreferences.getFloat(cleanKey, (Float) defaultValue));
     }
     if (defaultValue instanceof Long) {
-      return clazz.cast(sharedPreferences.getLong(validateAndCleanKey(key),
-          (Long) defaultValue));
+      return clazz.cast(sharedPreferences.getLong(cleanKey, (Long) defaultValue));
     }
     if (defaultValue instanceof Date) {
-      return clazz.cast(new Date(sharedPreferences.getLong(validateAndCleanKey(key),
+      return clazz.cast(new Date(sharedPreferences.getLong(cleanKey,
           ((Date) defaultValue).getTime())));
     }
     if (defaultValue instanceof Integer) {
-      return clazz.cast(sharedPreferences.getInt(validateAndCleanKey(key),
-          (Integer) defaultValue));
+      return clazz.cast(sharedPreferences.getInt(cleanKey, (Integer) defaultValue));
     }
 
     // If reached this point we are trying to get a not supported type. Throw exception
@@ -84,7 +217,7 @@ public class PersistentHashTable {
    * @param defaultValue {@link Boolean} default value if the key doesn't exist
    * @return {@link Boolean} of the given key
    */
-  public synchronized Boolean get(@NonNull String key, boolean defaultValue) {
+  public Boolean get(@NonNull String key, boolean defaultValue) {
 
     return get(key, defaultValue, Boolean.class);
   }
@@ -149,6 +282,151 @@ public class PersistentHashTable {
     return get(key, defaultValue, Date.class);
   }
 
+  /**
+   * Returns the {@link T} value of the given {@link String} key, decoded with the {@link
+   * ValueCodec} registered for the given {@link Class}. Decoded values are cached and shared
+   * between reads until the stored value changes, so they must not be modified
+   *
+   * @param key {@link String} with the key
+   * @param clazz {@link Class} of the value, with a registered {@link ValueCodec}
+   * @param defaultValue {@link T} default value if the key doesn't exist
+   * @param <T> {@link T} type to retrieve
+   * @return {@link T} of the given key
+   */
+  @Nullable
+  public <T> T get(@NonNull String key, @NonNull Class<T> clazz, @Nullable T defaultValue) {
+
+    final ValueCodec<T> codec = codecOf(clazz);
+    Preconditions.checkArgument(codec != null, String.format("Retrieving %s type is not "
+        + "supported", clazz));
+
+    final SharedPreferences sharedPreferences = table();
+    final String cleanKey = validateAndCleanKey(key);
+    if (isExpired(sharedPreferences, cleanKey)) {
+      return defaultValue;
+    }
+
+    final T value = decode(sharedPreferences, cleanKey, clazz, codec);
+    return value != null ? value : defaultValue;
+  }
+
+  /**
+   * Decodes the value of the given key with the given {@link ValueCodec}, decrypting it first if
+   * the table is encrypted. Decoded values are cached, so repeated reads neither decrypt nor decode
+   *
+   * @param sharedPreferences {@link SharedPreferences} with the table to read
+   * @param cleanKey {@link String} with the already cleaned key
+   * @param clazz {@link Class} of the value
+   * @param codec {@link ValueCodec} of the value
+   * @param <T> {@link T} type to retrieve
+   * @return {@link T} of the given key, null if the key does not exist
+   */
+  @Nullable
+  private <T> T decode(SharedPreferences sharedPreferences, String cleanKey, Class<T> clazz,
+      ValueCodec<T> codec) {
+
+    final String encodedValue = sharedPreferences.getString(cleanKey, null);
+    if (encodedValue == null) {
+      return null;
+    }
+
+    // Tables hand out the same String instance until the value changes, so a cached value is
+    // still valid while it was decoded from the very same instance
+    final DecodedValue decodedValue = decodedValues.get(cleanKey);
+    if (decodedValue != null && decodedValue.encodedValue == encodedValue
+        && clazz.isInstance(decodedValue.value)) {
+      return clazz.cast(decodedValue.value);
+    }
+
+    final T value;
+    try {
+      final byte[] bytes = Base64.decode(encodedValue, Base64.NO_WRAP);
+      value = codec.decode(cipher != null ? cipher.decrypt(bytes) : bytes);
+    } catch (Exception e) {
+      throw new IllegalStateException(String.format("Unable to decode %s", cleanKey), e);
+    }
+
+    if (decodedValues.size() >= MAX_DECODED_VALUES) {
+      decodedValues.clear();
+    }
+    decodedValues.put(cleanKey, new DecodedValue(encodedValue, value));
+    return value;
+  }
+
+  /**
+   * Registers a {@link ValueCodec} to store values of the given {@link Class}. Values of the class
+   * and its subclasses can be saved with {@link #put(String, Object)} and retrieved with {@link
+   * #get(String, Class, Object)}. Byte arrays are supported out of the box
+   *
+   * @param clazz {@link Class} of the values
+   * @param codec {@link ValueCodec} to encode and decode the values
+   * @param <T> {@link T} type of the values
+   */
+  public <T> void registerCodec(@NonNull Class<T> clazz, @NonNull ValueCodec<T> codec) {
+
+    Preconditions.checkArgument(!isNativelySupported(clazz), String.format("%s type is "
+        + "supported natively", clazz));
+    codecs.put(clazz, codec);
+  }
+
+  /**
+   * Removes the values whose time to live is over, stopping once the given time budget is spent
+   *
+   * @param timeBudget {@link Long} with the maximum time to spend sweeping
+   * @param timeUnit {@link TimeUnit} of the time budget
+   * @return {@link Integer} with the number of removed values
+   */
+  public int sweepExpired(long timeBudget, @NonNull TimeUnit timeUnit) {
+
+    final long deadline = System.nanoTime() + timeUnit.toNanos(timeBudget);
+    final long now = System.currentTimeMillis();
+    final SharedPreferences sharedPreferences = table();
+    final KeyIndex keyIndex = keyIndex(sharedPreferences);
+    final SharedPreferences.Editor editor = sharedPreferences.edit();
+
+    // Only the values saved with a time to live are visited
+    final List<String> removedKeys = new ArrayList<>();
+    for (Map.Entry<String, Long> expiryTime : keyIndex.expiryTimes().entrySet()) {
+      if (System.nanoTime() > deadline) {
+        break;
+      }
+      if (expiryTime.getValue() <= now) {
+        final String key = expiryTime.getKey();
+        editor.remove(EXPIRY_KEY_PREFIX + key).remove(key);
+        removedKeys.add(key);
+      }
+    }
+
+    if (!removedKeys.isEmpty()) {
+      editor.apply();
+      for (String key : removedKeys) {
+        refreshKey(keyIndex, key);
+      }
+    }
+    Timber.d("sweepExpired: %d removed", removedKeys.size());
+    return removedKeys.size();
+  }
+
+  /**
+   * Periodically removes the values whose time to live is over in a background thread
+   *
+   * @param period {@link Long} with the time between sweeps
+   * @param timeBudget {@link Long} with the maximum time to spend on every sweep
+   * @param timeUnit {@link TimeUnit} of the period and the time budget
+   * @return {@link Disposable} to stop the sweeper
+   */
+  public Disposable startExpirySweeper(long period, final long timeBudget,
+      @NonNull final TimeUnit timeUnit) {
+
+    return Observable.interval(period, timeUnit, Schedulers.io())
+        .subscribe(new Consumer<Long>() {
+          @Override
+          public void accept(Long tick) throws Exception {
+            sweepExpired(timeBudget, timeUnit);
+          }
+        });
+  }
+
   /**
    * Checks if the persistent hash table is empty
    *
@@ -156,7 +434,75 @@ public class PersistentHashTable {
    */
   public boolean isEmpty() {
 
-    return sharedPreferences.getAll().isEmpty();
+    return size() == 0;
+  }
+
+  /**
+   * Provides the number of keys stored in the table, without reading them. Keys whose time to live
+   * is over are not counted, even if they were not removed yet
+   *
+   * @return {@link Integer} with the number of keys
+   */
+  public int size() {
+
+    return keyIndex(table()).liveSize(System.currentTimeMillis());
+  }
+
+  /**
+   * Provides the keys starting with the given {@link String} prefix, in ascending order. The
+   * returned set is a read-only view of the index of the table, it reflects later modifications
+   * and can be iterated while the table is modified
+   *
+   * @param prefix {@link String} with the prefix of the keys, empty for all the keys
+   * @return {@link SortedSet} with the matching keys
+   */
+  public SortedSet<String> keys(@NonNull String prefix) {
+
+    return keyIndex(table()).keys(prefix.trim());
+  }
+
+  /**
+   * Provides the keys from the given {@link String} key, inclusive, to the given {@link String}
+   * key, exclusive, in ascending order. The returned set is a read-only view of the index of the
+   * table, like the one returned by {@link #keys(String)}
+   *
+   * @param fromKey {@link String} with the first key of the range
+   * @param toKey {@link String} with the key ending the range
+   * @return {@link SortedSet} with the matching keys
+   */
+  public SortedSet<String> scan(@NonNull String fromKey, @NonNull String toKey) {
+
+    Preconditions.checkArgument(fromKey.trim().compareTo(toKey.trim()) <= 0, String.format(
+        "%s key goes after %s key", fromKey, toKey));
+    return keyIndex(table()).scan(fromKey.trim(), toKey.trim());
+  }
+
+  /**
+   * Removes all the keys starting with the given {@link String} prefix
+   *
+   * @param prefix {@link String} with the prefix of the keys to remove
+   * @return {@link Integer} with the number of removed keys
+   */
+  public int removePrefix(@NonNull String prefix) {
+
+    final String cleanPrefix = validateAndCleanKey(prefix);
+    final SharedPreferences sharedPreferences = table();
+    final KeyIndex keyIndex = keyIndex(sharedPreferences);
+    // Copy the matching keys only, the view changes while they are removed
+    final List<String> removedKeys = new ArrayList<>(keyIndex.keys(cleanPrefix));
+    if (removedKeys.isEmpty()) {
+      return 0;
+    }
+
+    final SharedPreferences.Editor editor = sharedPreferences.edit();
+    for (String key : removedKeys) {
+      editor.remove(key).remove(EXPIRY_KEY_PREFIX + key);
+    }
+    editor.apply();
+    for (String key : removedKeys) {
+      refreshKey(keyIndex, key);
+    }
+    return removedKeys.size();
   }
 
   /**
@@ -175,23 +521,21 @@ public class PersistentHashTable {
       @Override
       public void subscribe(final ObservableEmitter<T> emitter) throws Exception {
 
-        final SharedPreferences.OnSharedPreferenceChangeListener
-            preferenceChangeListener = new OnSharedPreferenceChangeListener() {
+        final String cleanKey = validateAndCleanKey(key);
+        final ChangeNotificationHub hub = ChangeNotificationHub.of(table());
+        final ChangeNotificationHub.Observer observer = new ChangeNotificationHub.Observer() {
           @Override
-          public void onSharedPreferenceChanged(SharedPreferences sharedPreferencesInstance,
-              String changedKey) {
-            if (key.equals(changedKey)) {
-              emitter.onNext(get(key, defaultValue, clazz));
-            }
+          public void onChanged(String changedKey) {
+            emitter.onNext(get(key, defaultValue, clazz));
           }
         };
 
-        sharedPreferences.registerOnSharedPreferenceChangeListener(
-            preferenceChangeListener);
+        // A single listener per table dispatches the changes only to the observers of the key
+        hub.addKeyObserver(cleanKey, observer);
         emitter.setCancellable(new Cancellable() {
           @Override
           public void cancel() throws Exception {
-            sharedPreferences.unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+            hub.removeKeyObserver(cleanKey, observer);
           }
         });
 
@@ -201,6 +545,54 @@ public class PersistentHashTable {
     }).distinctUntilChanged();
   }
 
+  /**
+   * Loads using a {@link Flowable} the {@link T} stored with the given {@link String} key. Only the
+   * latest value is kept when the subscriber can not keep up with the changes
+   *
+   * @param key {@link String} with the key to retrieve
+   * @param defaultValue {@link T} with the default value to return if the key does not exist
+   * @param <T> {@link T} type to retrieve, one of the types supported by the table
+   * @return {@link Flowable} to load the {@link T} with the given key
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Flowable<T> loadFlowable(@NonNull String key, @NonNull T defaultValue) {
+
+    return load(key, defaultValue, (Class<T>) defaultValue.getClass())
+        .toFlowable(BackpressureStrategy.LATEST);
+  }
+
+  /**
+   * Observes the keys starting with the given {@link String} prefix. Emits the key of every changed
+   * value, or an empty {@link String} if the whole table was cleared
+   *
+   * @param prefix {@link String} with the prefix of the keys to observe
+   * @return {@link Observable} emitting the changed keys
+   */
+  public Observable<String> loadPrefix(@NonNull final String prefix) {
+
+    return Observable.create(new ObservableOnSubscribe<String>() {
+      @Override
+      public void subscribe(final ObservableEmitter<String> emitter) throws Exception {
+
+        final ChangeNotificationHub hub = ChangeNotificationHub.of(table());
+        final ChangeNotificationHub.Observer observer = new ChangeNotificationHub.Observer() {
+          @Override
+          public void onChanged(String changedKey) {
+            emitter.onNext(changedKey != null ? changedKey : "");
+          }
+        };
+
+        hub.addPrefixObserver(prefix.trim(), observer);
+        emitter.setCancellable(new Cancellable() {
+          @Override
+          public void cancel() throws Exception {
+            hub.removePrefixObserver(observer);
+          }
+        });
+      }
+    });
+  }
+
   /**
    * Loads using an {@link Observable} the {@link Boolean} stored with the given {@link String} key
    *
@@ -282,36 +674,39 @@ public class PersistentHashTable {
    */
   public <T> void put(String key, T value) {
 
-    // Check each supported type
-    if (value instanceof Boolean) {
-      sharedPreferences.edit().putBoolean(validateAndCleanKey(key), (Boolean) value).apply();
-      return;
-    }
-    if (value instanceof String) {
-      sharedPreferences.edit().putString(validateAndCleanKey(key), (String) value).apply();
-      return;
-    }
-    if (value instanceof Float) {
-      sharedPreferences.edit().putFloat(validateAndCleanKey(key), (Float) value).apply();
-      return;
-    }
-    if (value instanceof Long) {
-      sharedPreferences.edit().putLong(validateAndCleanKey(key), (Long) value).apply();
-      return;
-    }
-    if (value instanceof Date) {
-      sharedPreferences.edit().putLong(validateAndCleanKey(key), ((Date) value).getTime())
-          .apply();
-      return;
-    }
-    if (value instanceof Integer) {
-      sharedPreferences.edit().putInt(validateAndCleanKey(key), (Integer) value).apply();
-      return;
-    }
+    final String cleanKey = validateAndCleanKey(key);
+    final SharedPreferences sharedPreferences = table();
+    final SharedPreferences.Editor editor = sharedPreferences.edit();
+    putValue(editor, cleanKey, value);
+    editor.apply();
+    refreshKey(keyIndex(sharedPreferences), cleanKey);
+  }
 
-    // If reached this point we are trying to get a not supported type. Throw exception
-    throw new IllegalArgumentException(String.format("Saving %s type is not supported",
-        value.getClass()));
+  /**
+   * Puts a new value in the persistent hash table using the given {@link String} key, that expires
+   * after the given time to live. Expired values are no longer returned nor counted, they are
+   * removed from disk once read or by the expiry sweeper
+   *
+   * @param key {@link String} with the key to save
+   * @param value {@link T} with the value to save
+   * @param timeToLive {@link Long} with the time the value lives
+   * @param timeUnit {@link TimeUnit} of the time to live
+   * @param <T> {@link T} class to save
+   */
+  public <T> void put(@NonNull String key, @NonNull T value, long timeToLive,
+      @NonNull TimeUnit timeUnit) {
+
+    Preconditions.checkArgument(timeToLive > 0, "Time to live must be positive");
+
+    final String cleanKey = validateAndCleanKey(key);
+    final SharedPreferences sharedPreferences = table();
+    final SharedPreferences.Editor editor = sharedPreferences.edit();
+    putValue(editor, cleanKey, value);
+    // The expiry is written next to the value, within the same editor
+    editor.putLong(EXPIRY_KEY_PREFIX + cleanKey,
+        System.currentTimeMillis() + timeUnit.toMillis(timeToLive));
+    editor.apply();
+    refreshKey(keyIndex(sharedPreferences), cleanKey);
   }
 
   /**
@@ -322,46 +717,65 @@ public class PersistentHashTable {
    */
   public void put(@NonNull Map<String, Object> values) {
 
+    final SharedPreferences sharedPreferences = table();
     final SharedPreferences.Editor editor = sharedPreferences.edit();
+    final List<String> cleanKeys = new ArrayList<>(values.size());
 
     for (String key : values.keySet()) {
 
       // Get the content value from the map
       final Object contentValue = values.get(key);
+      final String cleanKey = validateAndCleanKey(key);
+      putValue(editor, cleanKey, contentValue instanceof String
+          ? ((String) contentValue).trim() : contentValue);
+      cleanKeys.add(cleanKey);
+    }
 
-      // Add each supported item
-      if (contentValue instanceof Boolean) {
-        editor.putBoolean(validateAndCleanKey(key), (Boolean) contentValue);
-        continue;
-      }
-      if (contentValue instanceof String) {
-        editor.putString(validateAndCleanKey(key), ((String) contentValue).trim());
-        continue;
-      }
-      if (contentValue instanceof Float) {
-        editor.putFloat(validateAndCleanKey(key), (Float) contentValue);
-        continue;
-      }
-      if (contentValue instanceof Long) {
-        editor.putLong(validateAndCleanKey(key), (Long) contentValue);
-        continue;
-      }
-      if (contentValue instanceof Date) {
-        editor.putLong(validateAndCleanKey(key), ((Date) contentValue).getTime());
-        continue;
-      }
-      if (contentValue instanceof Integer) {
-        editor.putInt(validateAndCleanKey(key), (Integer) contentValue);
-        continue;
-      }
+    editor.apply();
+    final KeyIndex keyIndex = keyIndex(sharedPreferences);
+    for (String cleanKey : cleanKeys) {
+      refreshKey(keyIndex, cleanKey);
+    }
+  }
+
+  /**
+   * Starts a {@link Batch} of modifications that are written to disk together
+   *
+   * @return {@link Batch} to fill with modifications
+   */
+  public Batch beginBatch() {
+
+    return new Batch(table());
+  }
+
+  /**
+   * Fills a {@link Batch} with the given {@link Consumer} and commits it
+   *
+   * @param editing {@link Consumer} that fills the {@link Batch}
+   * @return {@link Completable} that completes once the modifications are on disk
+   */
+  public Completable edit(@NonNull Consumer<Batch> editing) {
 
-      // If reached this point we are trying to add a not supported type.
-      // Throw exception
-      throw new IllegalArgumentException(String.format("Saving %s type is not supported",
-          contentValue.getClass()));
+    final Batch batch = beginBatch();
+    try {
+      editing.accept(batch);
+    } catch (Exception e) {
+      return Completable.error(e);
     }
+    return batch.commit();
+  }
 
-    editor.apply();
+  /**
+   * Sets the time committed {@link Batch}es wait for other writers, so all of them are written to
+   * disk at once. By default batches only wait for the group that is being written
+   *
+   * @param window {@link Long} with the flush window
+   * @param timeUnit {@link TimeUnit} of the window
+   */
+  public void setGroupCommitWindow(long window, @NonNull TimeUnit timeUnit) {
+
+    Preconditions.checkArgument(window >= 0, "Group commit window can not be negative");
+    groupCommitter.setWindow(window, timeUnit);
   }
 
   /**
@@ -369,10 +783,103 @@ public class PersistentHashTable {
    */
   public void reset() {
 
-    Timber.w("reset: %s", (TextUtils.isEmpty(persistentHashTableId) ? "Default"
-        : persistentHashTableId));
+    Timber.w("reset: %s", persistentHashTableIdOrDefault());
 
+    final SharedPreferences sharedPreferences = table();
     sharedPreferences.edit().clear().apply();
+    // Not every platform version notifies the listeners when a table is cleared
+    keyIndex(sharedPreferences).rebuild();
+  }
+
+  /**
+   * Starts loading the table in a background thread, so the first read does not block the caller.
+   * Call it as early as possible, like from {@link android.app.Application#onCreate()}
+   *
+   * @return {@link Completable} that completes once the table is loaded
+   */
+  public synchronized Completable ready() {
+
+    if (warmUp == null) {
+      final AsyncSubject<Object> loaded = AsyncSubject.create();
+      // Opening does not wait for the table, take the one to load before it can be switched
+      final SharedPreferences table = openTable();
+      Schedulers.io().scheduleDirect(new Runnable() {
+        @Override
+        public void run() {
+          final long start = System.nanoTime();
+          try {
+            // Any read waits until the whole table is in memory
+            table.contains(persistentHashTableIdOrDefault());
+            markReady(table);
+            Timber.d("ready: %s loaded in %d ms", persistentHashTableIdOrDefault(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            loaded.onComplete();
+          } catch (RuntimeException e) {
+            loaded.onError(e);
+          }
+        }
+      });
+      warmUp = loaded;
+    }
+    return warmUp.ignoreElements();
+  }
+
+  /**
+   * Blocks the caller until the table is loaded, starting to load it if needed
+   */
+  public void awaitReady() {
+
+    if (ready) {
+      return;
+    }
+    final long start = System.nanoTime();
+    ready().blockingAwait();
+    onBlocked(System.nanoTime() - start);
+  }
+
+  /**
+   * Provides the time callers spent blocked waiting for the table to be loaded
+   *
+   * @param timeUnit {@link TimeUnit} of the returned time
+   * @return {@link Long} with the total blocked time
+   */
+  public long getBlockedTime(@NonNull TimeUnit timeUnit) {
+
+    return timeUnit.convert(blockedNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Releases the memory held by the {@link PersistentHashTable}. The table keeps working, it is
+   * loaded again the next time it is accessed
+   */
+  public void release() {
+
+    final SharedPreferences current = sharedPreferences;
+    // Nothing to release if it was never opened
+    if (current != null) {
+      storageEngine.release(current);
+    }
+  }
+
+  /**
+   * Releases the memory held by the {@link PersistentHashTable} and its hold of the index of its
+   * keys, so nothing keeps the table in memory once every handle of the table is closed or dropped.
+   * The handle keeps working, the table and its index are loaded again the next time it is accessed
+   */
+  synchronized void close() {
+
+    final SharedPreferences current = sharedPreferences;
+    if (current != null) {
+      storageEngine.release(current);
+      // The index observes the hub of the table, once no handle keeps it the hub is freed too
+      final KeyIndex index = keyIndex;
+      keyIndex = null;
+      if (index != null) {
+        index.release();
+      }
+      ready = false;
+      warmUp = null;
+    }
   }
 
   /**
@@ -390,8 +897,136 @@ public class PersistentHashTable {
     Timber.w("switchStorage: %s", persistentHashTableId);
 
     this.persistentHashTableId = persistentHashTableId;
-    sharedPreferences = context.getSharedPreferences(this.persistentHashTableId, Context
-        .MODE_PRIVATE);
+    sharedPreferences = storageEngine.open(context, this.persistentHashTableId);
+    ready = false;
+    warmUp = null;
+  }
+
+  /**
+   * Provides the table in use, measuring the time the caller is blocked if it is not loaded yet
+   *
+   * @return {@link SharedPreferences} with the table in use
+   */
+  private SharedPreferences table() {
+
+    final SharedPreferences table = openTable();
+    if (!ready) {
+      final long start = System.nanoTime();
+      // Any read waits until the whole table is in memory
+      table.contains(persistentHashTableIdOrDefault());
+      markReady(table);
+      onBlocked(System.nanoTime() - start);
+    }
+    return table;
+  }
+
+  /**
+   * Marks the table as loaded, unless the handle switched to another table meanwhile
+   *
+   * @param table {@link SharedPreferences} with the loaded table
+   */
+  private synchronized void markReady(SharedPreferences table) {
+
+    if (sharedPreferences == table) {
+      ready = true;
+    }
+  }
+
+  /**
+   * Provides the table in use, opening it the first time
+   *
+   * @return {@link SharedPreferences} with the table in use
+   */
+  private SharedPreferences openTable() {
+
+    final SharedPreferences current = sharedPreferences;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      if (sharedPreferences == null) {
+        sharedPreferences = persistentHashTableId == null ? storageEngine.openDefault(context)
+            : storageEngine.open(context, persistentHashTableId);
+      }
+      return sharedPreferences;
+    }
+  }
+
+  /**
+   * Provides the {@link KeyIndex} of the given table. The index of the table in use is kept, so
+   * reads do not look it up
+   *
+   * @param sharedPreferences {@link SharedPreferences} with the table
+   * @return {@link KeyIndex} of the table
+   */
+  private KeyIndex keyIndex(SharedPreferences sharedPreferences) {
+
+    final KeyIndex current = keyIndex;
+    if (current != null && current.isOf(sharedPreferences)) {
+      return current;
+    }
+    return acquireKeyIndex(sharedPreferences);
+  }
+
+  /**
+   * Acquires the {@link KeyIndex} of the given table if it is the table in use, releasing the one
+   * of the previous table
+   *
+   * @param sharedPreferences {@link SharedPreferences} with the table
+   * @return {@link KeyIndex} of the table
+   */
+  private synchronized KeyIndex acquireKeyIndex(SharedPreferences sharedPreferences) {
+
+    final KeyIndex current = keyIndex;
+    if (current != null && current.isOf(sharedPreferences)) {
+      return current;
+    }
+    if (sharedPreferences != this.sharedPreferences) {
+      // Read of a table the handle switched away from, the handle does not keep its index
+      return KeyIndex.of(sharedPreferences, EXPIRY_KEY_PREFIX);
+    }
+    final KeyIndex index = KeyIndex.acquire(sharedPreferences, EXPIRY_KEY_PREFIX);
+    keyIndex = index;
+    if (current != null) {
+      current.release();
+    }
+    return index;
+  }
+
+  /**
+   * Updates the given key, and the key of its expiry, in the given {@link KeyIndex}. The index is
+   * updated by the writers themselves, as the platform notifies the changes asynchronously
+   *
+   * @param keyIndex {@link KeyIndex} to update
+   * @param cleanKey {@link String} with the already cleaned key
+   */
+  private static void refreshKey(KeyIndex keyIndex, String cleanKey) {
+
+    keyIndex.refresh(cleanKey, EXPIRY_KEY_PREFIX + cleanKey);
+  }
+
+  /**
+   * Records the time a caller was blocked waiting for the table to be loaded
+   *
+   * @param nanos {@link Long} with the blocked time in nanoseconds
+   */
+  private void onBlocked(long nanos) {
+
+    blockedNanos.addAndGet(nanos);
+    final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    if (millis > 0) {
+      Timber.w("%s blocked %d ms waiting for %s to load", Looper.myLooper() == Looper
+          .getMainLooper() ? "Main thread" : Thread.currentThread().getName(), millis,
+          persistentHashTableIdOrDefault());
+    }
+  }
+
+  /**
+   * @return {@link String} with the id of the table in use, for logging purposes
+   */
+  private String persistentHashTableIdOrDefault() {
+
+    return TextUtils.isEmpty(persistentHashTableId) ? "Default" : persistentHashTableId;
   }
 
   /**
@@ -406,9 +1041,316 @@ public class PersistentHashTable {
     // Remove empty spaces and break lines from beginning and end of lines
     // SharedPreferences has a bug -> http://bit.ly/1ooQ7wE
     String keyToUse = key.trim();
-    Preconditions.checkArgument(!TextUtils.isEmpty(keyToUse), String.format("%s key is not "
-        + "supported", key));
+    Preconditions.checkArgument(!TextUtils.isEmpty(keyToUse)
+        && !keyToUse.startsWith(EXPIRY_KEY_PREFIX), String.format("%s key is not supported", key));
     return keyToUse;
   }
 
+  /**
+   * Checks if the time to live of the value of the given key is over. Expired values are removed
+   * from disk in the next group commit, so reads never wait for the disk
+   *
+   * @param sharedPreferences {@link SharedPreferences} with the table to check
+   * @param cleanKey {@link String} with the already cleaned key
+   * @return {@link Boolean} indicating if the value expired
+   */
+  private boolean isExpired(SharedPreferences sharedPreferences, String cleanKey) {
+
+    final KeyIndex keyIndex = keyIndex(sharedPreferences);
+    if (!keyIndex.isExpired(cleanKey, System.currentTimeMillis())) {
+      return false;
+    }
+    removeExpired(sharedPreferences, keyIndex, cleanKey);
+    return true;
+  }
+
+  /**
+   * Queues the removal of the expired value of the given key in the group committer
+   *
+   * @param sharedPreferences {@link SharedPreferences} with the table of the value
+   * @param keyIndex {@link KeyIndex} of the table
+   * @param cleanKey {@link String} with the already cleaned key
+   */
+  private void removeExpired(SharedPreferences sharedPreferences, final KeyIndex keyIndex,
+      final String cleanKey) {
+
+    groupCommitter.submit(sharedPreferences, new GroupCommitter.Modifications() {
+      @Override
+      public void applyTo(SharedPreferences.Editor editor) {
+        // Unless a writer replaced the value meanwhile
+        if (keyIndex.isExpired(cleanKey, System.currentTimeMillis())) {
+          editor.remove(EXPIRY_KEY_PREFIX + cleanKey).remove(cleanKey);
+        }
+      }
+
+      @Override
+      public void onCommitted() {
+        refreshKey(keyIndex, cleanKey);
+      }
+    });
+  }
+
+  /**
+   * Puts the given value in the given {@link SharedPreferences.Editor}
+   *
+   * @param editor {@link SharedPreferences.Editor} to write to
+   * @param key {@link String} with the already cleaned key
+   * @param value {@link Object} with the value to save
+   */
+  private void putValue(SharedPreferences.Editor editor, String key, Object value) {
+
+    // Values saved without time to live never expire
+    editor.remove(EXPIRY_KEY_PREFIX + key);
+
+    if (cipher != null) {
+      ValueCodec<Object> codec = nativeCodecOf(value.getClass());
+      if (codec == null) {
+        codec = codecOf(value.getClass());
+      }
+      Preconditions.checkArgument(codec != null, String.format("Saving %s type is not "
+          + "supported", value.getClass()));
+      try {
+        // Encoded bytes are encrypted straight away, only the stored result is Base64 encoded
+        editor.putString(key, Base64.encodeToString(cipher.encrypt(codec.encode(value)),
+            Base64.NO_WRAP));
+      } catch (Exception e) {
+        throw new IllegalArgumentException(String.format("Unable to encrypt %s", key), e);
+      }
+      return;
+    }
+
+    // Check each supported type
+    if (value instanceof Boolean) {
+      editor.putBoolean(key, (Boolean) value);
+      return;
+    }
+    if (value instanceof String) {
+      editor.putString(key, (String) value);
+      return;
+    }
+    if (value instanceof Float) {
+      editor.putFloat(key, (Float) value);
+      return;
+    }
+    if (value instanceof Long) {
+      editor.putLong(key, (Long) value);
+      return;
+    }
+    if (value instanceof Date) {
+      editor.putLong(key, ((Date) value).getTime());
+      return;
+    }
+    if (value instanceof Integer) {
+      editor.putInt(key, (Integer) value);
+      return;
+    }
+
+    // Fallback to the registered codecs
+    final ValueCodec<Object> codec = codecOf(value.getClass());
+    if (codec != null) {
+      try {
+        editor.putString(key, Base64.encodeToString(codec.encode(value), Base64.NO_WRAP));
+      } catch (Exception e) {
+        throw new IllegalArgumentException(String.format("Unable to encode %s", key), e);
+      }
+      return;
+    }
+
+    // If reached this point we are trying to save a not supported type. Throw exception
+    throw new IllegalArgumentException(String.format("Saving %s type is not supported",
+        value.getClass()));
+  }
+
+  /**
+   * Provides the {@link ValueCodec} registered for the given {@link Class} or any of its parents
+   *
+   * @param clazz {@link Class} of the values
+   * @param <T> {@link T} type of the values
+   * @return {@link ValueCodec} of the values, null if none is registered
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private <T> ValueCodec<T> codecOf(Class<?> clazz) {
+
+    final ValueCodec<?> codec = codecs.get(clazz);
+    if (codec != null) {
+      return (ValueCodec<T>) codec;
+    }
+    for (Map.Entry<Class<?>, ValueCodec<?>> entry : codecs.entrySet()) {
+      if (entry.getKey().isAssignableFrom(clazz)) {
+        return (ValueCodec<T>) entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Provides the {@link ValueCodec} of the given {@link Class}, if it is natively supported
+   *
+   * @param clazz {@link Class} of the values
+   * @param <T> {@link T} type of the values
+   * @return {@link ValueCodec} of the values, null if the class is not natively supported
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private <T> ValueCodec<T> nativeCodecOf(Class<?> clazz) {
+
+    // Subclasses of Date are the only natively supported subclasses
+    return (ValueCodec<T>) (Date.class.isAssignableFrom(clazz) ? ValueCodecs.DATE
+        : NATIVE_CODECS.get(clazz));
+  }
+
+  /**
+   * Checks if the given id of a table is not empty
+   *
+   * @param persistentHashTableId {@link String} with the id to check
+   * @return {@link String} with the given id
+   */
+  private static String checkTableId(String persistentHashTableId) {
+
+    Preconditions.checkArgument(!TextUtils.isEmpty(persistentHashTableId), "Provided "
+        + "HashTableId is empty");
+    return persistentHashTableId;
+  }
+
+  /**
+   * Creates the {@link SecurityUtils.BinaryCipher} of the given key
+   *
+   * @param encryptionKey {@link String} with the key
+   * @return {@link SecurityUtils.BinaryCipher} of the key
+   */
+  private static SecurityUtils.BinaryCipher createCipher(String encryptionKey) {
+
+    try {
+      return new SecurityUtils.BinaryCipher(encryptionKey);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("Provided encryption key is not valid", e);
+    }
+  }
+
+  /**
+   * Checks if the given value can be saved in the table
+   *
+   * @param value {@link Object} to check
+   * @return {@link Boolean} indicating if the type of the value is supported
+   */
+  private boolean isSupported(Object value) {
+
+    return isNativelySupported(value.getClass()) || codecOf(value.getClass()) != null;
+  }
+
+  /**
+   * Checks if the given {@link Class} is stored natively by the table
+   *
+   * @param clazz {@link Class} to check
+   * @return {@link Boolean} indicating if the class is supported without a codec
+   */
+  private static boolean isNativelySupported(Class<?> clazz) {
+
+    return Boolean.class.equals(clazz) || String.class.equals(clazz) || Float.class.equals(clazz)
+        || Long.class.equals(clazz) || Date.class.isAssignableFrom(clazz)
+        || Integer.class.equals(clazz);
+  }
+
+  /**
+   * Value decoded by a {@link ValueCodec}, with the encoded value it was decoded from
+   */
+  private static final class DecodedValue {
+
+    final String encodedValue;
+    final Object value;
+
+    DecodedValue(String encodedValue, Object value) {
+
+      this.encodedValue = encodedValue;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Group of modifications written to disk at once. Modifications become visible to readers once
+   * the {@link Completable} returned by {@link #commit()} completes
+   */
+  public final class Batch {
+
+    private final SharedPreferences target;
+    private final Map<String, Object> modifications = new LinkedHashMap<>();
+    private boolean committed;
+
+    /**
+     * Constructor
+     *
+     * @param target {@link SharedPreferences} the batch is written to
+     */
+    private Batch(SharedPreferences target) {
+
+      this.target = target;
+    }
+
+    /**
+     * Puts a new value in the batch using the given {@link String} key
+     *
+     * @param key {@link String} with the key to save
+     * @param value {@link T} with the value to save
+     * @param <T> {@link T} class to save
+     * @return {@link Batch} to continue adding modifications
+     */
+    public synchronized <T> Batch put(@NonNull String key, @NonNull T value) {
+
+      Preconditions.checkState(!committed, "Batch already committed");
+      // Check the type straight away, instead of failing when the group is written
+      Preconditions.checkArgument(isSupported(value), String.format("Saving %s type is not "
+          + "supported", value.getClass()));
+      modifications.put(validateAndCleanKey(key), value);
+      return this;
+    }
+
+    /**
+     * Removes the value with the given {@link String} key
+     *
+     * @param key {@link String} with the key to remove
+     * @return {@link Batch} to continue adding modifications
+     */
+    public synchronized Batch remove(@NonNull String key) {
+
+      Preconditions.checkState(!committed, "Batch already committed");
+      modifications.put(validateAndCleanKey(key), REMOVED);
+      return this;
+    }
+
+    /**
+     * Commits the batch. Batches committed by concurrent writers are written together
+     *
+     * @return {@link Completable} that completes once the modifications are on disk
+     */
+    public synchronized Completable commit() {
+
+      Preconditions.checkState(!committed, "Batch already committed");
+      committed = true;
+
+      final Map<String, Object> modificationsToWrite = new LinkedHashMap<>(modifications);
+      return groupCommitter.submit(target, new GroupCommitter.Modifications() {
+        @Override
+        public void applyTo(SharedPreferences.Editor editor) {
+          for (Map.Entry<String, Object> modification : modificationsToWrite.entrySet()) {
+            if (modification.getValue() == REMOVED) {
+              editor.remove(modification.getKey());
+              editor.remove(EXPIRY_KEY_PREFIX + modification.getKey());
+            } else {
+              putValue(editor, modification.getKey(), modification.getValue());
+            }
+          }
+        }
+
+        @Override
+        public void onCommitted() {
+          final KeyIndex keyIndex = keyIndex(target);
+          for (String key : modificationsToWrite.keySet()) {
+            refreshKey(keyIndex, key);
+          }
+        }
+      });
+    }
+  }
+
 }
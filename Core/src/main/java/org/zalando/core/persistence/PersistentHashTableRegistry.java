@@ -0,0 +1,120 @@
+package org.zalando.core.persistence;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import io.reactivex.Completable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.zalando.core.utils.Preconditions;
+import timber.log.Timber;
+
+/**
+ * Provides independent {@link PersistentHashTable} handles per table id, so modules using different
+ * tables never switch a shared instance. Only the most recently used tables are kept open in
+ * memory, the least recently used ones are released once the limit is reached
+ */
+@Singleton
+public class PersistentHashTableRegistry {
+
+  private static final int DEFAULT_MAX_OPEN_TABLES = 8;
+
+  private final Context context;
+  private final StorageEngine storageEngine;
+  private final int maxOpenTables;
+  private final Map<String, PersistentHashTable> openTables;
+
+  /**
+   * Constructor. Tables are stored in the platform {@link android.content.SharedPreferences}
+   *
+   * @param applicationContext {@link Context} of the application
+   */
+  @Inject
+  public PersistentHashTableRegistry(Context applicationContext) {
+
+    this(applicationContext, new SharedPreferencesEngine(), DEFAULT_MAX_OPEN_TABLES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param applicationContext {@link Context} of the application
+   * @param storageEngine {@link StorageEngine} that stores the data of the tables
+   * @param maxOpenTables {@link Integer} with the maximum number of tables kept open in memory
+   */
+  public PersistentHashTableRegistry(Context applicationContext,
+      @NonNull StorageEngine storageEngine, int maxOpenTables) {
+
+    Preconditions.checkArgument(maxOpenTables > 0, "At least one table must be kept open");
+
+    context = applicationContext.getApplicationContext();
+    this.storageEngine = storageEngine;
+    this.maxOpenTables = maxOpenTables;
+    // Access ordered, so the eldest entry is the least recently used table
+    openTables = new LinkedHashMap<String, PersistentHashTable>(maxOpenTables, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PersistentHashTable> eldest) {
+        if (size() <= PersistentHashTableRegistry.this.maxOpenTables) {
+          return false;
+        }
+        Timber.d("evict: %s", eldest.getKey());
+        eldest.getValue().close();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Provides the {@link PersistentHashTable} with the given id. It creates the table if it does
+   * not exist
+   *
+   * @param persistentHashTableId {@link String} with the id of the table
+   * @return {@link PersistentHashTable} bound to the given id
+   */
+  public synchronized PersistentHashTable get(@NonNull String persistentHashTableId) {
+
+    Preconditions.checkArgument(!TextUtils.isEmpty(persistentHashTableId), "Provided "
+        + "HashTableId is empty");
+
+    PersistentHashTable table = openTables.get(persistentHashTableId);
+    if (table == null) {
+      table = new PersistentHashTable(context, storageEngine, persistentHashTableId);
+      openTables.put(persistentHashTableId, table);
+    }
+    return table;
+  }
+
+  /**
+   * Loads the tables with the given ids in a background thread, so the first access to them does
+   * not wait for the disk
+   *
+   * @param persistentHashTableIds {@link String}s with the ids of the tables to load
+   * @return {@link Completable} that completes once all the tables are loaded
+   */
+  public Completable preload(@NonNull String... persistentHashTableIds) {
+
+    final List<Completable> loads = new ArrayList<>(persistentHashTableIds.length);
+    for (String persistentHashTableId : persistentHashTableIds) {
+      loads.add(get(persistentHashTableId).ready());
+    }
+    return Completable.merge(loads);
+  }
+
+  /**
+   * Releases the table with the given id, if it is open, and everything held in memory for it
+   *
+   * @param persistentHashTableId {@link String} with the id of the table
+   */
+  public synchronized void evict(@NonNull String persistentHashTableId) {
+
+    final PersistentHashTable table = openTables.remove(persistentHashTableId);
+    if (table != null) {
+      table.close();
+    }
+  }
+
+}
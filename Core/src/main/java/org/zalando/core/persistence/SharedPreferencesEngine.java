@@ -0,0 +1,31 @@
+package org.zalando.core.persistence;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link StorageEngine} that keeps the tables in the platform XML backed {@link SharedPreferences}
+ */
+public class SharedPreferencesEngine implements StorageEngine {
+
+  @Override
+  public SharedPreferences openDefault(@NonNull Context context) {
+
+    return PreferenceManager.getDefaultSharedPreferences(context);
+  }
+
+  @Override
+  public SharedPreferences open(@NonNull Context context, @NonNull String id) {
+
+    return context.getSharedPreferences(id, Context.MODE_PRIVATE);
+  }
+
+  @Override
+  public void release(@NonNull SharedPreferences table) {
+
+    // The platform keeps its tables cached for the whole life of the process
+  }
+
+}
@@ -0,0 +1,39 @@
+package org.zalando.core.persistence;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+/**
+ * Definition of the storage backends able to hold the data of a {@link PersistentHashTable}. Every
+ * backend exposes its tables through the {@link SharedPreferences} contract, so the table behaves
+ * the same regardless of how the data is laid out on disk
+ */
+public interface StorageEngine {
+
+  /**
+   * Opens the default table of the application
+   *
+   * @param context {@link Context} of the application
+   * @return {@link SharedPreferences} with the default table
+   */
+  SharedPreferences openDefault(@NonNull Context context);
+
+  /**
+   * Opens the table with the given id. It creates the table if it does not exist
+   *
+   * @param context {@link Context} of the application
+   * @param id {@link String} with the id of the table
+   * @return {@link SharedPreferences} with the requested table
+   */
+  SharedPreferences open(@NonNull Context context, @NonNull String id);
+
+  /**
+   * Releases the memory held by the given table. The table keeps working, it is loaded again the
+   * next time it is accessed
+   *
+   * @param table {@link SharedPreferences} with a table opened by this engine
+   */
+  void release(@NonNull SharedPreferences table);
+
+}
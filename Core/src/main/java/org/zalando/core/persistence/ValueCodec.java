@@ -0,0 +1,33 @@
+package org.zalando.core.persistence;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Definition of the codecs that let a {@link PersistentHashTable} store values of types it does not
+ * support natively, using a compact binary representation
+ *
+ * @param <T> {@link T} type of the values handled by the codec
+ */
+public interface ValueCodec<T> {
+
+  /**
+   * Encodes the given value
+   *
+   * @param value {@link T} to encode
+   * @return byte array with the encoded value
+   * @throws Exception if the value could not be encoded
+   */
+  @NonNull
+  byte[] encode(@NonNull T value) throws Exception;
+
+  /**
+   * Decodes a value previously encoded by this codec
+   *
+   * @param bytes byte array with the encoded value
+   * @return {@link T} with the decoded value
+   * @throws Exception if the value could not be decoded
+   */
+  @NonNull
+  T decode(@NonNull byte[] bytes) throws Exception;
+
+}
@@ -0,0 +1,190 @@
+package org.zalando.core.persistence;
+
+import android.support.annotation.NonNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Built-in {@link ValueCodec}s
+ */
+public class ValueCodecs {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * {@link ValueCodec} of raw byte arrays
+   */
+  public static final ValueCodec<byte[]> BYTES = new ValueCodec<byte[]>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull byte[] value) {
+      return value;
+    }
+
+    @NonNull
+    @Override
+    public byte[] decode(@NonNull byte[] bytes) {
+      return bytes;
+    }
+  };
+
+  /**
+   * {@link ValueCodec} of UTF-8 {@link String}s, mostly useful as element codec of lists
+   */
+  public static final ValueCodec<String> STRING = new ValueCodec<String>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull String value) {
+      return value.getBytes(UTF_8);
+    }
+
+    @NonNull
+    @Override
+    public String decode(@NonNull byte[] bytes) {
+      return new String(bytes, UTF_8);
+    }
+  };
+
+  /**
+   * {@link ValueCodec} of {@link Boolean}s
+   */
+  public static final ValueCodec<Boolean> BOOLEAN = new ValueCodec<Boolean>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Boolean value) {
+      return new byte[] {(byte) (value ? 1 : 0)};
+    }
+
+    @NonNull
+    @Override
+    public Boolean decode(@NonNull byte[] bytes) {
+      return bytes[0] != 0;
+    }
+  };
+
+  /**
+   * {@link ValueCodec} of {@link Integer}s
+   */
+  public static final ValueCodec<Integer> INTEGER = new ValueCodec<Integer>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Integer value) {
+      return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    @NonNull
+    @Override
+    public Integer decode(@NonNull byte[] bytes) {
+      return ByteBuffer.wrap(bytes).getInt();
+    }
+  };
+
+  /**
+   * {@link ValueCodec} of {@link Long}s
+   */
+  public static final ValueCodec<Long> LONG = new ValueCodec<Long>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Long value) {
+      return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    @NonNull
+    @Override
+    public Long decode(@NonNull byte[] bytes) {
+      return ByteBuffer.wrap(bytes).getLong();
+    }
+  };
+
+  /**
+   * {@link ValueCodec} of {@link Float}s
+   */
+  public static final ValueCodec<Float> FLOAT = new ValueCodec<Float>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Float value) {
+      return ByteBuffer.allocate(4).putFloat(value).array();
+    }
+
+    @NonNull
+    @Override
+    public Float decode(@NonNull byte[] bytes) {
+      return ByteBuffer.wrap(bytes).getFloat();
+    }
+  };
+
+  /**
+   * {@link ValueCodec} of {@link Date}s, stored as milliseconds
+   */
+  public static final ValueCodec<Date> DATE = new ValueCodec<Date>() {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Date value) {
+      return LONG.encode(value.getTime());
+    }
+
+    @NonNull
+    @Override
+    public Date decode(@NonNull byte[] bytes) {
+      return new Date(LONG.decode(bytes));
+    }
+  };
+
+  /**
+   * Private constructor to avoid object instance
+   */
+  private ValueCodecs() {
+  }
+
+  /**
+   * Creates a {@link ValueCodec} of {@link List}s. Every element is stored length-prefixed and
+   * encoded with the given element codec
+   *
+   * @param elementCodec {@link ValueCodec} of the elements
+   * @param <E> {@link E} type of the elements
+   * @return {@link ValueCodec} of {@link List}s of the given elements
+   */
+  public static <E> ValueCodec<List<E>> listOf(@NonNull final ValueCodec<E> elementCodec) {
+
+    return new ValueCodec<List<E>>() {
+      @NonNull
+      @Override
+      public byte[] encode(@NonNull List<E> value) throws Exception {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(value.size());
+        for (E element : value) {
+          final byte[] encodedElement = elementCodec.encode(element);
+          output.writeInt(encodedElement.length);
+          output.write(encodedElement);
+        }
+        output.flush();
+        return bytes.toByteArray();
+      }
+
+      @NonNull
+      @Override
+      public List<E> decode(@NonNull byte[] bytes) throws Exception {
+
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        final int size = input.readInt();
+        final List<E> elements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          final byte[] encodedElement = new byte[input.readInt()];
+          input.readFully(encodedElement);
+          elements.add(elementCodec.decode(encodedElement));
+        }
+        return elements;
+      }
+    };
+  }
+
+}
@@ -2,6 +2,7 @@ package org.zalando.core.utils;
 
 import android.os.Build;
 import android.os.Process;
+import android.support.annotation.NonNull;
 import android.util.Base64;
 import android.util.Pair;
 import java.io.ByteArrayOutputStream;
@@ -131,6 +132,126 @@ public class SecurityUtils {
     return Base64.encodeToString(textToTransform.getBytes(), flags);
   }
 
+  /**
+   * Encrypts and decrypts binary data with AES CBC and an HMAC SHA256 integrity check, like {@link
+   * #encrypt(String)}. The key is parsed only once and every thread reuses its own {@link Cipher}
+   * and {@link Mac}, so instances are meant to be kept and shared. Encrypted data holds the IV, the
+   * MAC and the cipher text, in that order
+   */
+  public static final class BinaryCipher {
+
+    private static final int MAC_LENGTH_BYTES = 32;
+    private static final int HEADER_LENGTH_BYTES = AesCbcWithIntegrity.IV_LENGTH_BYTES
+        + MAC_LENGTH_BYTES;
+
+    // Ciphers are initialized on every operation, so they are shared by all the keys
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+      @Override
+      protected Cipher initialValue() {
+        try {
+          return Cipher.getInstance(AesCbcWithIntegrity.CIPHER_TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+
+    private final AesCbcWithIntegrity.SecretKeys secretKeys;
+    private final SecureRandom random;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Constructor
+     *
+     * @param key {@link String} with the key, as generated by {@link
+     * SecurityUtils#generateKey(String)}
+     * @throws GeneralSecurityException if the key is not valid or AES is not implemented on this
+     * system
+     */
+    public BinaryCipher(@NonNull String key) throws GeneralSecurityException {
+
+      secretKeys = AesCbcWithIntegrity.keys(key);
+      AesCbcWithIntegrity.fixPrng();
+      random = SecureRandom.getInstance(AesCbcWithIntegrity.RANDOM_ALGORITHM);
+      macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+          try {
+            final Mac mac = Mac.getInstance(AesCbcWithIntegrity.HMAC_ALGORITHM);
+            mac.init(secretKeys.getIntegrityKey());
+            return mac;
+          } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+    }
+
+    /**
+     * Encrypts the given data with a random IV
+     *
+     * @param plainData byte array to encrypt
+     * @return byte array with the IV, the MAC and the cipher text
+     * @throws GeneralSecurityException if AES is not implemented on this system
+     */
+    public byte[] encrypt(@NonNull byte[] plainData) throws GeneralSecurityException {
+
+      final byte[] iv = new byte[AesCbcWithIntegrity.IV_LENGTH_BYTES];
+      random.nextBytes(iv);
+      final Cipher cipher = CIPHERS.get();
+      cipher.init(Cipher.ENCRYPT_MODE, secretKeys.getConfidentialityKey(),
+          new IvParameterSpec(iv));
+
+      // The cipher text is written straight after the header, without intermediate copies
+      byte[] encryptedData = new byte[HEADER_LENGTH_BYTES
+          + cipher.getOutputSize(plainData.length)];
+      // Some Android versions do funny stuff with the IV, so the one actually used is stored
+      System.arraycopy(cipher.getIV(), 0, encryptedData, 0, AesCbcWithIntegrity.IV_LENGTH_BYTES);
+      final int cipherTextLength = cipher.doFinal(plainData, 0, plainData.length, encryptedData,
+          HEADER_LENGTH_BYTES);
+      if (HEADER_LENGTH_BYTES + cipherTextLength < encryptedData.length) {
+        encryptedData = Arrays.copyOf(encryptedData, HEADER_LENGTH_BYTES + cipherTextLength);
+      }
+
+      final Mac mac = macs.get();
+      mac.reset();
+      mac.update(encryptedData, 0, AesCbcWithIntegrity.IV_LENGTH_BYTES);
+      mac.update(encryptedData, HEADER_LENGTH_BYTES, cipherTextLength);
+      mac.doFinal(encryptedData, AesCbcWithIntegrity.IV_LENGTH_BYTES);
+      return encryptedData;
+    }
+
+    /**
+     * Decrypts the given data, checking its integrity first
+     *
+     * @param encryptedData byte array with the IV, the MAC and the cipher text
+     * @return byte array with the decrypted data
+     * @throws GeneralSecurityException if the data was not encrypted with the same key or AES is
+     * not implemented on this system
+     */
+    public byte[] decrypt(@NonNull byte[] encryptedData) throws GeneralSecurityException {
+
+      if (encryptedData.length < HEADER_LENGTH_BYTES) {
+        throw new GeneralSecurityException("Encrypted data is too short");
+      }
+
+      final Mac mac = macs.get();
+      mac.reset();
+      mac.update(encryptedData, 0, AesCbcWithIntegrity.IV_LENGTH_BYTES);
+      mac.update(encryptedData, HEADER_LENGTH_BYTES, encryptedData.length - HEADER_LENGTH_BYTES);
+      if (!AesCbcWithIntegrity.constantTimeEq(mac.doFinal(), Arrays.copyOfRange(encryptedData,
+          AesCbcWithIntegrity.IV_LENGTH_BYTES, HEADER_LENGTH_BYTES))) {
+        throw new GeneralSecurityException("Stored MAC does not match computed MAC.");
+      }
+
+      final Cipher cipher = CIPHERS.get();
+      cipher.init(Cipher.DECRYPT_MODE, secretKeys.getConfidentialityKey(),
+          new IvParameterSpec(encryptedData, 0, AesCbcWithIntegrity.IV_LENGTH_BYTES));
+      return cipher.doFinal(encryptedData, HEADER_LENGTH_BYTES,
+          encryptedData.length - HEADER_LENGTH_BYTES);
+    }
+  }
+
   /**
    * Utility class used for encryption and decryption. Source: http://bit.ly/1EJijAI
    */
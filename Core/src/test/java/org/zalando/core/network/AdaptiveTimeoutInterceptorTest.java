@@ -0,0 +1,133 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link AdaptiveTimeoutInterceptor}
+ */
+public class AdaptiveTimeoutInterceptorTest {
+
+  private static final String BASE_URL = "https://api.example.com/";
+
+  private AdaptiveTimeoutInterceptor interceptor;
+  private StubServer server;
+  private volatile int readTimeout;
+
+  @Before
+  public void setup() {
+
+    interceptor = new AdaptiveTimeoutInterceptor(2, 30, TimeUnit.SECONDS);
+    server = StubServer.always(200, "{}");
+  }
+
+  @Test
+  public void testTimeoutAdapted() throws IOException {
+
+    final OkHttpClient client = client(new OkHttpClient.Builder());
+    execute(client, "fast", 20);
+
+    assertEquals(2000, interceptor.getTimeoutMillis(request("fast")));
+    execute(client, "fast", 1);
+    assertEquals(2000, readTimeout);
+  }
+
+  @Test
+  public void testTimeoutPerEndpoint() throws IOException {
+
+    execute(client(new OkHttpClient.Builder()), "fast", 20);
+
+    assertEquals(30000, interceptor.getTimeoutMillis(request("slow")));
+  }
+
+  @Test
+  public void testCacheResponsesNotRecorded() throws IOException {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "{}").cacheResponse(new Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .build());
+      }
+    });
+    execute(client(new OkHttpClient.Builder()), "fast", 20);
+
+    assertEquals(30000, interceptor.getTimeoutMillis(request("fast")));
+  }
+
+  @Test
+  public void testClientTimeoutReplaced() throws IOException {
+
+    final OkHttpClient client = client(new OkHttpClient.Builder()
+        .readTimeout(60, TimeUnit.SECONDS));
+    execute(client, "fast", 21);
+
+    assertEquals(2000, readTimeout);
+  }
+
+  @Test
+  public void testLongerClientTimeoutKept() throws IOException {
+
+    interceptor = new AdaptiveTimeoutInterceptor(2, 30, TimeUnit.SECONDS, true);
+    final OkHttpClient client = client(new OkHttpClient.Builder()
+        .readTimeout(60, TimeUnit.SECONDS));
+    execute(client, "fast", 21);
+
+    assertEquals(60000, readTimeout);
+  }
+
+  @Test
+  public void testClientTimeoutOfTenSecondsKept() throws IOException {
+
+    interceptor = new AdaptiveTimeoutInterceptor(2, 30, TimeUnit.SECONDS, true);
+    // Same as the default timeout of OkHttp, still kept when asked to
+    final OkHttpClient client = client(new OkHttpClient.Builder()
+        .readTimeout(10, TimeUnit.SECONDS));
+    execute(client, "fast", 21);
+
+    assertEquals(10000, readTimeout);
+  }
+
+  private OkHttpClient client(OkHttpClient.Builder builder) {
+
+    return builder
+        .addInterceptor(interceptor)
+        .addInterceptor(new Interceptor() {
+          @Override
+          public Response intercept(Chain chain) throws IOException {
+
+            readTimeout = chain.readTimeoutMillis();
+            return chain.proceed(chain.request());
+          }
+        })
+        .addInterceptor(server)
+        .build();
+  }
+
+  private static void execute(OkHttpClient client, String path, int times) throws IOException {
+
+    for (int i = 0; i < times; i++) {
+      client.newCall(request(path)).execute().close();
+    }
+  }
+
+  private static Request request(String path) {
+
+    return new Request.Builder().url(BASE_URL + path).build();
+  }
+
+}
@@ -0,0 +1,180 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Converter;
+
+/**
+ * Test for {@link BinaryConverterFactory}, {@link BinaryJsonWriter} and {@link BinaryJsonReader}
+ */
+public class BinaryConverterFactoryTest {
+
+  private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+  static final class Entity {
+
+    String name;
+    Map<String, Integer> counts;
+  }
+
+  private Buffer buffer;
+  private BinaryJsonWriter writer;
+
+  @Before
+  public void setup() {
+
+    buffer = new Buffer();
+    writer = new BinaryJsonWriter(buffer);
+  }
+
+  @Test
+  public void testNegativeZero() throws IOException {
+
+    writer.beginArray().value(-0.0).value(0.0).endArray();
+
+    final BinaryJsonReader reader = new BinaryJsonReader(buffer);
+    reader.beginArray();
+    final double negativeZero = reader.nextDouble();
+    assertEquals(0, negativeZero, 0);
+    assertTrue(1 / negativeZero < 0);
+    assertTrue(1 / reader.nextDouble() > 0);
+    reader.endArray();
+  }
+
+  @Test
+  public void testLongBounds() throws IOException {
+
+    writer.beginArray().value(Long.MIN_VALUE).value(Long.MAX_VALUE).value(-1).endArray();
+
+    final BinaryJsonReader reader = new BinaryJsonReader(buffer);
+    reader.beginArray();
+    assertEquals(Long.MIN_VALUE, reader.nextLong());
+    assertEquals(Long.MAX_VALUE, reader.nextLong());
+    assertEquals(-1, reader.nextLong());
+    reader.endArray();
+  }
+
+  @Test
+  public void testMoreNamesThanIndexed() throws IOException {
+
+    final int names = BinaryJsonWriter.MAX_NAMES + 10;
+    // Second object refers to the indexed names and writes the others in full
+    writer.beginArray();
+    for (int object = 0; object < 2; object++) {
+      writer.beginObject();
+      for (int i = 0; i < names; i++) {
+        writer.name("name" + i).value(i);
+      }
+      writer.endObject();
+    }
+    writer.endArray();
+
+    final BinaryJsonReader reader = new BinaryJsonReader(buffer);
+    reader.beginArray();
+    for (int object = 0; object < 2; object++) {
+      reader.beginObject();
+      for (int i = 0; i < names; i++) {
+        assertEquals("name" + i, reader.nextName());
+        assertEquals(i, reader.nextInt());
+      }
+      reader.endObject();
+    }
+    reader.endArray();
+  }
+
+  @Test
+  public void testSkipValue() throws IOException {
+
+    writer.beginObject()
+        .name("skipped").beginObject()
+        .name("nested").beginArray().value(1).value("a").nullValue().value(true).value(0.5)
+        .endArray()
+        .endObject()
+        .name("nested").value(3)
+        .endObject();
+
+    final BinaryJsonReader reader = new BinaryJsonReader(buffer);
+    reader.beginObject();
+    assertEquals("skipped", reader.nextName());
+    reader.skipValue();
+    // Names read while skipping can be referred to later
+    assertEquals("nested", reader.nextName());
+    assertEquals(3, reader.nextInt());
+    reader.endObject();
+  }
+
+  @Test
+  public void testMapsRoundTrip() throws IOException {
+
+    final Gson gson = new Gson();
+    final Entity entity = new Entity();
+    entity.name = "entity";
+    entity.counts = new LinkedHashMap<>();
+    entity.counts.put("first", 1);
+    entity.counts.put("second", 2);
+
+    final Entity read = roundTrip(gson, Entity.class, entity);
+
+    assertEquals("entity", read.name);
+    assertEquals(entity.counts, read.counts);
+  }
+
+  @Test
+  public void testRequestsSerializeNullsAsGson() throws IOException {
+
+    final Gson gson = new GsonBuilder().serializeNulls().create();
+    final Buffer body = new Buffer();
+    requestConverter(BinaryConverterFactory.create(gson, true), Entity.class)
+        .convert(new Entity()).writeTo(body);
+
+    final JsonElement tree = TypeAdapters.JSON_ELEMENT.read(new BinaryJsonReader(body));
+    assertTrue(tree.getAsJsonObject().get("name").isJsonNull());
+  }
+
+  @Test
+  public void testRequestsInJsonUnlessAsked() {
+
+    final Type type = new TypeToken<Map<String, Integer>>() {
+    }.getType();
+
+    assertNull(BinaryConverterFactory.create(new Gson()).requestBodyConverter(type,
+        NO_ANNOTATIONS, NO_ANNOTATIONS, null));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(Gson gson, Type type, T value) throws IOException {
+
+    final BinaryConverterFactory factory = BinaryConverterFactory.create(gson, true);
+    final Buffer body = new Buffer();
+    requestConverter(factory, type).convert(value).writeTo(body);
+    return ((Converter<ResponseBody, T>) factory.responseBodyConverter(type, NO_ANNOTATIONS,
+        null)).convert(ResponseBody.create(BinaryConverterFactory.MEDIA_TYPE,
+        body.readByteString()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Converter<T, RequestBody> requestConverter(BinaryConverterFactory factory,
+      Type type) {
+
+    return (Converter<T, RequestBody>) factory.requestBodyConverter(type, NO_ANNOTATIONS,
+        NO_ANNOTATIONS, null);
+  }
+
+}
@@ -0,0 +1,199 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.core.exception.CircuitOpenException;
+
+/**
+ * Test for {@link CircuitBreakerInterceptor}
+ */
+public class CircuitBreakerInterceptorTest {
+
+  private static final String HOST = "api.example.com";
+  private static final StubServer.Handler OK = new StubServer.Handler() {
+    @Override
+    public Response.Builder handle(Request request) {
+
+      return StubServer.response(200, "{}");
+    }
+  };
+
+  private static final StubServer.Handler REFUSED = new StubServer.Handler() {
+    @Override
+    public Response.Builder handle(Request request) throws IOException {
+
+      throw new ConnectException("Connection refused");
+    }
+  };
+
+  private CircuitBreakerInterceptor breaker;
+  private StubServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setup() {
+
+    // Opens after 2 failed calls, lets a single probe through straight away
+    breaker = new CircuitBreakerInterceptor(0.5f, 2, 2, 0, TimeUnit.MILLISECONDS, 1);
+    server = StubServer.always(503, "{}");
+    client = new OkHttpClient.Builder()
+        .addInterceptor(breaker)
+        .addInterceptor(server)
+        .build();
+  }
+
+  @Test
+  public void testOpensAndCloses() throws IOException {
+
+    execute();
+    execute();
+    assertEquals(CircuitBreakerInterceptor.State.OPEN, breaker.getState(HOST));
+
+    server.setHandler(OK);
+    execute();
+    assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState(HOST));
+  }
+
+  @Test
+  public void testOpenCircuitFailsFast() throws IOException {
+
+    // Stays open long enough
+    breaker = new CircuitBreakerInterceptor(0.5f, 2, 2, 1, TimeUnit.HOURS, 1);
+    client = new OkHttpClient.Builder()
+        .addInterceptor(breaker)
+        .addInterceptor(server)
+        .build();
+    execute();
+    execute();
+
+    try {
+      execute();
+      fail("Request sent through an open circuit");
+    } catch (CircuitOpenException e) {
+      assertEquals(HOST, e.getHost());
+    }
+    assertEquals(2, server.getRequests().size());
+  }
+
+  @Test
+  public void testProbeFailingUnexpectedlyIsGivenBack() throws IOException {
+
+    execute();
+    execute();
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        throw new IllegalStateException("Broken interceptor");
+      }
+    });
+    try {
+      execute();
+      fail("Probe did not fail");
+    } catch (IllegalStateException expected) {
+      // Expected
+    }
+
+    // The next request is let through as a probe, instead of finding the circuit locked
+    server.setHandler(OK);
+    execute();
+    assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState(HOST));
+  }
+
+  @Test
+  public void testRefusedConnectionsOpen() {
+
+    server.setHandler(REFUSED);
+    for (int i = 0; i < 2; i++) {
+      try {
+        execute();
+        fail("Request did not fail");
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+
+    assertEquals(CircuitBreakerInterceptor.State.OPEN, breaker.getState(HOST));
+  }
+
+  @Test
+  public void testProbeFailingToConnectOpensAgain() throws IOException {
+
+    execute();
+    execute();
+    server.setHandler(REFUSED);
+    try {
+      execute();
+      fail("Probe did not fail");
+    } catch (ConnectException expected) {
+      // Expected
+    }
+
+    assertEquals(CircuitBreakerInterceptor.State.OPEN, breaker.getState(HOST));
+  }
+
+  @Test
+  public void testOfflineFailuresNotCounted() {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) throws IOException {
+
+        throw new UnknownHostException(HOST);
+      }
+    });
+    for (int i = 0; i < 3; i++) {
+      try {
+        execute();
+        fail("Request did not fail");
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+
+    assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState(HOST));
+  }
+
+  @Test
+  public void testCanceledCallsNotCounted() {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) throws IOException {
+
+        throw new IOException("Canceled");
+      }
+    });
+    for (int i = 0; i < 3; i++) {
+      try {
+        execute();
+        fail("Request did not fail");
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+
+    assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState(HOST));
+  }
+
+  private void execute() throws IOException {
+
+    client.newCall(request()).execute().close();
+  }
+
+  private static Request request() {
+
+    return new Request.Builder().url("https://" + HOST + "/entity").build();
+  }
+
+}
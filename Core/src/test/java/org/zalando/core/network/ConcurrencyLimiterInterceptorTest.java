@@ -0,0 +1,178 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link ConcurrencyLimiterInterceptor}
+ */
+public class ConcurrencyLimiterInterceptorTest {
+
+  private static final String HOST = "api.example.com";
+
+  private ConcurrencyLimiterInterceptor limiter;
+
+  @Before
+  public void setup() {
+
+    limiter = new ConcurrencyLimiterInterceptor(4, 100);
+  }
+
+  @Test
+  public void testPriorityHeaderRemoved() throws IOException {
+
+    final StubServer server = StubServer.always(200, "{}");
+    execute(client(limiter, server), "/entity", RequestPriority.HIGH);
+
+    assertNull(server.getRequests().get(0).header(RequestPriority.HEADER));
+  }
+
+  @Test
+  public void testPriorityHeaderRemovedWithoutLimiter() throws IOException {
+
+    final StubServer server = StubServer.always(200, "{}");
+    execute(client(new PriorityHeaderInterceptor(), server), "/entity", RequestPriority.LOW);
+
+    assertNull(server.getRequests().get(0).header(RequestPriority.HEADER));
+  }
+
+  @Test
+  public void testCacheResponsesKeepLimit() throws IOException {
+
+    final StubServer server = StubServer.always(200, "{}");
+    final OkHttpClient client = client(limiter, server);
+    execute(client, "/entity", null);
+    final int limit = limiter.getLimit(HOST);
+
+    // Slow, but served by the cache
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        sleep(50);
+        return StubServer.response(200, "{}").cacheResponse(new Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .build());
+      }
+    });
+    execute(client, "/entity", null);
+
+    assertEquals(limit, limiter.getLimit(HOST));
+  }
+
+  @Test
+  public void testFailuresShrinkLimit() {
+
+    final OkHttpClient client = client(limiter, failing(new ConnectException("Refused")));
+    executeFailing(client);
+
+    assertEquals(2, limiter.getLimit(HOST));
+  }
+
+  @Test
+  public void testOfflineFailuresKeepLimit() {
+
+    final OkHttpClient client = client(limiter, failing(new UnknownHostException(HOST)));
+    executeFailing(client);
+
+    assertEquals(4, limiter.getLimit(HOST));
+  }
+
+  @Test
+  public void testCanceledCallsKeepLimit() {
+
+    final OkHttpClient client = client(limiter, failing(new IOException("Canceled")));
+    executeFailing(client);
+
+    assertEquals(4, limiter.getLimit(HOST));
+  }
+
+  @Test
+  public void testLatencyComparedPerEndpoint() throws IOException {
+
+    final StubServer server = new StubServer(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        if (request.url().encodedPath().startsWith("/slow")) {
+          sleep(50);
+        }
+        return StubServer.response(200, "{}");
+      }
+    });
+    final OkHttpClient client = client(limiter, server);
+    execute(client, "/fast", null);
+    final int limit = limiter.getLimit(HOST);
+
+    // The slow endpoint is as fast as it ever was, so the limit keeps growing
+    execute(client, "/slow", null);
+
+    assertTrue(limiter.getLimit(HOST) > limit);
+  }
+
+  private static OkHttpClient client(Interceptor interceptor, StubServer server) {
+
+    return new OkHttpClient.Builder()
+        .addInterceptor(interceptor)
+        .addInterceptor(server)
+        .build();
+  }
+
+  private static StubServer failing(final IOException failure) {
+
+    return new StubServer(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) throws IOException {
+
+        throw failure;
+      }
+    });
+  }
+
+  private static void executeFailing(OkHttpClient client) {
+
+    try {
+      execute(client, "/entity", null);
+      fail("Request did not fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  private static void execute(OkHttpClient client, String path, String priority)
+      throws IOException {
+
+    final Request.Builder request = new Request.Builder().url("https://" + HOST + path);
+    if (priority != null) {
+      final int separator = priority.indexOf(':');
+      request.header(priority.substring(0, separator), priority.substring(separator + 1).trim());
+    }
+    client.newCall(request.build()).execute().close();
+  }
+
+  private static void sleep(long millis) {
+
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
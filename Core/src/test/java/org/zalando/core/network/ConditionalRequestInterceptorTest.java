@@ -0,0 +1,187 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+import retrofit2.http.GET;
+import retrofit2.http.Path;
+
+/**
+ * Test for {@link ConditionalRequestInterceptor}
+ */
+public class ConditionalRequestInterceptorTest {
+
+  private static final String BASE_URL = "https://api.example.com/";
+
+  interface EntityApi {
+
+    @GET("{path}")
+    Call<Entity> get(@Path("path") String path);
+  }
+
+  static final class Entity {
+
+    String path;
+  }
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private StubServer server;
+
+  @Before
+  public void setup() {
+
+    directory = temporaryFolder.getRoot();
+    server = new StubServer(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        final String etag = "\"" + request.url().encodedPath() + "\"";
+        if (etag.equals(request.header("If-None-Match"))) {
+          return StubServer.response(304, "");
+        }
+        return StubServer.response(200, "{\"path\":\"" + request.url().encodedPath() + "\"}")
+            .header("ETag", etag);
+      }
+    });
+  }
+
+  @Test
+  public void testNotModifiedServesStoredBody() throws IOException {
+
+    final OkHttpClient client = client(new ConditionalRequestInterceptor(directory));
+    assertEquals("{\"path\":\"/a\"}", get(client, "a"));
+
+    assertEquals("{\"path\":\"/a\"}", get(client, "a"));
+    assertEquals("\"/a\"", server.getRequests().get(1).header("If-None-Match"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedRemoved() throws IOException {
+
+    final OkHttpClient client = client(new ConditionalRequestInterceptor(directory,
+        1024, 2));
+    get(client, "a");
+    get(client, "b");
+    // Uses a, so b is the least recently used one
+    get(client, "a");
+    get(client, "c");
+
+    get(client, "b");
+    assertNull(server.getRequests().get(4).header("If-None-Match"));
+    get(client, "c");
+    assertEquals("\"/c\"", server.getRequests().get(5).header("If-None-Match"));
+  }
+
+  @Test
+  public void testBodiesLargerThanMaxSizeNotStored() throws IOException {
+
+    final OkHttpClient client = client(new ConditionalRequestInterceptor(directory,
+        4, 2));
+    get(client, "a");
+
+    get(client, "a");
+    assertNull(server.getRequests().get(1).header("If-None-Match"));
+  }
+
+  @Test
+  public void testConcurrentBodiesStoredApart() throws IOException {
+
+    final OkHttpClient client = client(new ConditionalRequestInterceptor(directory));
+    final Response first = client.newCall(request("a")).execute();
+    final Response second = client.newCall(request("a")).execute();
+    assertEquals("{\"path\":\"/a\"}", first.body().string());
+    assertEquals("{\"path\":\"/a\"}", second.body().string());
+
+    final String[] tempFiles = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+
+        return name.endsWith(".tmp");
+      }
+    });
+    assertEquals(0, tempFiles.length);
+    assertEquals("{\"path\":\"/a\"}", get(client, "a"));
+    assertEquals("\"/a\"", server.getRequests().get(2).header("If-None-Match"));
+  }
+
+  @Test
+  public void testStoredThroughGsonConverter() throws IOException {
+
+    final EntityApi api = api(client(new ConditionalRequestInterceptor(directory)));
+    assertEquals("/a", api.get("a").execute().body().path);
+
+    // The converter closed the body at the end of the JSON value
+    assertEquals("/a", api.get("a").execute().body().path);
+    assertEquals("\"/a\"", server.getRequests().get(1).header("If-None-Match"));
+  }
+
+  @Test
+  public void testUnknownLengthStoredThroughGsonConverter() throws IOException {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        if (request.header("If-None-Match") != null) {
+          return StubServer.response(304, "");
+        }
+        final Buffer body = new Buffer().writeUtf8("{\"path\":\"/a\"}");
+        return StubServer.response(200, "")
+            .header("ETag", "\"/a\"")
+            .body(ResponseBody.create(StubServer.JSON, -1, body));
+      }
+    });
+    final EntityApi api = api(client(new ConditionalRequestInterceptor(directory)));
+    assertEquals("/a", api.get("a").execute().body().path);
+
+    assertEquals("/a", api.get("a").execute().body().path);
+    assertEquals("\"/a\"", server.getRequests().get(1).header("If-None-Match"));
+  }
+
+  private static EntityApi api(OkHttpClient client) {
+
+    return new Retrofit.Builder()
+        .baseUrl(BASE_URL)
+        .client(client)
+        .addConverterFactory(GsonConverterFactory.create())
+        .build()
+        .create(EntityApi.class);
+  }
+
+  private OkHttpClient client(ConditionalRequestInterceptor interceptor) {
+
+    return new OkHttpClient.Builder()
+        .addInterceptor(interceptor)
+        .addInterceptor(server)
+        .build();
+  }
+
+  private static String get(OkHttpClient client, String path) throws IOException {
+
+    return client.newCall(request(path)).execute().body().string();
+  }
+
+  private static Request request(String path) {
+
+    return new Request.Builder().url(BASE_URL + path).build();
+  }
+
+}
@@ -0,0 +1,126 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test for {@link FileTransfer}
+ */
+public class FileTransferTest {
+
+  private static final String URL = "https://api.example.com/file";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private StubServer server;
+  private File file;
+  private File partialFile;
+  private File validatorFile;
+
+  @Before
+  public void setup() throws IOException {
+
+    server = StubServer.always(200, "");
+    RestApiFactory.setBaseClient(new OkHttpClient.Builder().addInterceptor(server).build());
+
+    file = new File(temporaryFolder.getRoot(), "file");
+    partialFile = new File(file.getPath() + ".part");
+    validatorFile = new File(file.getPath() + ".validator");
+    // Previous download interrupted after 6 bytes
+    write(partialFile, "hello ");
+    write(validatorFile, "\"v1\"");
+  }
+
+  @Test
+  public void testResume() throws IOException {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(206, "world").header("ETag", "\"v1\"");
+      }
+    });
+    FileTransfer.download(URL, file, null).blockingGet();
+
+    final Request request = server.getRequests().get(0);
+    assertEquals("bytes=6-", request.header("Range"));
+    assertEquals("\"v1\"", request.header("If-Range"));
+    assertEquals("hello world", read(file));
+    assertFalse(partialFile.exists());
+    assertFalse(validatorFile.exists());
+  }
+
+  @Test
+  public void testRangeNotSatisfiableRestarts() throws IOException {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        if (request.header("Range") != null) {
+          return StubServer.response(416, "");
+        }
+        return StubServer.response(200, "hello world").header("ETag", "\"v2\"");
+      }
+    });
+    FileTransfer.download(URL, file, null).blockingGet();
+
+    assertEquals(2, server.getRequests().size());
+    assertNull(server.getRequests().get(1).header("Range"));
+    assertEquals("hello world", read(file));
+  }
+
+  @Test
+  public void testWholeFileReplacesPartial() throws IOException {
+
+    // The file changed on the server, so the range is ignored
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "new file").header("ETag", "\"v2\"");
+      }
+    });
+    FileTransfer.download(URL, file, null).blockingGet();
+
+    assertEquals(1, server.getRequests().size());
+    assertEquals("new file", read(file));
+  }
+
+  private static void write(File file, String content) throws IOException {
+
+    final BufferedSink sink = Okio.buffer(Okio.sink(file));
+    try {
+      sink.writeUtf8(content);
+    } finally {
+      sink.close();
+    }
+  }
+
+  private static String read(File file) throws IOException {
+
+    final BufferedSource source = Okio.buffer(Okio.source(file));
+    try {
+      return source.readUtf8();
+    } finally {
+      source.close();
+    }
+  }
+
+}
@@ -0,0 +1,314 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.Request;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+
+/**
+ * Test for {@link HedgingCallAdapterFactory}
+ */
+public class HedgingCallAdapterFactoryTest {
+
+  private static final Request REQUEST = new Request.Builder()
+      .url("https://api.example.com/entity").build();
+
+  interface EntityApi {
+
+    Call<String> getEntity();
+  }
+
+  private final List<FakeCall> hedges = new CopyOnWriteArrayList<>();
+  private HedgingCallAdapterFactory factory;
+  private CallAdapter<String, Call<String>> adapter;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setup() throws NoSuchMethodException {
+
+    // Hedges every late request after 10 milliseconds
+    factory = new HedgingCallAdapterFactory(10, TimeUnit.MILLISECONDS, 1);
+    final Retrofit retrofit = new Retrofit.Builder()
+        .baseUrl("https://api.example.com/")
+        .addCallAdapterFactory(factory)
+        .build();
+    final Type returnType = EntityApi.class.getMethod("getEntity").getGenericReturnType();
+    adapter = (CallAdapter<String, Call<String>>) factory.get(returnType, new Annotation[0],
+        retrofit);
+  }
+
+  @Test
+  public void testPrimaryWins() {
+
+    final FakeCall primary = new FakeCall();
+    final RecordingCallback callback = new RecordingCallback();
+    adapter.adapt(primary).enqueue(callback);
+    primary.respond("primary");
+
+    assertEquals("primary", callback.response.body());
+    assertEquals(1, callback.calls.get());
+    assertTrue(hedges.isEmpty());
+  }
+
+  @Test
+  public void testHedgeWins() throws InterruptedException {
+
+    recordLatencies();
+    final FakeCall primary = new FakeCall();
+    final RecordingCallback callback = new RecordingCallback();
+    adapter.adapt(primary).enqueue(callback);
+    final FakeCall hedge = awaitHedge();
+    hedge.respond("hedge");
+
+    assertEquals("hedge", callback.response.body());
+    assertEquals(1, callback.calls.get());
+    assertTrue(primary.isCanceled());
+    assertEquals(1, factory.getHedgeCount());
+  }
+
+  @Test
+  public void testBothFail() throws InterruptedException {
+
+    recordLatencies();
+    final FakeCall primary = new FakeCall();
+    final RecordingCallback callback = new RecordingCallback();
+    adapter.adapt(primary).enqueue(callback);
+    final FakeCall hedge = awaitHedge();
+
+    // Waits for the hedge
+    primary.fail(new SocketTimeoutException());
+    assertEquals(0, callback.calls.get());
+
+    hedge.fail(new IOException("Hedge failed"));
+    assertEquals("Hedge failed", callback.failure.getMessage());
+    assertEquals(1, callback.calls.get());
+  }
+
+  @Test
+  public void testCancelBeforeStart() throws InterruptedException {
+
+    recordLatencies();
+    final FakeCall primary = new FakeCall();
+    final RecordingCallback callback = new RecordingCallback();
+    final Call<String> call = adapter.adapt(primary);
+    call.cancel();
+    call.enqueue(callback);
+
+    assertTrue(primary.isCanceled());
+    assertNotNull(callback.failure);
+    assertEquals(1, callback.calls.get());
+    // Longer than the hedge delay
+    Thread.sleep(100);
+    assertTrue(hedges.isEmpty());
+  }
+
+  @Test
+  public void testExecuteNotHedgedOnCallingThread() throws IOException {
+
+    final FakeCall primary = new FakeCall();
+
+    assertEquals("executed", adapter.adapt(primary).execute().body());
+    assertEquals(Thread.currentThread(), primary.executingThread);
+  }
+
+  @Test
+  public void testExecuteInterrupted() throws InterruptedException {
+
+    recordLatencies();
+    final FakeCall primary = new FakeCall();
+    final Call<String> call = adapter.adapt(primary);
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+
+        try {
+          call.execute();
+        } catch (Throwable t) {
+          thrown.set(t);
+          interrupted.set(Thread.currentThread().isInterrupted());
+        }
+      }
+    });
+    thread.start();
+    while (!primary.isExecuted()) {
+      Thread.sleep(5);
+    }
+    thread.interrupt();
+    thread.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertFalse(thread.isAlive());
+    assertTrue(thrown.get() instanceof InterruptedIOException);
+    assertTrue(interrupted.get());
+    assertTrue(primary.isCanceled());
+  }
+
+  /**
+   * Records enough fast latencies for the endpoint to be hedged
+   */
+  private void recordLatencies() {
+
+    for (int i = 0; i < 20; i++) {
+      final FakeCall primary = new FakeCall();
+      adapter.adapt(primary).enqueue(new RecordingCallback());
+      primary.respond("primary");
+    }
+  }
+
+  private FakeCall awaitHedge() throws InterruptedException {
+
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (hedges.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, hedges.size());
+    return hedges.get(0);
+  }
+
+  /**
+   * {@link Callback} recording what it is called with
+   */
+  private static final class RecordingCallback implements Callback<String> {
+
+    final AtomicInteger calls = new AtomicInteger();
+    volatile Response<String> response;
+    volatile Throwable failure;
+
+    @Override
+    public void onResponse(Call<String> call, Response<String> response) {
+
+      this.response = response;
+      calls.incrementAndGet();
+    }
+
+    @Override
+    public void onFailure(Call<String> call, Throwable t) {
+
+      failure = t;
+      calls.incrementAndGet();
+    }
+  }
+
+  /**
+   * {@link Call} answered by the test. Like OkHttp, it fails once canceled
+   */
+  private final class FakeCall implements Call<String> {
+
+    private Callback<String> callback;
+    private volatile Thread executingThread;
+    private boolean executed;
+    private boolean canceled;
+    private boolean done;
+
+    @Override
+    public Response<String> execute() {
+
+      synchronized (this) {
+        executed = true;
+      }
+      executingThread = Thread.currentThread();
+      return Response.success("executed");
+    }
+
+    @Override
+    public void enqueue(Callback<String> callback) {
+
+      final boolean canceledBefore;
+      synchronized (this) {
+        this.callback = callback;
+        executed = true;
+        canceledBefore = canceled;
+      }
+      if (canceledBefore) {
+        fail(new IOException("Canceled"));
+      }
+    }
+
+    @Override
+    public synchronized boolean isExecuted() {
+
+      return executed;
+    }
+
+    @Override
+    public void cancel() {
+
+      final boolean enqueued;
+      synchronized (this) {
+        canceled = true;
+        enqueued = callback != null;
+      }
+      if (enqueued) {
+        fail(new IOException("Canceled"));
+      }
+    }
+
+    @Override
+    public synchronized boolean isCanceled() {
+
+      return canceled;
+    }
+
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    @Override
+    public Call<String> clone() {
+
+      final FakeCall clone = new FakeCall();
+      hedges.add(clone);
+      return clone;
+    }
+
+    @Override
+    public Request request() {
+
+      return REQUEST;
+    }
+
+    void respond(String body) {
+
+      final Callback<String> currentCallback = finish();
+      if (currentCallback != null) {
+        currentCallback.onResponse(this, Response.success(body));
+      }
+    }
+
+    void fail(IOException e) {
+
+      final Callback<String> currentCallback = finish();
+      if (currentCallback != null) {
+        currentCallback.onFailure(this, e);
+      }
+    }
+
+    private synchronized Callback<String> finish() {
+
+      if (done || callback == null) {
+        return null;
+      }
+      done = true;
+      return callback;
+    }
+  }
+
+}
@@ -0,0 +1,50 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void testEmpty() {
+
+    assertEquals(0, histogram.getPercentileMillis(95));
+  }
+
+  @Test
+  public void testPercentileInterpolatedWithinBucket() {
+
+    // All latencies fall in the bucket from 200 to 500 ms
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(200 + i * 30, TimeUnit.MILLISECONDS);
+    }
+
+    assertEquals(350, histogram.getPercentileMillis(50));
+    assertEquals(485, histogram.getPercentileMillis(95));
+    assertEquals(500, histogram.getPercentileMillis(100));
+  }
+
+  @Test
+  public void testPercentileNeverAboveMax() {
+
+    histogram.record(210, TimeUnit.MILLISECONDS);
+    histogram.record(220, TimeUnit.MILLISECONDS);
+
+    assertEquals(220, histogram.getPercentileMillis(95));
+  }
+
+  @Test
+  public void testSlowestBucketInterpolatedUpToMax() {
+
+    histogram.record(61000, TimeUnit.MILLISECONDS);
+    histogram.record(70000, TimeUnit.MILLISECONDS);
+
+    assertEquals(65000, histogram.getPercentileMillis(50));
+    assertEquals(70000, histogram.getPercentileMillis(100));
+  }
+
+}
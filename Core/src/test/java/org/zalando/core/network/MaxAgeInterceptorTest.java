@@ -0,0 +1,100 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link MaxAgeInterceptor}
+ */
+public class MaxAgeInterceptorTest {
+
+  private static final String BASE_URL = "https://api.example.com";
+
+  private StubServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setup() {
+
+    final Map<String, Long> maxAgeSeconds = new LinkedHashMap<>();
+    maxAgeSeconds.put("/catalog/articles", 300L);
+    maxAgeSeconds.put("/catalog", 60L);
+    server = StubServer.always(200, "{}");
+    client = new OkHttpClient.Builder()
+        .addInterceptor(new MaxAgeInterceptor(maxAgeSeconds))
+        .addInterceptor(server)
+        .build();
+  }
+
+  @Test
+  public void testLongestPrefixWins() throws IOException {
+
+    assertEquals("max-age=300", cacheControlOf(get("/catalog/articles/1")));
+    assertEquals("max-age=60", cacheControlOf(get("/catalog/brands")));
+  }
+
+  @Test
+  public void testServerHeadersOverridden() throws IOException {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "{}")
+            .header("Cache-Control", "no-store")
+            .header("Pragma", "no-cache");
+      }
+    });
+    final Response response = client.newCall(get("/catalog/articles/1")).execute();
+    response.close();
+
+    assertEquals("max-age=300", response.header("Cache-Control"));
+    assertNull(response.header("Pragma"));
+  }
+
+  @Test
+  public void testUnmatchedPathsUntouched() throws IOException {
+
+    assertNull(cacheControlOf(get("/cart")));
+  }
+
+  @Test
+  public void testOnlySuccessfulGetsCached() throws IOException {
+
+    assertNull(cacheControlOf(new Request.Builder().url(BASE_URL + "/catalog/articles")
+        .post(RequestBody.create(StubServer.JSON, "{}"))
+        .build()));
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(404, "{}");
+      }
+    });
+    assertNull(cacheControlOf(get("/catalog/articles/1")));
+  }
+
+  private static Request get(String path) {
+
+    return new Request.Builder().url(BASE_URL + path).build();
+  }
+
+  private String cacheControlOf(Request request) throws IOException {
+
+    final Response response = client.newCall(request).execute();
+    response.close();
+    return response.header("Cache-Control");
+  }
+
+}
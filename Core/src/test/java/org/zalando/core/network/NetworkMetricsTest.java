@@ -0,0 +1,85 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Map;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link NetworkMetrics}
+ */
+public class NetworkMetricsTest {
+
+  private NetworkMetrics metrics;
+  private Call call;
+
+  @Before
+  public void setup() {
+
+    metrics = new NetworkMetrics();
+    call = new OkHttpClient().newCall(new Request.Builder()
+        .url("https://placeholder.example.com/users/42").build());
+  }
+
+  @Test
+  public void testTemplate() {
+
+    assertEquals("GET api.example.com/users/{id}/orders/{id}", NetworkMetrics.templateOf(
+        new Request.Builder().url("https://api.example.com/users/42/orders/"
+            + "123e4567-e89b-12d3-a456-426655440000").build()));
+  }
+
+  @Test
+  public void testRecordedInEndpointOfNetworkRequest() {
+
+    // An interceptor sent the call to another host
+    final Request networkRequest = new Request.Builder()
+        .url("https://api.example.com/users/42").build();
+    final EventListener listener = metrics.getEventListenerFactory().create(call);
+    listener.callStart(call);
+    listener.requestHeadersStart(call);
+    listener.requestHeadersEnd(call, networkRequest);
+    listener.responseHeadersStart(call);
+    listener.responseHeadersEnd(call, new Response.Builder()
+        .request(networkRequest)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .build());
+    listener.responseBodyEnd(call, 10);
+    listener.callEnd(call);
+
+    final Map<String, EndpointMetrics> endpoints = metrics.getEndpoints();
+    assertFalse(endpoints.containsKey("GET placeholder.example.com/users/{id}"));
+    final EndpointMetrics endpoint = endpoints.get("GET api.example.com/users/{id}");
+    assertEquals(1, endpoint.getTimeToFirstByte().getCount());
+    assertEquals(1, endpoint.getTotalLatency().getCount());
+    assertEquals(1, endpoint.getStatusCount(2));
+    assertEquals(10, endpoint.getResponseBytes());
+    // Not measured, the connection was reused
+    assertEquals(0, endpoint.getConnectLatency().getCount());
+  }
+
+  @Test
+  public void testFailureBeforeNetworkRecordedInEndpointOfCall() {
+
+    final EventListener listener = metrics.getEventListenerFactory().create(call);
+    listener.callStart(call);
+    listener.callFailed(call, new IOException("Unreachable"));
+
+    final EndpointMetrics endpoint = metrics.getEndpoints()
+        .get("GET placeholder.example.com/users/{id}");
+    assertEquals(1, endpoint.getFailedCount());
+    assertEquals(0, endpoint.getTimeToFirstByte().getCount());
+  }
+
+}
@@ -0,0 +1,152 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link RequestCoalescingInterceptor}
+ */
+public class RequestCoalescingInterceptorTest {
+
+  private static final String URL = "https://api.example.com/entity";
+
+  private final CountDownLatch respond = new CountDownLatch(1);
+  private RequestCoalescingInterceptor interceptor;
+  private StubServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setup() {
+
+    interceptor = new RequestCoalescingInterceptor();
+    server = StubServer.always(200, "{}");
+    client = new OkHttpClient.Builder()
+        .addInterceptor(interceptor)
+        .addInterceptor(server)
+        .build();
+  }
+
+  @Test
+  public void testIdenticalRequestsAreCoalesced() throws Exception {
+
+    server.setHandler(blocking("{\"name\":\"value\"}".length(), "{\"name\":\"value\"}"));
+
+    final String[] bodies = new String[2];
+    final Thread leader = execute(new Request.Builder().url(URL)
+        .header(RequestPriority.HEADER, "high").build(), bodies, 0);
+    awaitRequests(1);
+    // Same request with another priority
+    final Thread follower = execute(new Request.Builder().url(URL)
+        .header(RequestPriority.HEADER, "low").build(), bodies, 1);
+    awaitWaiting(follower);
+    respond.countDown();
+    leader.join();
+    follower.join();
+
+    assertEquals(1, server.getRequests().size());
+    assertEquals(1, interceptor.getDeduplicatedRequests());
+    assertEquals("{\"name\":\"value\"}", bodies[0]);
+    assertEquals("{\"name\":\"value\"}", bodies[1]);
+  }
+
+  @Test
+  public void testBodiesOfUnknownLengthAreNotShared() throws Exception {
+
+    server.setHandler(blocking(-1, "{}"));
+
+    final String[] bodies = new String[2];
+    final Thread leader = execute(new Request.Builder().url(URL).build(), bodies, 0);
+    awaitRequests(1);
+    final Thread follower = execute(new Request.Builder().url(URL).build(), bodies, 1);
+    awaitWaiting(follower);
+    respond.countDown();
+    leader.join();
+    follower.join();
+
+    // The follower went to the network on its own
+    assertEquals(2, server.getRequests().size());
+    assertEquals(0, interceptor.getDeduplicatedRequests());
+    assertEquals("{}", bodies[0]);
+    assertEquals("{}", bodies[1]);
+  }
+
+  @Test
+  public void testRequestsWithBodiesAreNotCoalesced() throws Exception {
+
+    final Request request = new Request.Builder().url(URL)
+        .post(RequestBody.create(StubServer.JSON, "{}")).build();
+    client.newCall(request).execute().close();
+    client.newCall(request).execute().close();
+
+    assertEquals(2, server.getRequests().size());
+  }
+
+  /**
+   * Creates a handler answering once the test lets it
+   *
+   * @param contentLength {@link Long} with the length of the body, -1 if unknown
+   * @param body {@link String} with the body
+   * @return {@link StubServer.Handler} answering the body
+   */
+  private StubServer.Handler blocking(final long contentLength, final String body) {
+
+    return new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) throws IOException {
+
+        try {
+          respond.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return StubServer.response(200, body).body(ResponseBody.create(StubServer.JSON,
+            contentLength, new Buffer().writeUtf8(body)));
+      }
+    };
+  }
+
+  private Thread execute(final Request request, final String[] bodies, final int index) {
+
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final Response response = client.newCall(request).execute();
+          bodies[index] = response.body().string();
+        } catch (IOException e) {
+          bodies[index] = e.toString();
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private void awaitRequests(int count) throws InterruptedException {
+
+    for (int i = 0; i < 500 && server.getRequests().size() < count; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, server.getRequests().size());
+  }
+
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+
+    for (int i = 0; i < 500 && thread.getState() != Thread.State.WAITING; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(Thread.State.WAITING, thread.getState());
+  }
+
+}
@@ -0,0 +1,86 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Build;
+import io.reactivex.Single;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.zalando.core.BuildConfig;
+import retrofit2.http.GET;
+
+/**
+ * Test for {@link RestApiFactory}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP, manifest =
+    "src/main/AndroidManifest.xml")
+public class RestApiFactoryTest {
+
+  private static final String BASE_URL = "https://api.example.com/";
+
+  interface EntityApi {
+
+    @GET("entity")
+    Single<Entity> getEntity();
+  }
+
+  static final class Entity {
+
+    String name;
+  }
+
+  private StubServer server;
+  private List<Interceptor> interceptors;
+
+  @Before
+  public void setup() {
+
+    // Clears the Retrofit objects of previous tests
+    RestApiFactory.setBaseClient(new OkHttpClient());
+    server = StubServer.always(200, "{\"name\":\"value\"}");
+    interceptors = Collections.<Interceptor>singletonList(server);
+  }
+
+  @Test
+  public void testRequest() {
+
+    final EntityApi api = RestApiFactory.createApi(EntityApi.class, BASE_URL, interceptors, null,
+        false);
+
+    assertEquals("value", api.getEntity().blockingGet().name);
+    assertEquals(1, server.getRequests().size());
+    assertEquals("/entity", server.getRequests().get(0).url().encodedPath());
+  }
+
+  @Test
+  public void testRetrofitsAreReused() {
+
+    RestApiFactory.createApi(EntityApi.class, BASE_URL, interceptors, null, false);
+    // Another list with the same interceptors
+    RestApiFactory.createApi(EntityApi.class, BASE_URL,
+        Collections.<Interceptor>singletonList(server), null, false);
+    assertEquals(1, RestApiFactory.getRetrofitCount());
+
+    RestApiFactory.createApi(EntityApi.class, BASE_URL, interceptors, null, true);
+    assertEquals(2, RestApiFactory.getRetrofitCount());
+  }
+
+  @Test
+  public void testRetrofitsAreBounded() {
+
+    for (int i = 0; i < RestApiFactory.MAX_RETROFITS + 5; i++) {
+      RestApiFactory.createApi(EntityApi.class, "https://api" + i + ".example.com/",
+          interceptors, null, false);
+    }
+    assertEquals(RestApiFactory.MAX_RETROFITS, RestApiFactory.getRetrofitCount());
+  }
+
+}
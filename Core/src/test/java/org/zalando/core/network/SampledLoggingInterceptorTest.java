@@ -0,0 +1,245 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import timber.log.Timber;
+
+/**
+ * Test for {@link SampledLoggingInterceptor}
+ */
+public class SampledLoggingInterceptorTest {
+
+  private static final String URL = "https://api.example.com/entity";
+
+  private final List<String> logs = new CopyOnWriteArrayList<>();
+  private final Timber.Tree tree = new Timber.Tree() {
+    @Override
+    protected void log(int priority, String tag, String message, Throwable t) {
+
+      logs.add(message);
+    }
+  };
+  private StubServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setup() {
+
+    Timber.plant(tree);
+    server = StubServer.always(200, "{\"name\":\"value\"}");
+    final SampledLoggingInterceptor interceptor = new SampledLoggingInterceptor(1024, 1);
+    interceptor.redactHeader("X-Api-Key");
+    client = new OkHttpClient.Builder()
+        .addInterceptor(interceptor)
+        .addInterceptor(server)
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+
+    Timber.uproot(tree);
+  }
+
+  @Test
+  public void testBodiesAreLogged() throws Exception {
+
+    client.newCall(new Request.Builder().url(URL).build()).execute().close();
+
+    assertTrue(awaitLog().contains("{\"name\":\"value\"}"));
+  }
+
+  @Test
+  public void testRequestBodiesWrittenOnce() throws Exception {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) throws IOException {
+
+        // Sends the body, as the network would
+        request.body().writeTo(new Buffer());
+        return StubServer.response(200, "{}");
+      }
+    });
+    final AtomicInteger writes = new AtomicInteger();
+    final RequestBody body = new RequestBody() {
+      @Override
+      public MediaType contentType() {
+
+        return StubServer.JSON;
+      }
+
+      @Override
+      public void writeTo(@NonNull BufferedSink sink) throws IOException {
+
+        writes.incrementAndGet();
+        sink.writeUtf8("{\"name\":\"streamed\"}");
+      }
+    };
+    client.newCall(new Request.Builder().url(URL).post(body).build()).execute().close();
+
+    assertTrue(awaitLog().contains("{\"name\":\"streamed\"}\n"));
+    assertEquals(1, writes.get());
+  }
+
+  @Test
+  public void testWholeBodiesOfUnknownLengthNotTruncated() throws Exception {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "").body(ResponseBody.create(StubServer.JSON, -1,
+            new Buffer().writeUtf8("{\"name\":\"value\"}")));
+      }
+    });
+    client.newCall(new Request.Builder().url(URL).build()).execute().close();
+
+    final String log = awaitLog();
+    assertTrue(log.contains("{\"name\":\"value\"}"));
+    assertFalse(log.contains("..."));
+  }
+
+  @Test
+  public void testCredentialsAreRedacted() throws Exception {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "{}").header("Set-Cookie", "session=secret");
+      }
+    });
+    client.newCall(new Request.Builder().url(URL)
+        .header("Authorization", "Bearer secret")
+        .header("x-api-key", "secret")
+        .build()).execute().close();
+
+    final String log = awaitLog();
+    assertTrue(log.contains("Authorization: ██"));
+    assertTrue(log.contains("Set-Cookie: ██"));
+    assertFalse(log.contains("secret"));
+  }
+
+  @Test
+  public void testBinaryBodiesAreNotLogged() throws Exception {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "").body(ResponseBody.create(null,
+            new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0}));
+      }
+    });
+    client.newCall(new Request.Builder().url(URL).build()).execute().close();
+
+    assertTrue(awaitLog().contains("(binary body, 10 bytes omitted)"));
+  }
+
+  @Test
+  public void testSlowBodiesAreNotWaitedFor() throws Exception {
+
+    final CountDownLatch bodySent = new CountDownLatch(1);
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "").body(ResponseBody.create(StubServer.JSON, -1,
+            Okio.buffer(new BlockingSource(bodySent))));
+      }
+    });
+
+    final Response[] response = new Response[1];
+    final Thread caller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          response[0] = client.newCall(new Request.Builder().url(URL).build()).execute();
+        } catch (IOException e) {
+          // Asserted below
+        }
+      }
+    });
+    caller.start();
+    caller.join(TimeUnit.SECONDS.toMillis(5));
+
+    // The response arrives while its body is still being sent
+    assertFalse(caller.isAlive());
+    assertTrue(response[0] != null);
+    bodySent.countDown();
+    response[0].close();
+  }
+
+  /**
+   * Waits for the first log written
+   *
+   * @return {@link String} with the log
+   */
+  private String awaitLog() throws InterruptedException {
+
+    for (int i = 0; i < 500 && logs.isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(logs.isEmpty());
+    return logs.get(0);
+  }
+
+  /**
+   * {@link Source} that sends nothing until it is released
+   */
+  private static final class BlockingSource implements Source {
+
+    private final CountDownLatch released;
+
+    BlockingSource(CountDownLatch released) {
+
+      this.released = released;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return -1;
+    }
+
+    @Override
+    public Timeout timeout() {
+
+      return Timeout.NONE;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+}
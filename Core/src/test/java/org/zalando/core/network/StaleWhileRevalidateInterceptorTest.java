@@ -0,0 +1,108 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link StaleWhileRevalidateInterceptor}
+ */
+public class StaleWhileRevalidateInterceptorTest {
+
+  private static final String URL = "https://api.example.com/entity";
+
+  private StubServer cache;
+  private StubServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setup() {
+
+    // The cache client only answers from the cache, 504 when the response is missing
+    cache = StubServer.always(504, "");
+    server = StubServer.always(200, "\"network\"");
+    final StaleWhileRevalidateInterceptor interceptor = new StaleWhileRevalidateInterceptor(60,
+        new OkHttpClient.Builder().addInterceptor(cache).build());
+    client = new OkHttpClient.Builder()
+        .addInterceptor(interceptor)
+        .addInterceptor(server)
+        .build();
+    interceptor.setCallFactory(client);
+  }
+
+  @Test
+  public void testMissGoesToNetwork() throws IOException {
+
+    assertEquals("\"network\"", execute());
+    assertTrue(cache.getRequests().get(0).cacheControl().onlyIfCached());
+    assertEquals(1, server.getRequests().size());
+  }
+
+  @Test
+  public void testFreshHitServedFromCache() throws IOException, InterruptedException {
+
+    cache.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "\"cached\"");
+      }
+    });
+
+    assertEquals("\"cached\"", execute());
+    Thread.sleep(100);
+    assertTrue(server.getRequests().isEmpty());
+  }
+
+  @Test
+  public void testStaleHitRefreshedInBackground() throws IOException, InterruptedException {
+
+    cache.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "\"cached\"")
+            .header("Warning", "110 HttpURLConnection \"Response is stale\"");
+      }
+    });
+
+    assertEquals("\"cached\"", execute());
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (server.getRequests().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, server.getRequests().size());
+    final Request refresh = server.getRequests().get(0);
+    assertTrue(refresh.cacheControl().noCache());
+    assertNull(refresh.header("X-Stale-While-Revalidate"));
+  }
+
+  @Test
+  public void testNoCacheRequestsSkipCache() throws IOException {
+
+    client.newCall(new Request.Builder().url(URL).header("Cache-Control", "no-cache").build())
+        .execute().close();
+
+    assertTrue(cache.getRequests().isEmpty());
+    assertEquals(1, server.getRequests().size());
+  }
+
+  private String execute() throws IOException {
+
+    final Response response = client.newCall(new Request.Builder().url(URL).build()).execute();
+    try {
+      return response.body().string();
+    } finally {
+      response.close();
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.zalando.core.network;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Build;
+import com.google.gson.Gson;
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.zalando.core.BuildConfig;
+import retrofit2.HttpException;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+import retrofit2.http.Streaming;
+
+/**
+ * Test for {@link StreamingJsonCallAdapterFactory}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP, manifest =
+    "src/main/AndroidManifest.xml")
+public class StreamingJsonCallAdapterFactoryTest {
+
+  interface ListApi {
+
+    @Streaming
+    @JsonArrayStream("page.items")
+    @GET("list")
+    Flowable<Integer> list();
+  }
+
+  private StubServer server;
+  private ListApi api;
+
+  @Before
+  public void setup() {
+
+    server = StubServer.always(200, "{\"total\":3,\"page\":{\"items\":[1,2,3],\"next\":null}}");
+    final Gson gson = new Gson();
+    api = new Retrofit.Builder()
+        .baseUrl("https://api.example.com/")
+        .client(new OkHttpClient.Builder().addInterceptor(server).build())
+        .addCallAdapterFactory(StreamingJsonCallAdapterFactory.create(gson))
+        .build()
+        .create(ListApi.class);
+  }
+
+  @Test
+  public void testStreamingArray() {
+
+    final TestSubscriber<Integer> subscriber = api.list().test();
+
+    subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    subscriber.assertValues(1, 2, 3).assertComplete();
+    assertEquals(1, server.getRequests().size());
+  }
+
+  @Test
+  public void testStreamingOnlyRequestedElements() {
+
+    final TestSubscriber<Integer> subscriber = api.list().take(1).test();
+
+    subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    subscriber.assertValues(1).assertComplete();
+  }
+
+  @Test
+  public void testUnsuccessfulResponse() {
+
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(404, "{}");
+      }
+    });
+    final TestSubscriber<Integer> subscriber = api.list().test();
+
+    subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    subscriber.assertError(HttpException.class);
+  }
+
+  @Test
+  public void testStreamingBinaryArray() throws IOException {
+
+    final Buffer body = new Buffer();
+    final BinaryJsonWriter writer = new BinaryJsonWriter(body);
+    writer.beginObject().name("total").value(3)
+        .name("page").beginObject().name("items").beginArray().value(1).value(2).value(3)
+        .endArray().endObject()
+        .endObject();
+    final ByteString bytes = body.readByteString();
+    server.setHandler(new StubServer.Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return StubServer.response(200, "")
+            .body(ResponseBody.create(BinaryConverterFactory.MEDIA_TYPE, bytes));
+      }
+    });
+    final TestSubscriber<Integer> subscriber = api.list().test();
+
+    subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    subscriber.assertValues(1, 2, 3).assertComplete();
+  }
+
+}
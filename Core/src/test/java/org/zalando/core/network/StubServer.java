@@ -0,0 +1,105 @@
+package org.zalando.core.network;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Interceptor answering the requests with canned responses instead of sending them, so the code
+ * under test runs on a real {@link okhttp3.OkHttpClient} chain without a server. Add it as the last
+ * interceptor of the client
+ */
+final class StubServer implements Interceptor {
+
+  /**
+   * Definition of the handlers building the responses of the server
+   */
+  interface Handler {
+
+    /**
+     * @param request {@link Request} received by the server
+     * @return {@link Response.Builder} with the response, request and protocol are set by the
+     * server
+     */
+    Response.Builder handle(Request request) throws IOException;
+  }
+
+  static final MediaType JSON = MediaType.parse("application/json");
+
+  private final List<Request> requests = new CopyOnWriteArrayList<>();
+  private volatile Handler handler;
+
+  /**
+   * Constructor
+   *
+   * @param handler {@link Handler} answering the requests
+   */
+  StubServer(Handler handler) {
+
+    this.handler = handler;
+  }
+
+  /**
+   * Creates a server answering every request with the given response
+   *
+   * @param code {@link Integer} with the status code
+   * @param body {@link String} with the JSON body
+   * @return {@link StubServer} answering the response
+   */
+  static StubServer always(final int code, final String body) {
+
+    return new StubServer(new Handler() {
+      @Override
+      public Response.Builder handle(Request request) {
+
+        return response(code, body);
+      }
+    });
+  }
+
+  /**
+   * Creates a {@link Response.Builder} with the given JSON body
+   *
+   * @param code {@link Integer} with the status code
+   * @param body {@link String} with the JSON body
+   * @return {@link Response.Builder} with the response
+   */
+  static Response.Builder response(int code, String body) {
+
+    return new Response.Builder()
+        .code(code)
+        .message("Stub " + code)
+        .body(ResponseBody.create(JSON, body));
+  }
+
+  void setHandler(Handler handler) {
+
+    this.handler = handler;
+  }
+
+  /**
+   * @return {@link List} with the requests received so far
+   */
+  List<Request> getRequests() {
+
+    return requests;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+
+    final Request request = chain.request();
+    requests.add(request);
+    return handler.handle(request)
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .build();
+  }
+
+}
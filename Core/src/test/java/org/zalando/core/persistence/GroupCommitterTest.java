@@ -0,0 +1,88 @@
+package org.zalando.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import io.reactivex.observers.TestObserver;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.zalando.core.BuildConfig;
+
+/**
+ * Test for {@link GroupCommitter}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP, manifest =
+    "src/main/AndroidManifest.xml")
+public class GroupCommitterTest {
+
+  private SharedPreferences preferences;
+  private GroupCommitter groupCommitter;
+
+  @Before
+  public void setup() {
+
+    preferences = RuntimeEnvironment.application
+        .getSharedPreferences("GroupCommitterTest", Context.MODE_PRIVATE);
+    preferences.edit().clear().commit();
+    groupCommitter = new GroupCommitter();
+    // Wide window, so all the batches of a test are written in the same group
+    groupCommitter.setWindow(100, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testFailingBatchDoesNotFailTheGroup() {
+
+    final TestObserver<Void> first = groupCommitter.submit(preferences, put("first")).test();
+    final TestObserver<Void> failing = groupCommitter.submit(preferences,
+        new GroupCommitter.Modifications() {
+          @Override
+          public void applyTo(SharedPreferences.Editor editor) {
+
+            editor.putString("half", "applied");
+            throw new IllegalStateException("Unable to encode");
+          }
+
+          @Override
+          public void onCommitted() {
+          }
+        }).test();
+    final TestObserver<Void> last = groupCommitter.submit(preferences, put("last")).test();
+
+    first.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    failing.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    last.awaitTerminalEvent(5, TimeUnit.SECONDS);
+
+    first.assertComplete();
+    last.assertComplete();
+    failing.assertError(IllegalStateException.class);
+    assertEquals("first", preferences.getString("first", null));
+    assertEquals("last", preferences.getString("last", null));
+    // Nothing of the failing batch is written
+    assertFalse(preferences.contains("half"));
+  }
+
+  private static GroupCommitter.Modifications put(final String key) {
+
+    return new GroupCommitter.Modifications() {
+      @Override
+      public void applyTo(SharedPreferences.Editor editor) {
+
+        editor.putString(key, key);
+      }
+
+      @Override
+      public void onCommitted() {
+      }
+    };
+  }
+
+}
@@ -0,0 +1,237 @@
+package org.zalando.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.SharedPreferences;
+import android.os.Build;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.zalando.core.BuildConfig;
+
+/**
+ * Test for {@link MappedLogPreferences}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP, manifest =
+    "src/main/AndroidManifest.xml")
+public class MappedLogPreferencesTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File logFile;
+
+  @Before
+  public void setup() {
+
+    logFile = new File(temporaryFolder.getRoot(), "table.log");
+  }
+
+  @Test
+  public void testSavingAllTypes() {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    final Set<String> stringSet = new HashSet<>(Arrays.asList("one", "two"));
+
+    // Test default values
+    assertFalse(preferences.contains("string"));
+    assertEquals("default", preferences.getString("string", "default"));
+
+    preferences.edit()
+        .putBoolean("boolean", true)
+        .putInt("int", 1)
+        .putLong("long", 2L)
+        .putFloat("float", 3f)
+        .putString("string", "value")
+        .putStringSet("set", stringSet)
+        .apply();
+
+    // Check they are saved
+    assertTrue(preferences.getBoolean("boolean", false));
+    assertEquals(1, preferences.getInt("int", 0));
+    assertEquals(2L, preferences.getLong("long", 0L));
+    assertEquals(3f, preferences.getFloat("float", 0f), 0.01);
+    assertEquals("value", preferences.getString("string", "default"));
+    assertEquals(stringSet, preferences.getStringSet("set", null));
+    assertEquals(6, preferences.getAll().size());
+  }
+
+  @Test
+  public void testReopeningLog() {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    preferences.edit().putString("kept", "first").putString("removed", "value").commit();
+    preferences.edit().putString("kept", "second").remove("removed").commit();
+
+    // Replay the log in a new instance
+    final SharedPreferences reopened = new MappedLogPreferences(logFile);
+    assertEquals("second", reopened.getString("kept", "default"));
+    assertFalse(reopened.contains("removed"));
+    assertEquals(1, reopened.getAll().size());
+  }
+
+  @Test
+  public void testClear() {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    preferences.edit().putString("key", "value").commit();
+    preferences.edit().clear().commit();
+
+    assertTrue(preferences.getAll().isEmpty());
+    assertTrue(new MappedLogPreferences(logFile).getAll().isEmpty());
+  }
+
+  @Test
+  public void testGrowingLog() {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    // Write more than the initially mapped capacity
+    for (int i = 0; i < 10000; i++) {
+      preferences.edit().putInt("key" + (i % 100), i).apply();
+    }
+
+    final SharedPreferences reopened = new MappedLogPreferences(logFile);
+    assertEquals(100, reopened.getAll().size());
+    assertEquals(9999, reopened.getInt("key99", 0));
+  }
+
+  @Test
+  public void testEngineThroughPersistentHashTable() {
+
+    final PersistentHashTable persistentHashTable = new PersistentHashTable(
+        RuntimeEnvironment.application, new MappedLogEngine());
+    persistentHashTable.reset();
+
+    assertTrue(persistentHashTable.isEmpty());
+    persistentHashTable.put("key", "value");
+    assertEquals("value", persistentHashTable.get("key", "default"));
+
+    // switch storage
+    persistentHashTable.switchStorage("anotherTable");
+    assertEquals("default", persistentHashTable.get("key", "default"));
+  }
+
+  @Test
+  public void testCorruptedRecordIsTruncated() throws Exception {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    preferences.edit().putString("kept", "kept-value").commit();
+    preferences.edit().putString("torn", "torn-value-with-a-long-body").commit();
+
+    // Flip a byte of the last record body, as a torn write would leave it
+    final int position = indexOf(readLog(), "torn-value");
+    final RandomAccessFile accessFile = new RandomAccessFile(logFile, "rw");
+    accessFile.seek(position);
+    accessFile.write('X');
+    accessFile.close();
+
+    final SharedPreferences reopened = new MappedLogPreferences(logFile);
+    assertEquals("kept-value", reopened.getString("kept", null));
+    assertFalse(reopened.contains("torn"));
+
+    // A shorter record must not let the stale bytes behind it be replayed
+    reopened.edit().putString("new", "v").commit();
+    final SharedPreferences reopenedAgain = new MappedLogPreferences(logFile);
+    assertEquals("v", reopenedAgain.getString("new", null));
+    assertEquals(2, reopenedAgain.getAll().size());
+  }
+
+  @Test
+  public void testGarbageAfterTailIsIgnored() throws Exception {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    preferences.edit().putString("key", "last-value").commit();
+
+    // Publish a length whose body never reached the disk
+    final int position = indexOf(readLog(), "last-value") + "last-value".length();
+    final RandomAccessFile accessFile = new RandomAccessFile(logFile, "rw");
+    accessFile.seek(position);
+    accessFile.writeInt(40);
+    accessFile.writeInt(Integer.MAX_VALUE);
+    accessFile.close();
+
+    final SharedPreferences reopened = new MappedLogPreferences(logFile);
+    assertEquals("last-value", reopened.getString("key", null));
+    assertEquals(1, reopened.getAll().size());
+  }
+
+  @Test
+  public void testConcurrentReadsAndWrites() throws Exception {
+
+    final SharedPreferences preferences = new MappedLogPreferences(logFile);
+    final int writes = 5000;
+    final AtomicBoolean failed = new AtomicBoolean();
+    final CountDownLatch readersDone = new CountDownLatch(4);
+
+    // Readers never lock, and must always observe increasing values
+    for (int i = 0; i < 4; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          int previous = -1;
+          while (previous < writes - 1) {
+            final int current = preferences.getInt("counter", -1);
+            if (current < previous) {
+              failed.set(true);
+            }
+            previous = current;
+          }
+          readersDone.countDown();
+        }
+      }).start();
+    }
+
+    for (int i = 0; i < writes; i++) {
+      preferences.edit().putInt("counter", i).putString("padding" + (i % 10), "v" + i).apply();
+    }
+
+    assertTrue(readersDone.await(10, TimeUnit.SECONDS));
+    assertFalse(failed.get());
+  }
+
+  private byte[] readLog() throws IOException {
+
+    final RandomAccessFile accessFile = new RandomAccessFile(logFile, "r");
+    try {
+      final byte[] bytes = new byte[(int) accessFile.length()];
+      accessFile.readFully(bytes);
+      return bytes;
+    } finally {
+      accessFile.close();
+    }
+  }
+
+  private static int indexOf(byte[] bytes, String text) {
+
+    final byte[] textBytes = text.getBytes(Charset.forName("UTF-8"));
+    for (int i = 0; i <= bytes.length - textBytes.length; i++) {
+      boolean matches = true;
+      for (int j = 0; j < textBytes.length && matches; j++) {
+        matches = bytes[i + j] == textBytes[j];
+      }
+      if (matches) {
+        return i;
+      }
+    }
+    throw new AssertionError(text + " not found");
+  }
+
+}
@@ -0,0 +1,91 @@
+package org.zalando.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.os.Build;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.zalando.core.BuildConfig;
+
+/**
+ * Test for {@link PersistentHashTableRegistry}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP, manifest =
+    "src/main/AndroidManifest.xml")
+public class PersistentHashTableRegistryTest {
+
+  private PersistentHashTableRegistry registry;
+
+  @Before
+  public void setup() {
+
+    registry = new PersistentHashTableRegistry(RuntimeEnvironment.application,
+        new MappedLogEngine(), 2);
+  }
+
+  @Test
+  public void testIndependentTables() {
+
+    final String key = "testIndependentTables";
+
+    registry.get("first").put(key, "first");
+    registry.get("second").put(key, "second");
+
+    // Each handle keeps reading its own table
+    assertEquals("first", registry.get("first").get(key, "default"));
+    assertEquals("second", registry.get("second").get(key, "default"));
+    assertSame(registry.get("first"), registry.get("first"));
+  }
+
+  @Test
+  public void testEvictingLeastRecentlyUsed() {
+
+    final String key = "testEvictingLeastRecentlyUsed";
+
+    final PersistentHashTable first = registry.get("first");
+    first.put(key, 1);
+    registry.get("second");
+    registry.get("third");
+
+    // First table was evicted, a new handle is created but data is still there
+    assertNotSame(first, registry.get("first"));
+    assertEquals(1, registry.get("first").get(key, 0).intValue());
+    // Evicted handles keep working
+    assertEquals(1, first.get(key, 0).intValue());
+  }
+
+  @Test
+  public void testEvictedHandleSharesTableWithNewHandle() {
+
+    final String key = "testEvictedHandleSharesTableWithNewHandle";
+
+    final PersistentHashTable evicted = registry.get("evicted");
+    evicted.put(key, 1);
+    registry.evict("evicted");
+
+    // Both handles write the same table, their indexes are built again from it
+    evicted.put(key, 2);
+    assertEquals(2, registry.get("evicted").get(key, 0).intValue());
+    assertEquals(1, registry.get("evicted").size());
+    registry.get("evicted").removePrefix(key);
+    assertEquals(0, evicted.size());
+  }
+
+  @Test
+  public void testPreload() {
+
+    registry.get("preloaded").put("testPreload", true);
+    registry.evict("preloaded");
+
+    registry.preload("preloaded").blockingAwait();
+    assertEquals(true, registry.get("preloaded").get("testPreload", false));
+  }
+
+}
@@ -1,15 +1,28 @@
 package org.zalando.core.persistence;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Build;
+import io.reactivex.Completable;
+import io.reactivex.functions.Consumer;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -17,6 +30,8 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.zalando.core.BuildConfig;
+import org.zalando.core.persistence.PersistentHashTable.Batch;
+import org.zalando.core.utils.SecurityUtils;
 
 /**
  * Test for {@link PersistentHashTable}
@@ -442,4 +457,362 @@ public class PersistentHashTableTest {
     subscriber.assertNoErrors();
   }
 
+  @Test
+  public void testBatchCommit() {
+
+    final String stringKey = "testBatchCommitString";
+    final String removedKey = "testBatchCommitRemoved";
+
+    persistentHashTable.put(removedKey, true);
+
+    persistentHashTable.beginBatch()
+        .put(stringKey, "value")
+        .put(" " + stringKey + "Integer\n", 1)
+        .remove(removedKey)
+        .commit()
+        .blockingAwait();
+
+    // Check all the modifications are saved
+    assertEquals("value", persistentHashTable.get(stringKey, "default"));
+    assertEquals(1, persistentHashTable.get(stringKey + "Integer", 2).intValue());
+    assertFalse(persistentHashTable.get(removedKey, false));
+  }
+
+  @Test
+  public void testGroupCommit() {
+
+    persistentHashTable.setGroupCommitWindow(50, TimeUnit.MILLISECONDS);
+
+    // Commit two batches within the same window
+    final Completable first = persistentHashTable.edit(new Consumer<Batch>() {
+      @Override
+      public void accept(Batch batch) throws Exception {
+        batch.put("testGroupCommitFirst", 1L);
+      }
+    });
+    final Completable second = persistentHashTable.edit(new Consumer<Batch>() {
+      @Override
+      public void accept(Batch batch) throws Exception {
+        batch.put("testGroupCommitSecond", 2L);
+      }
+    });
+
+    // Both complete once the group is written
+    assertNull(Completable.mergeArray(first, second).blockingGet(1, TimeUnit.SECONDS));
+    assertEquals(1L, persistentHashTable.get("testGroupCommitFirst", 0L).longValue());
+    assertEquals(2L, persistentHashTable.get("testGroupCommitSecond", 0L).longValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBatchWithNotSupportedType() {
+
+    persistentHashTable.beginBatch().put("testBatchWithNotSupportedType", new Object());
+  }
+
+  @Test
+  public void testLoadPrefix() {
+
+    TestObserver<String> subscriber = persistentHashTable.loadPrefix("testLoadPrefix.").test();
+    subscriber.assertNoValues();
+
+    // Only the keys under the prefix are emitted
+    persistentHashTable.put("testLoadPrefix.first", 1);
+    persistentHashTable.put("anotherPrefix.first", 1);
+    persistentHashTable.put("testLoadPrefix.second", "value");
+    subscriber.assertValues("testLoadPrefix.first", "testLoadPrefix.second");
+    subscriber.assertNotComplete();
+
+    subscriber.dispose();
+    persistentHashTable.put("testLoadPrefix.third", 3);
+    subscriber.assertValueCount(2);
+  }
+
+  @Test
+  public void testLoadFlowable() {
+
+    final String key = "testLoadFlowable";
+
+    TestSubscriber<Long> subscriber = persistentHashTable.loadFlowable(key, 1L).test();
+    subscriber.assertValues(1L);
+
+    persistentHashTable.put(key, 2L);
+    subscriber.assertValues(1L, 2L);
+    subscriber.assertNoErrors();
+    subscriber.assertNotComplete();
+  }
+
+  @Test
+  public void testSavingBytes() {
+
+    final String key = "testSavingBytes";
+    final byte[] bytes = new byte[]{0, 1, 2, (byte) 255};
+
+    // Test default values
+    assertNull(persistentHashTable.get(key, byte[].class, null));
+
+    persistentHashTable.put(key, bytes);
+    assertArrayEquals(bytes, persistentHashTable.get(key, byte[].class, null));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSavingWithCodec() {
+
+    final String key = "testSavingWithCodec";
+    final List<String> list = Arrays.asList("first", "second");
+
+    persistentHashTable.registerCodec(List.class, (ValueCodec) ValueCodecs.listOf(
+        ValueCodecs.STRING));
+    persistentHashTable.put(key, list);
+
+    final List<?> savedList = persistentHashTable.get(key, List.class, null);
+    assertEquals(list, savedList);
+    // Hot keys are not decoded again
+    assertSame(savedList, persistentHashTable.get(key, List.class, null));
+
+    // Until their value changes
+    persistentHashTable.put(key, Arrays.asList("third"));
+    assertEquals(Arrays.asList("third"), persistentHashTable.get(key, List.class, null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSavingNotSupportedType() {
+
+    persistentHashTable.put("testSavingNotSupportedType", new Object());
+  }
+
+  @Test
+  public void testSavingWithTimeToLive() throws Exception {
+
+    final String key = "testSavingWithTimeToLive";
+
+    persistentHashTable.put(key, "value", 1, TimeUnit.HOURS);
+    assertEquals("value", persistentHashTable.get(key, "default"));
+
+    persistentHashTable.put(key, "expiring", 1, TimeUnit.MILLISECONDS);
+    Thread.sleep(10);
+
+    // Expired values are neither returned nor counted
+    assertEquals("default", persistentHashTable.get(key, "default"));
+    assertTrue(persistentHashTable.isEmpty());
+
+    // Saving without time to live never expires
+    persistentHashTable.put(key, "expiring", 1, TimeUnit.MILLISECONDS);
+    persistentHashTable.put(key, "value");
+    Thread.sleep(10);
+    assertEquals("value", persistentHashTable.get(key, "default"));
+  }
+
+  @Test
+  public void testClosingHandleKeepsIndexOfOtherHandles() {
+
+    final String tableId = "testClosingHandleKeepsIndexOfOtherHandles";
+    final PersistentHashTable first = new PersistentHashTable(RuntimeEnvironment.application,
+        new SharedPreferencesEngine(), tableId);
+    final PersistentHashTable second = new PersistentHashTable(RuntimeEnvironment.application,
+        new SharedPreferencesEngine(), tableId);
+    first.put("first", 1);
+    assertEquals(1, second.size());
+
+    first.close();
+    // Written through a third handle, the index of the second one must still see it
+    new PersistentHashTable(RuntimeEnvironment.application, new SharedPreferencesEngine(), tableId)
+        .put("third", 3);
+
+    assertEquals(2, second.size());
+  }
+
+  @Test
+  public void testExpiredRemovedOnRead() throws Exception {
+
+    final String key = "testExpiredRemovedOnRead";
+    final PersistentHashTable table = new PersistentHashTable(RuntimeEnvironment.application,
+        new SharedPreferencesEngine(), key);
+    table.put(key, "expiring", 1, TimeUnit.MILLISECONDS);
+    Thread.sleep(10);
+
+    assertEquals("default", table.get(key, "default"));
+    final SharedPreferences sharedPreferences = RuntimeEnvironment.application
+        .getSharedPreferences(key, Context.MODE_PRIVATE);
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (sharedPreferences.contains(key) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertFalse(sharedPreferences.contains(key));
+    assertEquals(0, table.sweepExpired(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSweepExpired() throws Exception {
+
+    persistentHashTable.put("testSweepExpiredFirst", 1, 1, TimeUnit.MILLISECONDS);
+    persistentHashTable.put("testSweepExpiredSecond", 2, 1, TimeUnit.MILLISECONDS);
+    persistentHashTable.put("testSweepExpiredKept", 3, 1, TimeUnit.HOURS);
+    Thread.sleep(10);
+
+    // Expired values nobody reads stay on disk until the sweeper removes them
+    assertEquals(1, persistentHashTable.size());
+    assertEquals(2, persistentHashTable.sweepExpired(1, TimeUnit.SECONDS));
+    assertEquals(0, persistentHashTable.sweepExpired(1, TimeUnit.SECONDS));
+    assertEquals(3, persistentHashTable.get("testSweepExpiredKept", 0).intValue());
+  }
+
+  @Test
+  public void testReady() {
+
+    final PersistentHashTable table = new PersistentHashTable(RuntimeEnvironment.application);
+    table.switchStorage("testReady");
+
+    // Load in background and wait for it
+    assertNull(table.ready().blockingGet(1, TimeUnit.SECONDS));
+    table.awaitReady();
+
+    // Reads after the table is ready do not block
+    final long blockedTime = table.getBlockedTime(TimeUnit.NANOSECONDS);
+    table.get("testReady", "default");
+    assertEquals(blockedTime, table.getBlockedTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void testReadyAfterSwitchingStorage() {
+
+    final PersistentHashTable table = new PersistentHashTable(RuntimeEnvironment.application);
+    table.switchStorage("testReadyBeforeSwitch");
+
+    // The table is switched while the previous one is being loaded
+    final Completable warmUp = table.ready();
+    table.switchStorage("testReadyAfterSwitch");
+    warmUp.blockingAwait(1, TimeUnit.SECONDS);
+
+    // Loading the previous table does not mark the new one as loaded
+    final long blockedTime = table.getBlockedTime(TimeUnit.NANOSECONDS);
+    table.get("testReadyAfterSwitch", "default");
+    assertNotEquals(blockedTime, table.getBlockedTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void testConcurrentReadsWhileSwitching() throws Exception {
+
+    final PersistentHashTable table = new PersistentHashTable(RuntimeEnvironment.application);
+    table.switchStorage("testConcurrentReadsFirst");
+    table.put("key", "first");
+    table.switchStorage("testConcurrentReadsSecond");
+    table.put("key", "second");
+
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+    final Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 500; j++) {
+              values.add(table.get("key", "default"));
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      });
+      readers[i].start();
+    }
+    for (int i = 0; i < 100; i++) {
+      table.switchStorage(i % 2 == 0 ? "testConcurrentReadsFirst" : "testConcurrentReadsSecond");
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    // Every read sees one of the tables, never a mix of both
+    assertTrue(errors.isEmpty());
+    for (String value : values) {
+      assertTrue(value.equals("first") || value.equals("second"));
+    }
+  }
+
+  @Test
+  public void testKeys() {
+
+    persistentHashTable.put("testKeys.second", 2);
+    persistentHashTable.put("testKeys.first", 1);
+    persistentHashTable.put("anotherPrefix.first", 1);
+    persistentHashTable.put("testKeys.expiring", 3, 1, TimeUnit.HOURS);
+
+    // Sorted keys under the prefix, expiry times are not listed
+    assertEquals(Arrays.asList("testKeys.expiring", "testKeys.first", "testKeys.second"),
+        new ArrayList<>(persistentHashTable.keys("testKeys.")));
+    assertEquals(4, persistentHashTable.keys("").size());
+    assertEquals(4, persistentHashTable.size());
+
+    persistentHashTable.edit(new Consumer<Batch>() {
+      @Override
+      public void accept(Batch batch) throws Exception {
+        batch.remove("testKeys.first").put("testKeys.third", 3);
+      }
+    }).blockingAwait();
+    assertEquals(Arrays.asList("testKeys.expiring", "testKeys.second", "testKeys.third"),
+        new ArrayList<>(persistentHashTable.keys("testKeys.")));
+    assertEquals(4, persistentHashTable.size());
+  }
+
+  @Test
+  public void testScan() {
+
+    persistentHashTable.put("a", 1);
+    persistentHashTable.put("b", 2);
+    persistentHashTable.put("c", 3);
+    persistentHashTable.put("d", 4);
+
+    assertEquals(Arrays.asList("b", "c"), new ArrayList<>(persistentHashTable.scan("b", "d")));
+    assertTrue(persistentHashTable.scan("e", "f").isEmpty());
+  }
+
+  @Test
+  public void testRemovePrefix() {
+
+    persistentHashTable.put("testRemovePrefix.first", 1);
+    persistentHashTable.put("testRemovePrefix.second", 2, 1, TimeUnit.HOURS);
+    persistentHashTable.put("anotherPrefix.first", 1);
+
+    assertEquals(2, persistentHashTable.removePrefix("testRemovePrefix."));
+    assertEquals(1, persistentHashTable.size());
+    assertEquals(0, persistentHashTable.get("testRemovePrefix.second", 0).intValue());
+    assertEquals(1, persistentHashTable.get("anotherPrefix.first", 0).intValue());
+    assertEquals(0, persistentHashTable.removePrefix("testRemovePrefix."));
+  }
+
+  @Test
+  public void testEncryptedTable() throws Exception {
+
+    final String encryptionKey = SecurityUtils.generateKey("testEncryptedTable");
+    final PersistentHashTable table = new PersistentHashTable(RuntimeEnvironment.application,
+        new SharedPreferencesEngine(), "testEncryptedTable", encryptionKey);
+    final Date date = new Date();
+
+    table.put("string", "value");
+    table.put("integer", 1);
+    table.put("long", 2L);
+    table.put("float", 3f);
+    table.put("boolean", true);
+    table.put("date", date);
+    table.put("bytes", new byte[] {1, 2, 3});
+
+    assertEquals("value", table.get("string", "default"));
+    assertEquals(1, table.get("integer", 0).intValue());
+    assertEquals(2L, table.get("long", 0L).longValue());
+    assertEquals(3f, table.get("float", 0f), 0);
+    assertTrue(table.get("boolean", false));
+    assertEquals(date, table.get("date", new Date(0)));
+    assertArrayEquals(new byte[] {1, 2, 3}, table.get("bytes", byte[].class, null));
+    assertEquals("default", table.get("missing", "default"));
+
+    // Nothing is stored in plain text, and another handle with the same key reads the values
+    assertNotEquals("value", RuntimeEnvironment.application.getSharedPreferences(
+        "testEncryptedTable", Context.MODE_PRIVATE).getString("string", null));
+    assertEquals("value", new PersistentHashTable(RuntimeEnvironment.application,
+        new SharedPreferencesEngine(), "testEncryptedTable", encryptionKey)
+        .get("string", "default"));
+  }
+
 }
@@ -1,8 +1,10 @@
 package org.zalando.core.utils;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertTrue;
 
 import android.os.Build;
 import android.util.Base64;
@@ -10,6 +12,7 @@ import android.util.Pair;
 import org.zalando.core.BuildConfig;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -111,4 +114,28 @@ public class SecurityUtilsTest {
     assertEquals(new String(Base64.decode(encryptedText2, Base64.DEFAULT)), textToEncrypt);
   }
 
+  @Test
+  public void testBinaryCipher() throws GeneralSecurityException {
+
+    byte[] data = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    SecurityUtils.BinaryCipher cipher = new SecurityUtils.BinaryCipher(
+        SecurityUtils.generateKey("Password to use"));
+    byte[] encryptedData = cipher.encrypt(data);
+
+    // Random IVs, so the same data is never encrypted the same way
+    assertFalse(Arrays.equals(encryptedData, cipher.encrypt(data)));
+    assertTrue(Arrays.equals(data, cipher.decrypt(encryptedData)));
+  }
+
+  @Test(expected = GeneralSecurityException.class)
+  public void testBinaryCipherWithDifferentKey() throws GeneralSecurityException {
+
+    byte[] encryptedData = new SecurityUtils.BinaryCipher(SecurityUtils.generateKey("Password"))
+        .encrypt(new byte[] {1, 2, 3});
+
+    new SecurityUtils.BinaryCipher(SecurityUtils.generateKey("Another password"))
+        .decrypt(encryptedData);
+  }
+
 }